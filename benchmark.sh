@@ -0,0 +1,18 @@
+#!/bin/sh
+echo "***********************************************************************"
+echo "* This shell script measures the throughput of the node hot paths and *"
+echo "* writes the results to benchmark.json.  Use -db to also run the      *"
+echo "* database benchmarks, the node must not be running in that case.     *"
+echo "*                                                                     *"
+echo "* ./benchmark.sh [-db] [-filter name] [-warmup seconds]               *"
+echo "*                [-iterations count] [-out file]                      *"
+echo "***********************************************************************"
+
+if [ -x jdk/bin/java ]; then
+    JAVA=./jdk/bin/java
+else
+    JAVA=java
+fi
+
+${JAVA} -Xmx1024m -cp "classes:lib/*:conf" qoober.tools.Benchmark $@
+exit $?
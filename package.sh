@@ -11,7 +11,7 @@ echo PACKAGE="${PACKAGE}"
 
 FILES="changelogs classes conf html lib src resource addons"
 FILES="${FILES} ${APPLICATION}.jar ${APPLICATION}service.jar"
-FILES="${FILES} mint.bat mint.sh run.bat run.sh run-tor.sh stop.sh compact.sh compact.bat sign.sh sign.bat passphraseRecovery.sh passphraseRecovery.bat"
+FILES="${FILES} mint.bat mint.sh run.bat run.sh run-tor.sh stop.sh compact.sh compact.bat benchmark.sh sign.sh sign.bat passphraseRecovery.sh passphraseRecovery.bat"
 FILES="${FILES} compile.sh javadoc.sh jar.sh package.sh"
 
 echo compile
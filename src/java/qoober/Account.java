@@ -33,9 +33,15 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -113,6 +119,7 @@ public final class Account {
             } else {
                 accountAssetTable.delete(this);
             }
+            assetHolders.update(this.assetId, this.accountId, this.quantityQNT);
         }
 
         @Override
@@ -185,6 +192,7 @@ public final class Account {
             } else if (this.units == 0 && this.unconfirmedUnits == 0) {
                 accountCurrencyTable.delete(this);
             }
+            currencyHolders.update(this.currencyId, this.accountId, this.units);
         }
 
         @Override
@@ -450,6 +458,13 @@ public final class Account {
 
     }
 
+    /** Order holder balances by descending balance and ascending account identifier */
+    private static final Comparator<Map.Entry<Long, Long>> holderComparator =
+            Comparator.comparing(Map.Entry<Long, Long>::getValue).reversed().thenComparing(Map.Entry::getKey);
+
+    /** Number of accounts loaded by a single query */
+    private static final int ACCOUNT_LOAD_SIZE = 500;
+
     private static final DbKey.LongKeyFactory<Account> accountDbKeyFactory = new DbKey.LongKeyFactory<Account>("id") {
 
         @Override
@@ -624,8 +639,28 @@ public final class Account {
             return " ORDER BY quantity DESC, account_id, asset_id ";
         }
 
+        @Override
+        public boolean keepsExternalState() {
+            return true;
+        }
+
+        @Override
+        public void popOffTo(int height) {
+            super.popOffTo(height);
+            assetHolders.clear();
+        }
+
+        @Override
+        public void truncate() {
+            super.truncate();
+            assetHolders.clear();
+        }
+
     };
 
+    private static final HolderBalances assetHolders = new HolderBalances("account_asset", "asset_id", "quantity",
+            Constants.MAX_DIVIDEND_PAYMENT_ROLLBACK);
+
     private static final DbKey.LinkKeyFactory<AccountCurrency> accountCurrencyDbKeyFactory = new DbKey.LinkKeyFactory<AccountCurrency>("account_id", "currency_id") {
 
         @Override
@@ -652,8 +687,27 @@ public final class Account {
             return " ORDER BY units DESC, account_id, currency_id ";
         }
 
+        @Override
+        public boolean keepsExternalState() {
+            return true;
+        }
+
+        @Override
+        public void popOffTo(int height) {
+            super.popOffTo(height);
+            currencyHolders.clear();
+        }
+
+        @Override
+        public void truncate() {
+            super.truncate();
+            currencyHolders.clear();
+        }
+
     };
 
+    private static final HolderBalances currencyHolders = new HolderBalances("account_currency", "currency_id", "units", 0);
+
     private static final DerivedDbTable accountGuaranteedBalanceTable = new DerivedDbTable("account_guaranteed_balance") {
 
         @Override
@@ -1029,6 +1083,56 @@ public final class Account {
         return accountCurrencyTable.getManyBy(new DbClause.LongClause("currency_id", currencyId), height, from, to);
     }
 
+    /**
+     * Get the non-zero asset balances of all holders
+     *
+     * @param   assetId                 Asset identifier
+     * @param   height                  Height
+     * @return                          Unmodifiable asset balances by account
+     */
+    public static Map<Long, Long> getAssetHolderBalances(long assetId, int height) {
+        Map<Long, Long> balances = assetHolders.getBalances(assetId, height);
+        if (balances == null) {
+            balances = new HashMap<>();
+            try (DbIterator<AccountAsset> iterator = getAssetAccounts(assetId, height, 0, -1)) {
+                while (iterator.hasNext()) {
+                    AccountAsset accountAsset = iterator.next();
+                    if (accountAsset.quantityQNT != 0) {
+                        balances.put(accountAsset.accountId, accountAsset.quantityQNT);
+                    }
+                }
+            }
+            balances = Collections.unmodifiableMap(balances);
+        }
+        return balances;
+    }
+
+    /**
+     * Get the asset balance of an account using the holder balances of the asset
+     *
+     * @param   accountId               Account identifier
+     * @param   assetId                 Asset identifier
+     * @param   height                  Height
+     * @return                          Asset balance
+     */
+    public static long getAssetHolderBalanceQNT(long accountId, long assetId, int height) {
+        Map<Long, Long> balances = assetHolders.getBalances(assetId, height);
+        return balances != null ? balances.getOrDefault(accountId, 0L) : getAssetBalanceQNT(accountId, assetId, height);
+    }
+
+    /**
+     * Get the currency units of an account using the holder balances of the currency
+     *
+     * @param   accountId               Account identifier
+     * @param   currencyId              Currency identifier
+     * @param   height                  Height
+     * @return                          Currency units
+     */
+    public static long getCurrencyHolderUnits(long accountId, long currencyId, int height) {
+        Map<Long, Long> balances = currencyHolders.getBalances(currencyId, height);
+        return balances != null ? balances.getOrDefault(accountId, 0L) : getCurrencyUnits(accountId, currencyId, height);
+    }
+
     public static long getAssetBalanceQNT(long accountId, long assetId, int height) {
         AccountAsset accountAsset = accountAssetTable.get(accountAssetDbKeyFactory.newKey(accountId, assetId), height);
         return accountAsset == null ? 0 : accountAsset.quantityQNT;
@@ -1823,6 +1927,137 @@ public final class Account {
         }
     }
 
+    /**
+     * Add positive amounts to the balances and unconfirmed balances of several accounts. The
+     * accounts are saved with a single batch, the guaranteed balances are updated with a single
+     * batch and the amounts are added to the struct balances of the parent accounts once per parent.
+     *
+     * @param   event                   Ledger event
+     * @param   eventId                 Ledger event identifier
+     * @param   amounts                 Amounts by account identifier
+     */
+    static void addToBalanceAndUnconfirmedBalanceNQT(LedgerEvent event, long eventId, Map<Long, Long> amounts) {
+        loadAccounts(amounts.keySet());
+        int blockchainHeight = Qoober.getBlockchain().getHeight();
+        List<Account> accounts = new ArrayList<>(amounts.size());
+        for (Map.Entry<Long, Long> entry : amounts.entrySet()) {
+            long amountNQT = entry.getValue();
+            if (amountNQT < 0) {
+                throw new IllegalArgumentException("Negative amount for account " + Long.toUnsignedString(entry.getKey()));
+            }
+            if (amountNQT == 0) {
+                continue;
+            }
+            Account account = Account.getAccount(entry.getKey());
+            long oldBalance = account.balanceNQT;
+            account.balanceNQT = Math.addExact(account.balanceNQT, amountNQT);
+            account.unconfirmedBalanceNQT = Math.addExact(account.unconfirmedBalanceNQT, amountNQT);
+            if (oldBalance < Constants.MIN_PARAMINING_BALANCE_QNT && account.balanceNQT >= Constants.MIN_PARAMINING_BALANCE_QNT
+                    && account.balanceNQT < Constants.MAX_PARAMINING_BALANCE_QNT) {
+                account.lastParaminingStart = blockchainHeight;
+            }
+            checkBalance(account.id, account.balanceNQT, account.unconfirmedBalanceNQT);
+            accounts.add(account);
+        }
+        addToGuaranteedBalanceNQT(amounts);
+        addToStructBalanceNQT(amounts);
+        accountTable.insert(accounts);
+        for (Account account : accounts) {
+            long amountNQT = amounts.get(account.id);
+            listeners.notify(account, Event.BALANCE);
+            listeners.notify(account, Event.UNCONFIRMED_BALANCE);
+            if (event == null) {
+                continue;
+            }
+            if (AccountLedger.mustLogEntry(account.id, true)) {
+                AccountLedger.logEntry(new LedgerEntry(event, eventId, account.id,
+                        LedgerHolding.UNCONFIRMED_NXT_BALANCE, null, amountNQT, account.unconfirmedBalanceNQT));
+            }
+            if (AccountLedger.mustLogEntry(account.id, false)) {
+                AccountLedger.logEntry(new LedgerEntry(event, eventId, account.id,
+                        LedgerHolding.NXT_BALANCE, null, amountNQT, account.balanceNQT));
+            }
+        }
+    }
+
+    /**
+     * Get the confirmed balances of several accounts at a height
+     *
+     * @param   accountIds              Account identifiers
+     * @param   height                  Height
+     * @return                          Balances by account, accounts that did not exist at the
+     *                                  height are not included
+     */
+    static Map<Long, Long> getBalancesNQT(Collection<Long> accountIds, int height) {
+        Map<Long, Long> balances = new HashMap<>();
+        Iterator<Long> it = accountIds.iterator();
+        while (it.hasNext()) {
+            List<Long> ids = new ArrayList<>(ACCOUNT_LOAD_SIZE);
+            while (ids.size() < ACCOUNT_LOAD_SIZE && it.hasNext()) {
+                ids.add(it.next());
+            }
+            StringBuilder sb = new StringBuilder("SELECT a.id, a.balance FROM account AS a WHERE a.id IN (");
+            for (int i = 0; i < ids.size(); i++) {
+                sb.append(i == 0 ? "?" : ", ?");
+            }
+            sb.append(") AND a.height <= ? AND (a.latest = TRUE OR (a.latest = FALSE ")
+                    .append("AND EXISTS (SELECT 1 FROM account AS b WHERE b.id = a.id AND b.height > ?) ")
+                    .append("AND NOT EXISTS (SELECT 1 FROM account AS b WHERE b.id = a.id AND b.height <= ? AND b.height > a.height)))");
+            try (Connection con = Db.db.getConnection();
+                 PreparedStatement pstmt = con.prepareStatement(sb.toString())) {
+                int i = 0;
+                for (long id : ids) {
+                    pstmt.setLong(++i, id);
+                }
+                pstmt.setInt(++i, height);
+                pstmt.setInt(++i, height);
+                pstmt.setInt(++i, height);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        balances.put(rs.getLong(1), rs.getLong(2));
+                    }
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e.toString(), e);
+            }
+        }
+        return balances;
+    }
+
+    /**
+     * Load the latest versions of several accounts into the transaction cache
+     *
+     * @param   accountIds              Account identifiers
+     */
+    private static void loadAccounts(Collection<Long> accountIds) {
+        Iterator<Long> it = accountIds.iterator();
+        while (it.hasNext()) {
+            List<Long> ids = new ArrayList<>(ACCOUNT_LOAD_SIZE);
+            while (ids.size() < ACCOUNT_LOAD_SIZE && it.hasNext()) {
+                ids.add(it.next());
+            }
+            StringBuilder sb = new StringBuilder("SELECT * FROM account WHERE id IN (");
+            for (int i = 0; i < ids.size(); i++) {
+                sb.append(i == 0 ? "?" : ", ?");
+            }
+            sb.append(") AND latest = TRUE");
+            try (Connection con = Db.db.getConnection();
+                 PreparedStatement pstmt = con.prepareStatement(sb.toString())) {
+                int i = 0;
+                for (long id : ids) {
+                    pstmt.setLong(++i, id);
+                }
+                try (DbIterator<Account> accounts = accountTable.getManyBy(con, pstmt, true)) {
+                    while (accounts.hasNext()) {
+                        accounts.next();
+                    }
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e.toString(), e);
+            }
+        }
+    }
+
     private void calculateBalances(long amountNQT, long oldBalance, long eventId) {
         long paramining = 0;
 
@@ -1934,33 +2169,153 @@ public final class Account {
         }
     }
 
+    private static void addToGuaranteedBalanceNQT(Map<Long, Long> amounts) {
+        int blockchainHeight = Qoober.getBlockchain().getHeight();
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmtSelect = con.prepareStatement("SELECT db_id, account_id, additions "
+                     + "FROM account_guaranteed_balance WHERE height = ?");
+             PreparedStatement pstmtUpdate = con.prepareStatement("UPDATE account_guaranteed_balance "
+                     + "SET additions = ? WHERE db_id = ?");
+             PreparedStatement pstmtInsert = con.prepareStatement("INSERT INTO account_guaranteed_balance "
+                     + "(account_id, additions, height) VALUES(?, ?, ?)")) {
+            //
+            // Get the additions made at the current height, the rows are updated by db_id since all
+            // of them have the same height
+            //
+            Map<Long, long[]> additions = new HashMap<>();
+            pstmtSelect.setInt(1, blockchainHeight);
+            try (ResultSet rs = pstmtSelect.executeQuery()) {
+                while (rs.next()) {
+                    additions.put(rs.getLong("account_id"), new long[] {rs.getLong("db_id"), rs.getLong("additions")});
+                }
+            }
+            for (Map.Entry<Long, Long> entry : amounts.entrySet()) {
+                if (entry.getValue() <= 0) {
+                    continue;
+                }
+                long[] row = additions.get(entry.getKey());
+                if (row != null) {
+                    pstmtUpdate.setLong(1, Math.addExact(row[1], entry.getValue()));
+                    pstmtUpdate.setLong(2, row[0]);
+                    pstmtUpdate.addBatch();
+                } else {
+                    pstmtInsert.setLong(1, entry.getKey());
+                    pstmtInsert.setLong(2, entry.getValue());
+                    pstmtInsert.setInt(3, blockchainHeight);
+                    pstmtInsert.addBatch();
+                }
+            }
+            pstmtUpdate.executeBatch();
+            pstmtInsert.executeBatch();
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    private static void addToStructBalanceNQT(Map<Long, Long> amounts) {
+        //
+        // Add up the amounts for each parent account
+        //
+        Map<Long, Long> parentAmounts = new HashMap<>();
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT DISTINCT parent FROM account_parent_links WHERE id = ?")) {
+            for (Map.Entry<Long, Long> entry : amounts.entrySet()) {
+                if (entry.getValue() == 0) {
+                    continue;
+                }
+                pstmt.setLong(1, entry.getKey());
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        parentAmounts.merge(rs.getLong("parent"), entry.getValue(), Math::addExact);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        if (parentAmounts.isEmpty()) {
+            return;
+        }
+        int blockchainHeight = Qoober.getBlockchain().getHeight();
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmtMerge = con.prepareStatement("MERGE INTO account_struct (id, balance, height, latest) " +
+                     "KEY (id, height) SELECT id, balance + ?, ?, TRUE FROM account_struct WHERE latest = TRUE AND id = ?");
+             PreparedStatement pstmtUpdate = con.prepareStatement("UPDATE account_struct SET latest = FALSE WHERE latest = TRUE " +
+                     "AND height < ? AND id = ?"))
+        {
+            for (Map.Entry<Long, Long> entry : parentAmounts.entrySet()) {
+                pstmtMerge.setLong(1, entry.getValue());
+                pstmtMerge.setInt(2, blockchainHeight);
+                pstmtMerge.setLong(3, entry.getKey());
+                pstmtMerge.addBatch();
+                pstmtUpdate.setInt(1, blockchainHeight);
+                pstmtUpdate.setLong(2, entry.getKey());
+                pstmtUpdate.addBatch();
+            }
+            pstmtMerge.executeBatch();
+            pstmtUpdate.executeBatch();
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    /**
+     * Credit a QBR dividend to several accounts and roll back the changes. The accounts that do not
+     * exist are created first, and a zero amount only creates the accounts. This is used by the
+     * benchmarks to compare the bulk dividend path with crediting the holders one at a time, so it
+     * must not be called while the node is processing blocks.
+     *
+     * @param   accountIds              Holder account identifiers
+     * @param   amountNQT               Dividend credited to each holder
+     * @param   bulk                    TRUE to credit the holders through the bulk dividend path
+     */
+    public static void benchmarkDividendPayment(long[] accountIds, long amountNQT, boolean bulk) {
+        long eventId = accountIds[0];
+        Db.db.beginTransaction();
+        try {
+            Map<Long, Long> dividends = new LinkedHashMap<>();
+            for (long accountId : accountIds) {
+                addOrGetAccount(accountId);
+                dividends.put(accountId, amountNQT);
+            }
+            if (bulk) {
+                HoldingType.NXT.addToBalanceAndUnconfirmedBalance(dividends, LedgerEvent.ASSET_DIVIDEND_PAYMENT, eventId, 0);
+            } else if (amountNQT != 0) {
+                for (long accountId : accountIds) {
+                    HoldingType.NXT.addToBalanceAndUnconfirmedBalance(getAccount(accountId),
+                            LedgerEvent.ASSET_DIVIDEND_PAYMENT, eventId, 0, amountNQT);
+                }
+            }
+        } finally {
+            AccountLedger.clearEntries();
+            Db.db.rollbackTransaction();
+            Db.db.endTransaction();
+        }
+    }
+
     void payDividends(final long transactionId, Attachment.ColoredCoinsDividendPayment attachment) {
         long totalDividend = 0;
         HoldingType holdingType = attachment.getHoldingType();
         long holdingId = attachment.getHoldingId();
+        final long amountNQTPerQNT = attachment.getAmountNQTPerQNT();
         //
-        // Get a list of all asset owners
+        // Compute the dividend of each asset owner
         //
-        List<AccountAsset> accountAssets = new ArrayList<>();
-        try (DbIterator<AccountAsset> iterator = getAssetAccounts(attachment.getAssetId(), attachment.getHeight(), 0, -1)) {
-            while (iterator.hasNext()) {
-                accountAssets.add(iterator.next());
+        List<Map.Entry<Long, Long>> holders = new ArrayList<>(getAssetHolderBalances(attachment.getAssetId(), attachment.getHeight()).entrySet());
+        holders.sort(holderComparator);
+        Map<Long, Long> dividends = new LinkedHashMap<>();
+        for (Map.Entry<Long, Long> holder : holders) {
+            if (holder.getKey() != this.id) {
+                long dividend = Math.multiplyExact(holder.getValue(), amountNQTPerQNT);
+                dividends.put(holder.getKey(), dividend);
+                totalDividend += dividend;
             }
         }
-        final long amountNQTPerQNT = attachment.getAmountNQTPerQNT();
         //
         // Pay dividends.
         //
-        long numAccounts = 0;
-        for (final AccountAsset accountAsset : accountAssets) {
-            if (accountAsset.getAccountId() != this.id && accountAsset.getQuantityQNT() != 0) {
-                long dividend = Math.multiplyExact(accountAsset.getQuantityQNT(), amountNQTPerQNT);
-                holdingType.addToBalanceAndUnconfirmedBalance(Account.getAccount(accountAsset.getAccountId()),
-                        AccountLedger.LedgerEvent.ASSET_DIVIDEND_PAYMENT, transactionId, holdingId, dividend);
-                totalDividend += dividend;
-                numAccounts += 1;
-            }
-        }
+        holdingType.addToBalanceAndUnconfirmedBalance(dividends, AccountLedger.LedgerEvent.ASSET_DIVIDEND_PAYMENT,
+                transactionId, holdingId);
         //
         // Update the issuer balance for the dividends paid
         //
@@ -1969,7 +2324,7 @@ public final class Account {
         //
         // Update the dividend table
         //
-        AssetDividend.addAssetDividend(transactionId, attachment, totalDividend, numAccounts);
+        AssetDividend.addAssetDividend(transactionId, attachment, totalDividend, dividends.size());
     }
 
     public void initParaminingTables() {
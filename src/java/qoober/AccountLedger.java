@@ -31,6 +31,7 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
@@ -62,8 +63,11 @@ public class AccountLedger {
     /** Blockchain processor */
     private static final BlockchainProcessor blockchainProcessor = Qoober.getBlockchainProcessor();
 
-    /** Pending ledger entries */
-    private static final List<LedgerEntry> pendingEntries = new ArrayList<>();
+    /** Pending ledger entries by account, event and holding in the order they were logged */
+    private static final Map<LedgerEntry, LedgerEntry> pendingEntries = new LinkedHashMap<>();
+
+    /** Pending ledger entries by account in the order they were logged */
+    private static final Map<Long, List<LedgerEntry>> pendingAccountEntries = new HashMap<>();
 
     /*
       Process nxt.ledgerAccounts
@@ -105,13 +109,29 @@ public class AccountLedger {
         }
 
         /**
-         * Insert an entry into the table
+         * Insert entries into the table using a single batch
          *
-         * @param   ledgerEntry             Ledger entry
+         * @param   ledgerEntries           Ledger entries
          */
-        public void insert(LedgerEntry ledgerEntry) {
-            try (Connection con = db.getConnection()) {
-                ledgerEntry.save(con);
+        public void insert(List<LedgerEntry> ledgerEntries) {
+            if (ledgerEntries.isEmpty()) {
+                return;
+            }
+            try (Connection con = db.getConnection();
+                 PreparedStatement stmt = con.prepareStatement(LedgerEntry.INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+                for (LedgerEntry ledgerEntry : ledgerEntries) {
+                    ledgerEntry.setParameters(stmt);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                try (ResultSet rs = stmt.getGeneratedKeys()) {
+                    for (LedgerEntry ledgerEntry : ledgerEntries) {
+                        if (!rs.next()) {
+                            break;
+                        }
+                        ledgerEntry.ledgerId = rs.getLong(1);
+                    }
+                }
             } catch (SQLException e) {
                 throw new RuntimeException(e.toString(), e);
             }
@@ -235,15 +255,17 @@ public class AccountLedger {
         //
         // Combine multiple ledger entries
         //
-        int index = pendingEntries.indexOf(ledgerEntry);
-        if (index >= 0) {
-            LedgerEntry existingEntry = pendingEntries.remove(index);
+        List<LedgerEntry> accountEntries = pendingAccountEntries.computeIfAbsent(ledgerEntry.getAccountId(),
+                accountId -> new ArrayList<>());
+        LedgerEntry existingEntry = pendingEntries.remove(ledgerEntry);
+        if (existingEntry != null) {
+            int index = accountEntries.lastIndexOf(existingEntry);
+            accountEntries.remove(index);
             ledgerEntry.updateChange(existingEntry.getChange());
             long adjustedBalance = existingEntry.getBalance() - existingEntry.getChange();
-            for (; index < pendingEntries.size(); index++) {
-                existingEntry = pendingEntries.get(index);
-                if (existingEntry.getAccountId() == ledgerEntry.getAccountId() &&
-                        existingEntry.getHolding() == ledgerEntry.getHolding() &&
+            for (; index < accountEntries.size(); index++) {
+                existingEntry = accountEntries.get(index);
+                if (existingEntry.getHolding() == ledgerEntry.getHolding() &&
                         ((existingEntry.getHoldingId() == null && ledgerEntry.getHoldingId() == null) ||
                         (existingEntry.getHoldingId() != null && existingEntry.getHoldingId().equals(ledgerEntry.getHoldingId())))) {
                     adjustedBalance += existingEntry.getChange();
@@ -251,22 +273,27 @@ public class AccountLedger {
                 }
             }
         }
-        pendingEntries.add(ledgerEntry);
+        pendingEntries.put(ledgerEntry, ledgerEntry);
+        accountEntries.add(ledgerEntry);
     }
 
     /**
      * Commit pending ledger entries
      */
     static void commitEntries() {
-        int count = 0;
-        for (LedgerEntry ledgerEntry : pendingEntries) {
-            accountLedgerTable.insert(ledgerEntry);
-            listeners.notify(ledgerEntry, Event.ADD_ENTRY);
-            if (++count % Constants.BATCH_COMMIT_SIZE == 0) {
+        List<LedgerEntry> entries = new ArrayList<>(pendingEntries.values());
+        int start = 0;
+        while (start < entries.size()) {
+            int end = start + Math.min(entries.size() - start, Constants.BATCH_COMMIT_SIZE);
+            List<LedgerEntry> ledgerEntries = entries.subList(start, end);
+            accountLedgerTable.insert(ledgerEntries);
+            ledgerEntries.forEach(ledgerEntry -> listeners.notify(ledgerEntry, Event.ADD_ENTRY));
+            if (ledgerEntries.size() == Constants.BATCH_COMMIT_SIZE) {
                 Db.db.commitTransaction();
             }
+            start = end;
         }
-        pendingEntries.clear();
+        clearEntries();
     }
 
     /**
@@ -274,6 +301,7 @@ public class AccountLedger {
      */
     static void clearEntries() {
         pendingEntries.clear();
+        pendingAccountEntries.clear();
     }
 
     /**
@@ -604,6 +632,12 @@ public class AccountLedger {
      */
     public static class LedgerEntry {
 
+        /** Insert statement */
+        private static final String INSERT_SQL = "INSERT INTO account_ledger "
+                + "(account_id, event_type, event_id, holding_type, holding_id, change, balance, "
+                + "block_id, height, timestamp) "
+                + "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
         /** Ledger identifier */
         private long ledgerId = -1;
 
@@ -849,38 +883,27 @@ public class AccountLedger {
         }
 
         /**
-         * Save the ledger entry
+         * Set the insert statement parameters
          *
-         * @param   con                     Database connection
+         * @param   stmt                    Insert statement
          * @throws  SQLException            Database error occurred
          */
-        private void save(Connection con) throws SQLException {
-            try (PreparedStatement stmt = con.prepareStatement("INSERT INTO account_ledger "
-                    + "(account_id, event_type, event_id, holding_type, holding_id, change, balance, "
-                    + "block_id, height, timestamp) "
-                    + "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS)) {
-                int i=0;
-                stmt.setLong(++i, accountId);
-                stmt.setByte(++i, (byte) event.getCode());
-                stmt.setLong(++i, eventId);
-                if (holding != null) {
-                    stmt.setByte(++i, (byte)holding.getCode());
-                } else {
-                    stmt.setByte(++i, (byte)-1);
-                }
-                DbUtils.setLong(stmt, ++i, holdingId);
-                stmt.setLong(++i, change);
-                stmt.setLong(++i, balance);
-                stmt.setLong(++i, blockId);
-                stmt.setInt(++i, height);
-                stmt.setInt(++i, timestamp);
-                stmt.executeUpdate();
-                try (ResultSet rs = stmt.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        ledgerId = rs.getLong(1);
-                    }
-                }
+        private void setParameters(PreparedStatement stmt) throws SQLException {
+            int i=0;
+            stmt.setLong(++i, accountId);
+            stmt.setByte(++i, (byte) event.getCode());
+            stmt.setLong(++i, eventId);
+            if (holding != null) {
+                stmt.setByte(++i, (byte)holding.getCode());
+            } else {
+                stmt.setByte(++i, (byte)-1);
             }
+            DbUtils.setLong(stmt, ++i, holdingId);
+            stmt.setLong(++i, change);
+            stmt.setLong(++i, balance);
+            stmt.setLong(++i, blockId);
+            stmt.setInt(++i, height);
+            stmt.setInt(++i, timestamp);
         }
     }
 }
@@ -433,7 +433,7 @@ public interface Appendix {
             if (hash != null) {
                 return hash;
             }
-            MessageDigest digest = Crypto.sha256();
+            MessageDigest digest = Crypto.localSha256();
             digest.update((byte)(isText ? 1 : 0));
             digest.update(message);
             return digest.digest();
@@ -755,7 +755,7 @@ public interface Appendix {
             if (hash != null) {
                 return hash;
             }
-            MessageDigest digest = Crypto.sha256();
+            MessageDigest digest = Crypto.localSha256();
             digest.update((byte)(isText ? 1 : 0));
             digest.update((byte)(isCompressed ? 1 : 0));
             digest.update(encryptedData.getData());
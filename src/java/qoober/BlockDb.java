@@ -234,6 +234,14 @@ final class BlockDb {
     }
 
     static BlockImpl loadBlock(Connection con, ResultSet rs, boolean loadTransactions) {
+        return loadBlock(con, rs, loadTransactions, true);
+    }
+
+    /*
+     * Loading the transactions without the blockchain read lock is only allowed if the caller
+     * guarantees the block cannot be popped off concurrently, as during a scan
+     */
+    static BlockImpl loadBlock(Connection con, ResultSet rs, boolean loadTransactions, boolean lock) {
         try {
             int version = rs.getInt("version");
             int timestamp = rs.getInt("timestamp");
@@ -256,7 +264,7 @@ final class BlockDb {
             long id = rs.getLong("id");
             return new BlockImpl(version, timestamp, previousBlockId, totalAmountNQT, totalFeeNQT, payloadLength, payloadHash,
                     generatorId, generationSignature, blockSignature, previousBlockHash,
-                    cumulativeDifficulty, baseTarget, nextBlockId, height, id, loadTransactions ? TransactionDb.findBlockTransactions(con, id) : null);
+                    cumulativeDifficulty, baseTarget, nextBlockId, height, id, loadTransactions ? TransactionDb.findBlockTransactions(con, id, lock) : null);
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }
@@ -64,10 +64,10 @@ final class BlockImpl implements Block {
     }
 
     BlockImpl(int version, int timestamp, long previousBlockId, long totalAmountNQT, long totalFeeNQT, int payloadLength, byte[] payloadHash,
-              byte[] generatorPublicKey, byte[] generationSignature, byte[] previousBlockHash, List<TransactionImpl> transactions, String secretPhrase) {
+              byte[] generatorPublicKey, byte[] generationSignature, byte[] previousBlockHash, List<TransactionImpl> transactions, Crypto.SigningKey signingKey) {
         this(version, timestamp, previousBlockId, totalAmountNQT, totalFeeNQT, payloadLength, payloadHash,
                 generatorPublicKey, generationSignature, null, previousBlockHash, transactions);
-        blockSignature = Crypto.sign(bytes(), secretPhrase);
+        blockSignature = signingKey.sign(bytes());
         bytes = null;
     }
 
@@ -207,7 +207,7 @@ final class BlockImpl implements Block {
             if (blockSignature == null) {
                 throw new IllegalStateException("Block is not signed yet");
             }
-            byte[] hash = Crypto.sha256().digest(bytes());
+            byte[] hash = Crypto.localSha256().digest(bytes());
             BigInteger bigInteger = new BigInteger(1, new byte[] {hash[7], hash[6], hash[5], hash[4], hash[3], hash[2], hash[1], hash[0]});
             id = bigInteger.longValue();
             stringId = bigInteger.toString();
@@ -327,7 +327,7 @@ final class BlockImpl implements Block {
 
     private volatile boolean hasValidSignature = false;
 
-    private boolean checkSignature() {
+    boolean checkSignature() {
         if (! hasValidSignature) {
             byte[] data = Arrays.copyOf(bytes(), bytes.length - 64);
             hasValidSignature = blockSignature != null && Crypto.verify(blockSignature, data, getGeneratorPublicKey());
@@ -350,9 +350,10 @@ final class BlockImpl implements Block {
                 return false;
             }
 
-            MessageDigest digest = Crypto.sha256();
+            byte[] generatorPublicKey = getGeneratorPublicKey();
+            MessageDigest digest = Crypto.localSha256();
             digest.update(previousBlock.generationSignature);
-            byte[] generationSignatureHash = digest.digest(getGeneratorPublicKey());
+            byte[] generationSignatureHash = digest.digest(generatorPublicKey);
             if (!Arrays.equals(generationSignature, generationSignatureHash)) {
                 return false;
             }
@@ -16,6 +16,7 @@
 
 package qoober;
 
+import qoober.db.DbCursor;
 import qoober.db.DbIterator;
 import qoober.util.Filter;
 
@@ -90,6 +91,10 @@ public interface Blockchain {
                                                       int blockTimestamp, boolean withMessage, boolean phasedOnly, boolean nonPhasedOnly,
                                                       int from, int to, boolean includeExpiredPrunable, boolean executedOnly);
 
+    DbIterator<? extends Transaction> getTransactions(long accountId, int numberOfConfirmations, byte type, byte subtype,
+                                                      int blockTimestamp, boolean withMessage, boolean phasedOnly, boolean nonPhasedOnly,
+                                                      DbCursor cursor, int from, int to, boolean includeExpiredPrunable, boolean executedOnly);
+
     DbIterator<? extends Transaction> getTransactions(Connection con, PreparedStatement pstmt);
 
     List<? extends Transaction> getExpectedTransactions(Filter<Transaction> filter);
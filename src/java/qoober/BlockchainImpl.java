@@ -16,6 +16,7 @@
 
 package qoober;
 
+import qoober.db.DbCursor;
 import qoober.db.DbIterator;
 import qoober.db.DbUtils;
 import qoober.util.Convert;
@@ -42,6 +43,12 @@ final class BlockchainImpl implements Blockchain {
     private final ReadWriteUpdateLock lock = new ReadWriteUpdateLock();
     private final AtomicReference<BlockImpl> lastBlock = new AtomicReference<>();
 
+    /** Last block at which the transactions were counted */
+    private long countedBlockId;
+
+    /** Number of transactions up to the counted block or -1 if not counted yet */
+    private int countedTransactions = -1;
+
     @Override
     public void readLock() {
         lock.readLock().lock();
@@ -375,6 +382,29 @@ final class BlockchainImpl implements Blockchain {
 
     @Override
     public int getTransactionCount() {
+        readLock();
+        try {
+            BlockImpl block = lastBlock.get();
+            synchronized (this) {
+                if (block == null) {
+                    return countTransactions();
+                }
+                if (countedTransactions < 0 || block.getId() != countedBlockId) {
+                    if (countedTransactions >= 0 && block.getPreviousBlockId() == countedBlockId) {
+                        countedTransactions += block.getTransactions().size();
+                    } else {
+                        countedTransactions = countTransactions();
+                    }
+                    countedBlockId = block.getId();
+                }
+                return countedTransactions;
+            }
+        } finally {
+            readUnlock();
+        }
+    }
+
+    private int countTransactions() {
         try (Connection con = Db.db.getConnection(); PreparedStatement pstmt = con.prepareStatement("SELECT COUNT(*) FROM transaction");
              ResultSet rs = pstmt.executeQuery()) {
             rs.next();
@@ -425,6 +455,18 @@ final class BlockchainImpl implements Blockchain {
     public DbIterator<TransactionImpl> getTransactions(long accountId, int numberOfConfirmations, byte type, byte subtype,
                                                        int blockTimestamp, boolean withMessage, boolean phasedOnly, boolean nonPhasedOnly,
                                                        int from, int to, boolean includeExpiredPrunable, boolean executedOnly) {
+        return getTransactions(accountId, numberOfConfirmations, type, subtype, blockTimestamp, withMessage, phasedOnly, nonPhasedOnly,
+                null, from, to, includeExpiredPrunable, executedOnly);
+    }
+
+    /**
+     * Transactions sent or received by an account, the cursor position is based on the transaction height
+     * and db_id, which within a block are in the same order as the transaction index
+     */
+    @Override
+    public DbIterator<TransactionImpl> getTransactions(long accountId, int numberOfConfirmations, byte type, byte subtype,
+                                                       int blockTimestamp, boolean withMessage, boolean phasedOnly, boolean nonPhasedOnly,
+                                                       DbCursor cursor, int from, int to, boolean includeExpiredPrunable, boolean executedOnly) {
         if (phasedOnly && nonPhasedOnly) {
             throw new IllegalArgumentException("At least one of phasedOnly or nonPhasedOnly must be false");
         }
@@ -465,6 +507,9 @@ final class BlockchainImpl implements Blockchain {
             if (executedOnly && !nonPhasedOnly) {
                 buf.append("AND (phased = FALSE OR approved = TRUE) ");
             }
+            if (cursor != null) {
+                buf.append("AND ").append(cursor.getCondition("transaction"));
+            }
             buf.append("UNION ALL SELECT transaction.* FROM transaction ");
             if (executedOnly && !nonPhasedOnly) {
                 buf.append(" LEFT JOIN phasing_poll_result ON transaction.id = phasing_poll_result.id ");
@@ -494,6 +539,9 @@ final class BlockchainImpl implements Blockchain {
             if (executedOnly && !nonPhasedOnly) {
                 buf.append("AND (phased = FALSE OR approved = TRUE) ");
             }
+            if (cursor != null) {
+                buf.append("AND ").append(cursor.getCondition("transaction"));
+            }
 
             buf.append("ORDER BY block_timestamp DESC, transaction_index DESC");
             buf.append(DbUtils.limitsClause(from, to));
@@ -521,6 +569,9 @@ final class BlockchainImpl implements Blockchain {
             if (withMessage) {
                 pstmt.setInt(++i, prunableExpiration);
             }
+            if (cursor != null) {
+                i = cursor.setParameters(pstmt, ++i) - 1;
+            }
             pstmt.setLong(++i, accountId);
             if (blockTimestamp > 0) {
                 pstmt.setInt(++i, blockTimestamp);
@@ -537,8 +588,11 @@ final class BlockchainImpl implements Blockchain {
             if (withMessage) {
                 pstmt.setInt(++i, prunableExpiration);
             }
+            if (cursor != null) {
+                i = cursor.setParameters(pstmt, ++i) - 1;
+            }
             DbUtils.setLimits(++i, pstmt, from, to);
-            return getTransactions(con, pstmt);
+            return getTransactions(con, pstmt).trackCursor();
         } catch (SQLException e) {
             DbUtils.close(con);
             throw new RuntimeException(e.toString(), e);
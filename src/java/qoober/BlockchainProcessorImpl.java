@@ -18,6 +18,7 @@ package qoober;
 
 import qoober.crypto.Crypto;
 import qoober.db.DbIterator;
+import qoober.db.DbUndoLog;
 import qoober.db.DerivedDbTable;
 import qoober.db.FilteringIterator;
 import qoober.db.FullTextTrigger;
@@ -28,6 +29,7 @@ import qoober.util.JSON;
 import qoober.util.Listener;
 import qoober.util.Listeners;
 import qoober.util.Logger;
+import qoober.util.Metrics;
 import qoober.util.ThreadPool;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -71,6 +73,19 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
     private int[] statsTxByType = new int[TransactionType.TYPE_SHUFFLING + 1];
     private long statsProcessingTime;
 
+    private static final Metrics.Histogram pushBlockTime = Metrics.histogram("qoober_block_push_seconds",
+            "Time to push a block while holding the blockchain write lock");
+    private static final Metrics.Histogram validateBlockTime = Metrics.histogram("qoober_block_push_phase_seconds",
+            "Time spent in each block push phase", "phase", "validate");
+    private static final Metrics.Histogram validateTransactionsTime = Metrics.histogram("qoober_block_push_phase_seconds",
+            "Time spent in each block push phase", "phase", "validateTransactions");
+    private static final Metrics.Histogram acceptBlockTime = Metrics.histogram("qoober_block_push_phase_seconds",
+            "Time spent in each block push phase", "phase", "accept");
+    private static final Metrics.Histogram commitBlockTime = Metrics.histogram("qoober_block_push_phase_seconds",
+            "Time spent in each block push phase", "phase", "commit");
+    private static final Metrics.Histogram popOffTablesTime = Metrics.histogram("qoober_block_popoff_tables_seconds",
+            "Time to pop off the derived tables during a rollback or fork switch");
+
     static {
         NavigableMap<Integer, byte[]> map = new TreeMap<>();
         map.put(0, null);
@@ -933,7 +948,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         }
         int height = block.getHeight();
         int fromHeight = checksums.lowerKey(height);
-        byte[] checksum = Crypto.sha256().digest(block.getBytes());
+        byte[] checksum = Crypto.localSha256().digest(block.getBytes());
         if (validChecksum.length == 0) {
             Logger.logMessage("Checksum calculated:\n" + Arrays.toString(checksum));
         } else if (!Arrays.equals(checksum, validChecksum)) {
@@ -950,6 +965,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     private BlockchainProcessorImpl() {
         final int trimFrequency = Qoober.getIntProperty("qoober.trimFrequency");
+        Metrics.gauge("qoober_blockchain_height", "Height of the last block", blockchain::getHeight);
         blockListeners.addListener(block -> {
             if (block.getHeight() % 5000 == 0) {
                 Logger.logMessage("processed block " + block.getHeight());
@@ -1013,6 +1029,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                     scan(height, validate);
                 }
             }
+            DbUndoLog.enable(blockchain.getHeight());
         }, false);
 
 //        ThreadPool.runBeforeStart(() -> {
@@ -1084,6 +1101,23 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         }
     }
 
+    private void popOffDerivedTables(int height) {
+        long start = System.nanoTime();
+        int skipped = 0;
+        for (DerivedDbTable table : derivedTables) {
+            if (table.keepsExternalState() || DbUndoLog.isModifiedAfter(table.toString(), height)) {
+                table.popOffTo(height);
+            } else {
+                skipped++;
+            }
+        }
+        DbUndoLog.poppedOffAll(height);
+        long elapsed = System.nanoTime() - start;
+        popOffTablesTime.update(elapsed);
+        Logger.logDebugMessage("Popped off derived tables to height %d in %d ms, %d of %d tables skipped",
+                height, elapsed / 1000000, skipped, derivedTables.size());
+    }
+
     List<DerivedDbTable> getDerivedTables() {
         return derivedTables;
     }
@@ -1337,13 +1371,17 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         int curTime = Qoober.getEpochTime();
 
         blockchain.writeLock();
+        long pushStart = System.nanoTime();
         try {
             BlockImpl previousLastBlock = null;
             try {
                 Db.db.beginTransaction();
+                Db.db.beginWriteBatch();
                 previousLastBlock = blockchain.getLastBlock();
 
+                long phaseStart = System.nanoTime();
                 validate(block, previousLastBlock, curTime);
+                validateBlockTime.update(System.nanoTime() - phaseStart);
 
                 long nextHitTime = Generator.getNextHitTime(previousLastBlock.getId(), curTime);
                 if (nextHitTime > 0 && block.getTimestamp() > nextHitTime + 1) {
@@ -1358,26 +1396,30 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                 Map<TransactionType, Map<String, Integer>> duplicates = new HashMap<>();
                 List<TransactionImpl> validPhasedTransactions = new ArrayList<>();
                 List<TransactionImpl> invalidPhasedTransactions = new ArrayList<>();
+                phaseStart = System.nanoTime();
                 validatePhasedTransactions(previousLastBlock.getHeight(), validPhasedTransactions, invalidPhasedTransactions, duplicates);
                 validateTransactions(block, previousLastBlock, curTime, duplicates, previousLastBlock.getHeight() >= Constants.LAST_CHECKSUM_BLOCK);
+                validateTransactionsTime.update(System.nanoTime() - phaseStart);
 
                 block.setPrevious(previousLastBlock);
                 blockListeners.notify(block, Event.BEFORE_BLOCK_ACCEPT);
                 TransactionProcessorImpl.getInstance().requeueAllUnconfirmedTransactions();
                 try {
+                    phaseStart = System.nanoTime();
                     addBlock(block);
                     accept(block, validPhasedTransactions, invalidPhasedTransactions, duplicates);
                     Paramining.blockGenerateParaminingCheckpoints();
+                    acceptBlockTime.update(System.nanoTime() - phaseStart);
+                    phaseStart = System.nanoTime();
                     BlockDb.commit(block);
                     Db.db.commitTransaction();
+                    commitBlockTime.update(System.nanoTime() - phaseStart);
                 } catch (Exception e) {
                     Logger.logInfoMessage("Failed to accept an already validated block", e);
                     Db.db.rollbackTransaction();
                     BlockDb.deleteBlocksFrom(block.getId());
                     blockchain.setLastBlock(previousLastBlock);
-                    for (DerivedDbTable table : derivedTables) {
-                        table.popOffTo(previousLastBlock.getHeight());
-                    }
+                    popOffDerivedTables(previousLastBlock.getHeight());
                     Db.db.clearCache();
                     Db.db.commitTransaction();
                     throw e;
@@ -1386,6 +1428,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                 Db.db.endTransaction();
             }
             blockListeners.notify(block, Event.AFTER_BLOCK_ACCEPT);
+            pushBlockTime.update(System.nanoTime() - pushStart);
         } finally {
             blockchain.writeUnlock();
         }
@@ -1439,7 +1482,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             throw new BlockNotAcceptedException("Block timestamp " + block.getTimestamp() + " is before previous block timestamp "
                     + previousLastBlock.getTimestamp(), block);
         }
-        if (!Arrays.equals(Crypto.sha256().digest(previousLastBlock.bytes()), block.getPreviousBlockHash())) {
+        if (!Arrays.equals(Crypto.localSha256().digest(previousLastBlock.bytes()), block.getPreviousBlockHash())) {
             throw new BlockNotAcceptedException("Previous block hash doesn't match", block);
         }
         if (block.getId() == 0L || BlockDb.hasBlock(block.getId(), previousLastBlock.getHeight())) {
@@ -1663,9 +1706,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                     poppedOffBlocks.add(block);
                     block = popLastBlock();
                 }
-                for (DerivedDbTable table : derivedTables) {
-                    table.popOffTo(commonBlock.getHeight());
-                }
+                popOffDerivedTables(commonBlock.getHeight());
                 Db.db.clearCache();
                 Db.db.commitTransaction();
             } catch (RuntimeException e) {
@@ -1673,9 +1714,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                 Db.db.rollbackTransaction();
                 BlockImpl lastBlock = BlockDb.findLastBlock();
                 blockchain.setLastBlock(lastBlock);
-                for (DerivedDbTable table : derivedTables) {
-                    table.popOffTo(lastBlock.getHeight());
-                }
+                popOffDerivedTables(lastBlock.getHeight());
                 Db.db.clearCache();
                 Db.db.commitTransaction();
                 throw e;
@@ -1772,7 +1811,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             .thenComparingInt(UnconfirmedTransaction::getHeight)
             .thenComparingLong(UnconfirmedTransaction::getId);
 
-    void generateBlock(String secretPhrase, int blockTimestamp) throws BlockNotAcceptedException {
+    void generateBlock(Crypto.SigningKey signingKey, int blockTimestamp) throws BlockNotAcceptedException {
 
         Map<TransactionType, Map<String, Integer>> duplicates = new HashMap<>();
         try (DbIterator<TransactionImpl> phasedTransactions = PhasingPoll.getFinishingTransactions(blockchain.getHeight() + 1)) {
@@ -1803,12 +1842,12 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         }
         byte[] payloadHash = digest.digest();
         digest.update(previousBlock.getGenerationSignature());
-        final byte[] publicKey = Crypto.getPublicKey(secretPhrase);
+        final byte[] publicKey = signingKey.getPublicKey();
         byte[] generationSignature = digest.digest(publicKey);
-        byte[] previousBlockHash = Crypto.sha256().digest(previousBlock.bytes());
+        byte[] previousBlockHash = Crypto.localSha256().digest(previousBlock.bytes());
 
         BlockImpl block = new BlockImpl(getBlockVersion(previousBlock.getHeight()), blockTimestamp, previousBlock.getId(), totalAmountNQT, totalFeeNQT, payloadLength,
-                payloadHash, publicKey, generationSignature, previousBlockHash, blockTransactions, secretPhrase);
+                payloadHash, publicKey, generationSignature, previousBlockHash, blockTransactions, signingKey);
 
         try {
             pushBlock(block);
@@ -1871,6 +1910,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             if (!Db.db.isInTransaction()) {
                 try {
                     Db.db.beginTransaction();
+                    Db.db.beginWriteBatch();
                     if (validate) {
                         blockListeners.addListener(checksumListener, Event.BLOCK_SCANNED);
                     }
@@ -1898,8 +1938,6 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                 Logger.logDebugMessage("Also verifying signatures and validating transactions...");
             }
             try (Connection con = Db.db.getConnection();
-                 PreparedStatement pstmtSelect = con.prepareStatement("SELECT * FROM block WHERE " + (height > 0 ? "height >= ? AND " : "")
-                         + " db_id >= ? ORDER BY db_id ASC LIMIT 50000");
                  PreparedStatement pstmtDone = con.prepareStatement("UPDATE scan SET rescan = FALSE, height = 0, validate = FALSE")) {
                 isScanning = true;
                 initialScanHeight = blockchain.getHeight();
@@ -1938,75 +1976,51 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                     new Thread(() -> System.exit(0)).start();
                     return;
                 }
-                int pstmtSelectIndex = 1;
-                if (height > 0) {
-                    pstmtSelect.setInt(pstmtSelectIndex++, height);
-                }
-                long dbId = Long.MIN_VALUE;
-                boolean hasMore = true;
-                outer:
-                while (hasMore) {
-                    hasMore = false;
-                    pstmtSelect.setLong(pstmtSelectIndex, dbId);
-                    try (ResultSet rs = pstmtSelect.executeQuery()) {
-                        while (rs.next()) {
-                            try {
-                                dbId = rs.getLong("db_id");
-                                currentBlock = BlockDb.loadBlock(con, rs, true);
-                                int curTime = Qoober.getEpochTime();
-                                if (currentBlock.getHeight() > 0) {
-                                    currentBlock.loadTransactions();
-                                    if (currentBlock.getId() != currentBlockId || currentBlock.getHeight() > blockchain.getHeight() + 1) {
-                                        throw new QooberException.NotValidException("Database blocks in the wrong order!");
-                                    }
-                                    Map<TransactionType, Map<String, Integer>> duplicates = new HashMap<>();
-                                    List<TransactionImpl> validPhasedTransactions = new ArrayList<>();
-                                    List<TransactionImpl> invalidPhasedTransactions = new ArrayList<>();
-                                    validatePhasedTransactions(blockchain.getHeight(), validPhasedTransactions, invalidPhasedTransactions, duplicates);
-                                    validateTransactions(currentBlock, blockchain.getLastBlock(), curTime, duplicates, validate);
-                                    if (validate) {
-                                        validate(currentBlock, blockchain.getLastBlock(), curTime);
-                                        byte[] blockBytes = currentBlock.bytes();
-                                        JSONObject blockJSON = (JSONObject) JSONValue.parse(currentBlock.getJSONObject().toJSONString());
-                                        if (!Arrays.equals(blockBytes, BlockImpl.parseBlock(blockJSON).bytes())) {
-                                            throw new QooberException.NotValidException("Block JSON cannot be parsed back to the same block");
-                                        }
-                                        for (TransactionImpl transaction : currentBlock.getTransactions()) {
-                                            byte[] transactionBytes = transaction.bytes();
-                                            if (!Arrays.equals(transactionBytes, TransactionImpl.newTransactionBuilder(transactionBytes).build().bytes())) {
-                                                throw new QooberException.NotValidException("Transaction bytes cannot be parsed back to the same transaction: "
-                                                        + transaction.getJSONObject().toJSONString());
-                                            }
-                                            JSONObject transactionJSON = (JSONObject) JSONValue.parse(transaction.getJSONObject().toJSONString());
-                                            if (!Arrays.equals(transactionBytes, TransactionImpl.newTransactionBuilder(transactionJSON).build().bytes())) {
-                                                throw new QooberException.NotValidException("Transaction JSON cannot be parsed back to the same transaction: "
-                                                        + transaction.getJSONObject().toJSONString());
-                                            }
-                                        }
-                                    }
-                                    blockListeners.notify(currentBlock, Event.BEFORE_BLOCK_ACCEPT);
-                                    blockchain.setLastBlock(currentBlock);
-                                    accept(currentBlock, validPhasedTransactions, invalidPhasedTransactions, duplicates);
-                                    Db.db.clearCache();
-                                    Db.db.commitTransaction();
-                                    blockListeners.notify(currentBlock, Event.AFTER_BLOCK_ACCEPT);
-                                    blockListeners.notify(currentBlock, Event.BLOCK_SCANNED);
+                try (ScanReader scanReader = new ScanReader(height, validate)) {
+                    while (true) {
+                        try {
+                            ScanReader.Entry entry = scanReader.next();
+                            if (entry == null) {
+                                break;
+                            }
+                            currentBlock = entry.getBlock();
+                            int curTime = Qoober.getEpochTime();
+                            if (currentBlock.getHeight() > 0) {
+                                if (currentBlock.getId() != currentBlockId || currentBlock.getHeight() > blockchain.getHeight() + 1) {
+                                    throw new QooberException.NotValidException("Database blocks in the wrong order!");
                                 }
-                                hasMore = true;
-                                currentBlockId = currentBlock.getNextBlockId();
-                            } catch (QooberException | RuntimeException e) {
-                                Db.db.rollbackTransaction();
-                                Logger.logDebugMessage(e.toString(), e);
-                                Logger.logDebugMessage("Applying block " + Long.toUnsignedString(currentBlockId) + " at height "
-                                        + currentBlock.getHeight() + " failed, deleting from database");
-                                BlockImpl lastBlock = BlockDb.deleteBlocksFrom(currentBlockId);
-                                blockchain.setLastBlock(lastBlock);
-                                popOffTo(lastBlock);
-                                break outer;
+                                entry.verified();
+                                Map<TransactionType, Map<String, Integer>> duplicates = new HashMap<>();
+                                List<TransactionImpl> validPhasedTransactions = new ArrayList<>();
+                                List<TransactionImpl> invalidPhasedTransactions = new ArrayList<>();
+                                validatePhasedTransactions(blockchain.getHeight(), validPhasedTransactions, invalidPhasedTransactions, duplicates);
+                                validateTransactions(currentBlock, blockchain.getLastBlock(), curTime, duplicates, validate);
+                                if (validate) {
+                                    validate(currentBlock, blockchain.getLastBlock(), curTime);
+                                }
+                                blockListeners.notify(currentBlock, Event.BEFORE_BLOCK_ACCEPT);
+                                blockchain.setLastBlock(currentBlock);
+                                accept(currentBlock, validPhasedTransactions, invalidPhasedTransactions, duplicates);
+                                Db.db.clearCache();
+                                Db.db.commitTransaction();
+                                blockListeners.notify(currentBlock, Event.AFTER_BLOCK_ACCEPT);
+                                blockListeners.notify(currentBlock, Event.BLOCK_SCANNED);
+                                scanReader.accepted(currentBlock);
                             }
+                            currentBlockId = currentBlock.getNextBlockId();
+                        } catch (QooberException | RuntimeException e) {
+                            Db.db.rollbackTransaction();
+                            Logger.logDebugMessage(e.toString(), e);
+                            Logger.logDebugMessage("Applying block " + Long.toUnsignedString(currentBlockId) + " at height "
+                                    + currentBlock.getHeight() + " failed, deleting from database");
+                            scanReader.stop();
+                            BlockImpl lastBlock = BlockDb.deleteBlocksFrom(currentBlockId);
+                            blockchain.setLastBlock(lastBlock);
+                            popOffTo(lastBlock);
+                            break;
                         }
-                        dbId = dbId + 1;
                     }
+                    scanReader.logSummary(blockchain.getHeight());
                 }
                 if (height == 0) {
                     for (DerivedDbTable table : derivedTables) {
@@ -24,6 +24,8 @@ import qoober.db.VersionedEntityDbTable;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.List;
 
 public final class CurrencyBuyOffer extends CurrencyExchangeOffer {
 
@@ -48,8 +50,29 @@ public final class CurrencyBuyOffer extends CurrencyExchangeOffer {
             buy.save(con, table);
         }
 
+        @Override
+        public boolean keepsExternalState() {
+            return true;
+        }
+
+        @Override
+        public void popOffTo(int height) {
+            super.popOffTo(height);
+            buyOfferBook.clear();
+        }
+
+        @Override
+        public void truncate() {
+            super.truncate();
+            buyOfferBook.clear();
+        }
+
     };
 
+    static final OrderBook<CurrencyBuyOffer> buyOfferBook = new OrderBook<>(buyOfferTable, "currency_id",
+            CurrencyExchangeOffer::getCurrencyId, CurrencyExchangeOffer::getId,
+            Comparator.comparingLong(CurrencyExchangeOffer::getRateNQT).reversed().thenComparing(timeComparator));
+
     public static int getCount() {
         return buyOfferTable.getCount();
     }
@@ -63,15 +86,12 @@ public final class CurrencyBuyOffer extends CurrencyExchangeOffer {
     }
 
     public static DbIterator<CurrencyBuyOffer> getOffers(Currency currency, int from, int to) {
-        return getCurrencyOffers(currency.getId(), false, from, to);
+        return buyOfferTable.getManyBy(new DbClause.LongClause("currency_id", currency.getId()), from, to,
+                " ORDER BY rate DESC, creation_height ASC, transaction_height ASC, transaction_index ASC ");
     }
 
-    public static DbIterator<CurrencyBuyOffer> getCurrencyOffers(long currencyId, boolean availableOnly, int from, int to) {
-        DbClause dbClause = new DbClause.LongClause("currency_id", currencyId);
-        if (availableOnly) {
-            dbClause = dbClause.and(availableOnlyDbClause);
-        }
-        return buyOfferTable.getManyBy(dbClause, from, to, " ORDER BY rate DESC, creation_height ASC, transaction_height ASC, transaction_index ASC ");
+    public static List<CurrencyBuyOffer> getCurrencyOffers(long currencyId, boolean availableOnly, int from, int to) {
+        return buyOfferBook.getOrders(currencyId, offer -> !availableOnly || offer.isAvailable(), from, to, CurrencyBuyOffer::new);
     }
 
     public static DbIterator<CurrencyBuyOffer> getAccountOffers(long accountId, boolean availableOnly, int from, int to) {
@@ -99,21 +119,30 @@ public final class CurrencyBuyOffer extends CurrencyExchangeOffer {
     }
 
     static void addOffer(Transaction transaction, Attachment.MonetarySystemPublishExchangeOffer attachment) {
-        buyOfferTable.insert(new CurrencyBuyOffer(transaction, attachment));
+        addOffer(transaction.getId(), transaction.getSenderId(), transaction.getHeight(), transaction.getIndex(), attachment);
+    }
+
+    static void addOffer(long id, long accountId, int transactionHeight, short transactionIndex,
+                         Attachment.MonetarySystemPublishExchangeOffer attachment) {
+        CurrencyBuyOffer offer = new CurrencyBuyOffer(id, accountId, transactionHeight, transactionIndex, attachment);
+        buyOfferBook.add(offer);
+        buyOfferTable.insert(offer);
     }
 
     static void remove(CurrencyBuyOffer buyOffer) {
         buyOfferTable.delete(buyOffer);
+        buyOfferBook.remove(buyOffer);
     }
 
     static void init() {}
 
     private final DbKey dbKey;
 
-    private CurrencyBuyOffer(Transaction transaction, Attachment.MonetarySystemPublishExchangeOffer attachment) {
-        super(transaction.getId(), attachment.getCurrencyId(), transaction.getSenderId(), attachment.getBuyRateNQT(),
-                attachment.getTotalBuyLimit(), attachment.getInitialBuySupply(), attachment.getExpirationHeight(), transaction.getHeight(),
-                transaction.getIndex());
+    private CurrencyBuyOffer(long id, long accountId, int transactionHeight, short transactionIndex,
+                             Attachment.MonetarySystemPublishExchangeOffer attachment) {
+        super(id, attachment.getCurrencyId(), accountId, attachment.getBuyRateNQT(),
+                attachment.getTotalBuyLimit(), attachment.getInitialBuySupply(), attachment.getExpirationHeight(), transactionHeight,
+                transactionIndex);
         this.dbKey = buyOfferDbKeyFactory.newKey(id);
     }
 
@@ -122,9 +151,14 @@ public final class CurrencyBuyOffer extends CurrencyExchangeOffer {
         this.dbKey = dbKey;
     }
 
+    private CurrencyBuyOffer(CurrencyBuyOffer offer) {
+        super(offer);
+        this.dbKey = offer.dbKey;
+    }
+
     @Override
     public CurrencySellOffer getCounterOffer() {
-        return CurrencySellOffer.getOffer(id);
+        return CurrencySellOffer.sellOfferBook.get(getCurrencyId(), id);
     }
 
     long increaseSupply(long delta) {
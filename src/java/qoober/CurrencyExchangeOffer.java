@@ -25,6 +25,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 public abstract class CurrencyExchangeOffer {
@@ -78,7 +79,13 @@ public abstract class CurrencyExchangeOffer {
         CurrencySellOffer.addOffer(transaction, attachment);
     }
 
-    private static AvailableOffers calculateTotal(List<CurrencyExchangeOffer> offers, final long units) {
+    /** Time priority of offers with the same rate */
+    static final Comparator<CurrencyExchangeOffer> timeComparator = Comparator.<CurrencyExchangeOffer>comparingInt(offer -> offer.creationHeight)
+            .thenComparingInt(offer -> offer.transactionHeight)
+            .thenComparingInt(offer -> offer.transactionIndex)
+            .thenComparingLong(offer -> offer.id);
+
+    private static AvailableOffers calculateTotal(Iterable<? extends CurrencyExchangeOffer> offers, final long units) {
         long totalAmountNQT = 0;
         long remainingUnits = units;
         long rateNQT = 0;
@@ -86,6 +93,9 @@ public abstract class CurrencyExchangeOffer {
             if (remainingUnits == 0) {
                 break;
             }
+            if (!offer.isAvailable()) {
+                continue;
+            }
             rateNQT = offer.getRateNQT();
             long curUnits = Math.min(Math.min(remainingUnits, offer.getSupply()), offer.getLimit());
             long curAmountNQT = Math.multiplyExact(curUnits, offer.getRateNQT());
@@ -99,26 +109,16 @@ public abstract class CurrencyExchangeOffer {
             .and(new DbClause.LongClause("supply", DbClause.Op.NE, 0));
 
     public static AvailableOffers getAvailableToSell(final long currencyId, final long units) {
-        return calculateTotal(getAvailableBuyOffers(currencyId, 0L), units);
+        return CurrencyBuyOffer.buyOfferBook.apply(currencyId, offers -> calculateTotal(offers, units));
     }
 
-    private static List<CurrencyExchangeOffer> getAvailableBuyOffers(long currencyId, long minRateNQT) {
-        List<CurrencyExchangeOffer> currencyExchangeOffers = new ArrayList<>();
-        DbClause dbClause = new DbClause.LongClause("currency_id", currencyId).and(availableOnlyDbClause);
-        if (minRateNQT > 0) {
-            dbClause = dbClause.and(new DbClause.LongClause("rate", DbClause.Op.GTE, minRateNQT));
-        }
-        try (DbIterator<CurrencyBuyOffer> offers = CurrencyBuyOffer.getOffers(dbClause, 0, -1,
-                " ORDER BY rate DESC, creation_height ASC, transaction_height ASC, transaction_index ASC ")) {
-            for (CurrencyBuyOffer offer : offers) {
-                currencyExchangeOffers.add(offer);
-            }
-        }
-        return currencyExchangeOffers;
+    private static List<CurrencyBuyOffer> getAvailableBuyOffers(long currencyId, long minRateNQT) {
+        return CurrencyBuyOffer.buyOfferBook.getOrders(currencyId,
+                offer -> offer.isAvailable() && (minRateNQT <= 0 || offer.getRateNQT() >= minRateNQT));
     }
 
     static void exchangeCurrencyForNXT(Transaction transaction, Account account, final long currencyId, final long rateNQT, final long units) {
-        List<CurrencyExchangeOffer> currencyBuyOffers = getAvailableBuyOffers(currencyId, rateNQT);
+        List<CurrencyBuyOffer> currencyBuyOffers = getAvailableBuyOffers(currencyId, rateNQT);
 
         long totalAmountNQT = 0;
         long remainingUnits = units;
@@ -148,26 +148,16 @@ public abstract class CurrencyExchangeOffer {
     }
 
     public static AvailableOffers getAvailableToBuy(final long currencyId, final long units) {
-        return calculateTotal(getAvailableSellOffers(currencyId, 0L), units);
+        return CurrencySellOffer.sellOfferBook.apply(currencyId, offers -> calculateTotal(offers, units));
     }
 
-    private static List<CurrencyExchangeOffer> getAvailableSellOffers(long currencyId, long maxRateNQT) {
-        List<CurrencyExchangeOffer> currencySellOffers = new ArrayList<>();
-        DbClause dbClause = new DbClause.LongClause("currency_id", currencyId).and(availableOnlyDbClause);
-        if (maxRateNQT > 0) {
-            dbClause = dbClause.and(new DbClause.LongClause("rate", DbClause.Op.LTE, maxRateNQT));
-        }
-        try (DbIterator<CurrencySellOffer> offers = CurrencySellOffer.getOffers(dbClause, 0, -1,
-                " ORDER BY rate ASC, creation_height ASC, transaction_height ASC, transaction_index ASC ")) {
-            for (CurrencySellOffer offer : offers) {
-                currencySellOffers.add(offer);
-            }
-        }
-        return currencySellOffers;
+    private static List<CurrencySellOffer> getAvailableSellOffers(long currencyId, long maxRateNQT) {
+        return CurrencySellOffer.sellOfferBook.getOrders(currencyId,
+                offer -> offer.isAvailable() && (maxRateNQT <= 0 || offer.getRateNQT() <= maxRateNQT));
     }
 
     static void exchangeNXTForCurrency(Transaction transaction, Account account, final long currencyId, final long rateNQT, final long units) {
-        List<CurrencyExchangeOffer> currencySellOffers = getAvailableSellOffers(currencyId, rateNQT);
+        List<CurrencySellOffer> currencySellOffers = getAvailableSellOffers(currencyId, rateNQT);
         long totalAmountNQT = 0;
         long remainingUnits = units;
 
@@ -213,6 +203,68 @@ public abstract class CurrencyExchangeOffer {
         account.addToUnconfirmedCurrencyUnits(event, buyOffer.getId(), buyOffer.getCurrencyId(), sellOffer.getSupply());
     }
 
+    /**
+     * Publish an exchange offer for each account, look up the units available to buy, buy currency
+     * from the sell offers and roll back the changes. Each sell offer has a supply and a limit of 10
+     * units at a rate increasing with the account index, and each purchase buys 50 units, so a purchase
+     * takes five offers completely and an offer is never exchanged twice by the same transaction. Only
+     * the sellers of the offers taken by the purchases are credited with the offered units, the account
+     * currency statistics do not include the rows added by the transaction and each update of a holder
+     * would otherwise scan all the holders of the currency. This is used by the benchmarks to measure
+     * the offer book, so it must not be called while the node is processing blocks.
+     *
+     * @param   transaction             Purchase transaction, its sender is the buyer
+     * @param   currencyId              Currency identifier, the currency does not need to exist
+     * @param   accountIds              Offer account identifiers, also used as the offer identifiers
+     * @param   lookups                 Number of getAvailableToBuy() calls
+     * @param   purchases               Number of exchangeNXTForCurrency() calls, at most a fifth of the offers
+     * @return                          Total of the available and purchased units
+     */
+    public static long benchmarkExchange(Transaction transaction, long currencyId, long[] accountIds, int lookups, int purchases) {
+        final long offerUnits = 10;
+        final long purchaseUnits = 50;
+        if (purchases * purchaseUnits > accountIds.length * offerUnits) {
+            throw new IllegalArgumentException("Not enough offers for " + purchases + " purchases");
+        }
+        long soldOffers = purchases * purchaseUnits / offerUnits;
+        Db.db.beginTransaction();
+        try {
+            int height = Qoober.getBlockchain().getHeight();
+            for (int n = 0; n < accountIds.length; n++) {
+                long accountId = accountIds[n];
+                Account account = Account.addOrGetAccount(accountId);
+                if (n < soldOffers) {
+                    account.addToCurrencyUnits(LedgerEvent.CURRENCY_PUBLISH_EXCHANGE_OFFER, accountId, currencyId, offerUnits);
+                }
+                Attachment.MonetarySystemPublishExchangeOffer attachment = new Attachment.MonetarySystemPublishExchangeOffer(currencyId,
+                        1, 100 + n, 0, offerUnits, 0, offerUnits, Integer.MAX_VALUE);
+                CurrencyBuyOffer.addOffer(accountId, accountId, height, (short)0, attachment);
+                CurrencySellOffer.addOffer(accountId, accountId, height, (short)0, attachment);
+            }
+            long result = 0;
+            for (int n = 0; n < lookups; n++) {
+                result += getAvailableToBuy(currencyId, (n % accountIds.length + 1) * offerUnits).getUnits();
+            }
+            if (purchases > 0) {
+                long rateNQT = 100 + accountIds.length;
+                long amountNQT = Math.multiplyExact(purchaseUnits, rateNQT);
+                Account buyer = Account.addOrGetAccount(transaction.getSenderId());
+                buyer.addToBalanceAndUnconfirmedBalanceNQT(LedgerEvent.CURRENCY_EXCHANGE_BUY, transaction.getId(),
+                        Math.multiplyExact(purchases, amountNQT));
+                for (int n = 0; n < purchases; n++) {
+                    buyer.addToUnconfirmedBalanceNQT(LedgerEvent.CURRENCY_EXCHANGE_BUY, transaction.getId(), -amountNQT);
+                    exchangeNXTForCurrency(transaction, buyer, currencyId, rateNQT, purchaseUnits);
+                    result += purchaseUnits;
+                }
+            }
+            return result;
+        } finally {
+            AccountLedger.clearEntries();
+            Db.db.rollbackTransaction();
+            Db.db.endTransaction();
+        }
+    }
+
 
     final long id;
     private final long currencyId;
@@ -239,6 +291,19 @@ public abstract class CurrencyExchangeOffer {
         this.transactionHeight = transactionHeight;
     }
 
+    CurrencyExchangeOffer(CurrencyExchangeOffer offer) {
+        this.id = offer.id;
+        this.currencyId = offer.currencyId;
+        this.accountId = offer.accountId;
+        this.rateNQT = offer.rateNQT;
+        this.limit = offer.limit;
+        this.supply = offer.supply;
+        this.expirationHeight = offer.expirationHeight;
+        this.creationHeight = offer.creationHeight;
+        this.transactionIndex = offer.transactionIndex;
+        this.transactionHeight = offer.transactionHeight;
+    }
+
     CurrencyExchangeOffer(ResultSet rs) throws SQLException {
         this.id = rs.getLong("id");
         this.currencyId = rs.getLong("currency_id");
@@ -306,6 +371,10 @@ public abstract class CurrencyExchangeOffer {
 
     protected abstract CurrencyExchangeOffer getCounterOffer();
 
+    boolean isAvailable() {
+        return limit != 0 && supply != 0;
+    }
+
     long increaseSupply(long delta) {
         long excess = Math.max(Math.addExact(supply, Math.subtractExact(delta, limit)), 0);
         supply += delta - excess;
@@ -24,6 +24,8 @@ import qoober.db.VersionedEntityDbTable;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.List;
 
 public final class CurrencySellOffer extends CurrencyExchangeOffer {
 
@@ -48,8 +50,29 @@ public final class CurrencySellOffer extends CurrencyExchangeOffer {
             sell.save(con, table);
         }
 
+        @Override
+        public boolean keepsExternalState() {
+            return true;
+        }
+
+        @Override
+        public void popOffTo(int height) {
+            super.popOffTo(height);
+            sellOfferBook.clear();
+        }
+
+        @Override
+        public void truncate() {
+            super.truncate();
+            sellOfferBook.clear();
+        }
+
     };
 
+    static final OrderBook<CurrencySellOffer> sellOfferBook = new OrderBook<>(sellOfferTable, "currency_id",
+            CurrencyExchangeOffer::getCurrencyId, CurrencyExchangeOffer::getId,
+            Comparator.comparingLong(CurrencyExchangeOffer::getRateNQT).thenComparing(timeComparator));
+
     public static int getCount() {
         return sellOfferTable.getCount();
     }
@@ -63,15 +86,12 @@ public final class CurrencySellOffer extends CurrencyExchangeOffer {
     }
 
     public static DbIterator<CurrencySellOffer> getOffers(Currency currency, int from, int to) {
-        return getCurrencyOffers(currency.getId(), false, from, to);
+        return sellOfferTable.getManyBy(new DbClause.LongClause("currency_id", currency.getId()), from, to,
+                " ORDER BY rate ASC, creation_height ASC, transaction_height ASC, transaction_index ASC ");
     }
 
-    public static DbIterator<CurrencySellOffer> getCurrencyOffers(long currencyId, boolean availableOnly, int from, int to) {
-        DbClause dbClause = new DbClause.LongClause("currency_id", currencyId);
-        if (availableOnly) {
-            dbClause = dbClause.and(availableOnlyDbClause);
-        }
-        return sellOfferTable.getManyBy(dbClause, from, to, " ORDER BY rate ASC, creation_height ASC, transaction_height ASC, transaction_index ASC ");
+    public static List<CurrencySellOffer> getCurrencyOffers(long currencyId, boolean availableOnly, int from, int to) {
+        return sellOfferBook.getOrders(currencyId, offer -> !availableOnly || offer.isAvailable(), from, to, CurrencySellOffer::new);
     }
 
     public static DbIterator<CurrencySellOffer> getAccountOffers(long accountId, boolean availableOnly, int from, int to) {
@@ -99,21 +119,30 @@ public final class CurrencySellOffer extends CurrencyExchangeOffer {
     }
 
     static void addOffer(Transaction transaction, Attachment.MonetarySystemPublishExchangeOffer attachment) {
-        sellOfferTable.insert(new CurrencySellOffer(transaction, attachment));
+        addOffer(transaction.getId(), transaction.getSenderId(), transaction.getHeight(), transaction.getIndex(), attachment);
+    }
+
+    static void addOffer(long id, long accountId, int transactionHeight, short transactionIndex,
+                         Attachment.MonetarySystemPublishExchangeOffer attachment) {
+        CurrencySellOffer offer = new CurrencySellOffer(id, accountId, transactionHeight, transactionIndex, attachment);
+        sellOfferBook.add(offer);
+        sellOfferTable.insert(offer);
     }
 
     static void remove(CurrencySellOffer sellOffer) {
         sellOfferTable.delete(sellOffer);
+        sellOfferBook.remove(sellOffer);
     }
 
     static void init() {}
 
     private final DbKey dbKey;
 
-    private CurrencySellOffer(Transaction transaction, Attachment.MonetarySystemPublishExchangeOffer attachment) {
-        super(transaction.getId(), attachment.getCurrencyId(), transaction.getSenderId(), attachment.getSellRateNQT(),
-                attachment.getTotalSellLimit(), attachment.getInitialSellSupply(), attachment.getExpirationHeight(), transaction.getHeight(),
-                transaction.getIndex());
+    private CurrencySellOffer(long id, long accountId, int transactionHeight, short transactionIndex,
+                              Attachment.MonetarySystemPublishExchangeOffer attachment) {
+        super(id, attachment.getCurrencyId(), accountId, attachment.getSellRateNQT(),
+                attachment.getTotalSellLimit(), attachment.getInitialSellSupply(), attachment.getExpirationHeight(), transactionHeight,
+                transactionIndex);
         this.dbKey = sellOfferDbKeyFactory.newKey(id);
     }
 
@@ -122,9 +151,14 @@ public final class CurrencySellOffer extends CurrencyExchangeOffer {
         this.dbKey = dbKey;
     }
 
+    private CurrencySellOffer(CurrencySellOffer offer) {
+        super(offer);
+        this.dbKey = offer.dbKey;
+    }
+
     @Override
     public CurrencyBuyOffer getCounterOffer() {
-        return CurrencyBuyOffer.getOffer(id);
+        return CurrencyBuyOffer.buyOfferBook.get(getCurrencyId(), id);
     }
 
     long increaseSupply(long delta) {
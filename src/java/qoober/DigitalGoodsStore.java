@@ -539,6 +539,11 @@ public final class DigitalGoodsStore {
                 return index;
             }
 
+            @Override
+            protected String getKey() {
+                return newKey();
+            }
+
         }
 
         private static final class LongPurchasesClause extends PurchasesClause {
@@ -556,6 +561,11 @@ public final class DigitalGoodsStore {
                 return index;
             }
 
+            @Override
+            protected String getKey() {
+                return newKey(value);
+            }
+
         }
 
         private static final class SellerBuyerPurchasesClause extends PurchasesClause {
@@ -576,6 +586,11 @@ public final class DigitalGoodsStore {
                 return index;
             }
 
+            @Override
+            protected String getKey() {
+                return newKey(sellerId, buyerId);
+            }
+
         }
 
         public static int getCount() {
@@ -898,6 +913,11 @@ public final class DigitalGoodsStore {
             return index;
         }
 
+        @Override
+        protected String getKey() {
+            return newKey(sellerId);
+        }
+
     }
 
     static void listGoods(Transaction transaction, Attachment.DigitalGoodsListing attachment) {
@@ -162,6 +162,7 @@ public final class Generator implements Comparable<Generator> {
         Generator generator = new Generator(secretPhrase);
         Generator old = generators.putIfAbsent(secretPhrase, generator);
         if (old != null) {
+            generator.signingKey.destroy();
             Logger.logDebugMessage(old + " is already forging");
             return old;
         }
@@ -176,6 +177,7 @@ public final class Generator implements Comparable<Generator> {
             Qoober.getBlockchain().updateLock();
             try {
                 sortedForgers = null;
+                generator.signingKey.destroy();
             } finally {
                 Qoober.getBlockchain().updateUnlock();
             }
@@ -187,16 +189,19 @@ public final class Generator implements Comparable<Generator> {
 
     public static int stopForging() {
         int count = generators.size();
+        List<Generator> stopped = new ArrayList<>(count);
         Iterator<Generator> iter = generators.values().iterator();
         while (iter.hasNext()) {
             Generator generator = iter.next();
             iter.remove();
+            stopped.add(generator);
             Logger.logDebugMessage(generator + " stopped");
             listeners.notify(generator, Event.STOP_FORGING);
         }
         Qoober.getBlockchain().updateLock();
         try {
             sortedForgers = null;
+            stopped.forEach(generator -> generator.signingKey.destroy());
         } finally {
             Qoober.getBlockchain().updateUnlock();
         }
@@ -262,7 +267,7 @@ public final class Generator implements Comparable<Generator> {
         if (allowsFakeForging(publicKey)) {
             return BigInteger.ZERO;
         }
-        MessageDigest digest = Crypto.sha256();
+        MessageDigest digest = Crypto.localSha256();
         digest.update(block.getGenerationSignature());
         byte[] generationSignatureHash = digest.digest(publicKey);
         return new BigInteger(1, new byte[] {generationSignatureHash[7], generationSignatureHash[6], generationSignatureHash[5], generationSignatureHash[4], generationSignatureHash[3], generationSignatureHash[2], generationSignatureHash[1], generationSignatureHash[0]});
@@ -275,7 +280,7 @@ public final class Generator implements Comparable<Generator> {
 
 
     private final long accountId;
-    private final String secretPhrase;
+    private final Crypto.SigningKey signingKey;
     private final byte[] publicKey;
     private volatile long hitTime;
     private volatile BigInteger hit;
@@ -283,8 +288,8 @@ public final class Generator implements Comparable<Generator> {
     private volatile long deadline;
 
     private Generator(String secretPhrase) {
-        this.secretPhrase = secretPhrase;
-        this.publicKey = Crypto.getPublicKey(secretPhrase);
+        this.signingKey = Crypto.getSigningKey(secretPhrase);
+        this.publicKey = signingKey.getPublicKey();
         this.accountId = Account.getId(publicKey);
         Qoober.getBlockchain().updateLock();
         try {
@@ -355,7 +360,7 @@ public final class Generator implements Comparable<Generator> {
         int start = Qoober.getEpochTime();
         while (true) {
             try {
-                BlockchainProcessorImpl.getInstance().generateBlock(secretPhrase, timestamp);
+                BlockchainProcessorImpl.getInstance().generateBlock(signingKey, timestamp);
                 setDelay(Constants.FORGING_DELAY);
                 return true;
             } catch (BlockchainProcessor.TransactionNotAcceptedException e) {
@@ -0,0 +1,293 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober;
+
+import qoober.db.TransactionalDb;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Balances of the holders of assets or currencies at recent heights
+ *
+ * The holders of an asset or currency are loaded from the versioned balance table when their
+ * balances are first requested. The balances at a snapshot height are kept together with the
+ * balance changes made after that height, so the balances at any later height are found by
+ * applying the changes up to that height to the snapshot. The snapshot is kept at most
+ * COMPACT_INTERVAL blocks behind the oldest height kept by the table for rollbacks and dividend
+ * payments, and is moved forward by merging the older changes into it. Balances at heights before
+ * the snapshot are not available and must be read from the table.
+ *
+ * Holdings loaded or changed by a database transaction are discarded if the transaction is rolled
+ * back, and all holdings are discarded when the table is popped off or truncated. Readers that are
+ * not processing a block hold the blockchain read lock, so they do not see the changes of a block
+ * that has not been committed yet.
+ */
+final class HolderBalances implements TransactionalDb.TransactionCallback {
+
+    /** Number of blocks the snapshot can fall behind before it is moved forward */
+    private static final int COMPACT_INTERVAL = 100;
+
+    /** Maximum number of holdings kept */
+    private static final int maxHoldings = Math.max(Qoober.getIntProperty("qoober.maxHolderSnapshots", 100), 1);
+
+    /**
+     * Holder balances of a single asset or currency
+     */
+    private static final class Holding {
+
+        /** Snapshot height */
+        private int snapshotHeight;
+
+        /** Non-zero balances at the snapshot height by account */
+        private final Map<Long, Long> snapshot = new HashMap<>();
+
+        /** Heights of the balance changes in ascending order */
+        private int[] heights = new int[16];
+
+        /** Accounts of the balance changes */
+        private long[] accountIds = new long[16];
+
+        /** New balances */
+        private long[] balances = new long[16];
+
+        /** Number of balance changes */
+        private int count;
+
+        /** Height of the last computed balances or -1 */
+        private int resultHeight = -1;
+
+        /** Last computed balances */
+        private Map<Long, Long> result;
+
+        private void add(int height, long accountId, long balance) {
+            if (count == heights.length) {
+                heights = Arrays.copyOf(heights, count * 2);
+                accountIds = Arrays.copyOf(accountIds, count * 2);
+                balances = Arrays.copyOf(balances, count * 2);
+            }
+            heights[count] = height;
+            accountIds[count] = accountId;
+            balances[count] = balance;
+            count++;
+            if (height <= resultHeight) {
+                resultHeight = -1;
+                result = null;
+            }
+        }
+
+        private Map<Long, Long> getBalances(int height) {
+            if (height != resultHeight) {
+                Map<Long, Long> map = new HashMap<>(snapshot);
+                for (int i = 0; i < count && heights[i] <= height; i++) {
+                    put(map, accountIds[i], balances[i]);
+                }
+                result = Collections.unmodifiableMap(map);
+                resultHeight = height;
+            }
+            return result;
+        }
+
+        private void compact(int height) {
+            int n = 0;
+            while (n < count && heights[n] <= height) {
+                put(snapshot, accountIds[n], balances[n]);
+                n++;
+            }
+            System.arraycopy(heights, n, heights, 0, count - n);
+            System.arraycopy(accountIds, n, accountIds, 0, count - n);
+            System.arraycopy(balances, n, balances, 0, count - n);
+            count -= n;
+            snapshotHeight = height;
+        }
+
+        private static void put(Map<Long, Long> map, long accountId, long balance) {
+            if (balance != 0) {
+                map.put(accountId, balance);
+            } else {
+                map.remove(accountId);
+            }
+        }
+    }
+
+    /** Balance table */
+    private final String table;
+
+    /** Column containing the asset or currency identifier */
+    private final String holdingColumn;
+
+    /** Column containing the confirmed balance */
+    private final String balanceColumn;
+
+    /** Number of blocks before the minimum rollback height for which balances are available */
+    private final int extraHistory;
+
+    /** Loaded holdings in access order */
+    private final Map<Long, Holding> holdings = new LinkedHashMap<Long, Holding>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Holding> eldest) {
+            return size() > maxHoldings;
+        }
+    };
+
+    /** Holdings used by the database transaction of the current thread */
+    private final ThreadLocal<Set<Long>> usedHoldings = new ThreadLocal<>();
+
+    /**
+     * Create the holder balances
+     *
+     * @param   table                   Versioned balance table
+     * @param   holdingColumn           Column containing the asset or currency identifier
+     * @param   balanceColumn           Column containing the confirmed balance
+     * @param   extraHistory            Number of blocks before the minimum rollback height for
+     *                                  which the table keeps the balances
+     */
+    HolderBalances(String table, String holdingColumn, String balanceColumn, int extraHistory) {
+        this.table = table;
+        this.holdingColumn = holdingColumn;
+        this.balanceColumn = balanceColumn;
+        this.extraHistory = extraHistory;
+    }
+
+    /**
+     * Get the non-zero balances of all holders
+     *
+     * @param   holdingId               Asset or currency identifier
+     * @param   height                  Height
+     * @return                          Unmodifiable balances by account or null if the height is
+     *                                  before the snapshot
+     */
+    Map<Long, Long> getBalances(long holdingId, int height) {
+        Qoober.getBlockchain().readLock();
+        try {
+            synchronized (this) {
+                Holding holding = getHolding(holdingId);
+                return height >= holding.snapshotHeight ? holding.getBalances(height) : null;
+            }
+        } finally {
+            Qoober.getBlockchain().readUnlock();
+        }
+    }
+
+    /**
+     * Record the new confirmed balance of a holder at the current height, the balance must be
+     * recorded after the table has been updated
+     *
+     * @param   holdingId               Asset or currency identifier
+     * @param   accountId               Account identifier
+     * @param   balance                 New confirmed balance
+     */
+    synchronized void update(long holdingId, long accountId, long balance) {
+        Holding holding = holdings.get(holdingId);
+        if (holding != null) {
+            use(holdingId);
+            holding.add(Qoober.getBlockchain().getHeight(), accountId, balance);
+        }
+    }
+
+    /**
+     * Discard all holdings
+     */
+    synchronized void clear() {
+        holdings.clear();
+    }
+
+    private Holding getHolding(long holdingId) {
+        use(holdingId);
+        int floor = Math.max(Qoober.getBlockchain().getHeight() - Constants.MAX_ROLLBACK - extraHistory, 0);
+        Holding holding = holdings.get(holdingId);
+        if (holding == null) {
+            holding = load(holdingId, floor);
+            holdings.put(holdingId, holding);
+        } else if (floor - holding.snapshotHeight >= COMPACT_INTERVAL) {
+            holding.compact(floor);
+        }
+        return holding;
+    }
+
+    private Holding load(long holdingId, int snapshotHeight) {
+        Holding holding = new Holding();
+        holding.snapshotHeight = snapshotHeight;
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmtSnapshot = con.prepareStatement("SELECT a.account_id, a." + balanceColumn
+                     + " FROM " + table + " AS a WHERE a." + holdingColumn + " = ? AND a.height <= ? "
+                     + "AND (a.latest = TRUE OR (a.latest = FALSE "
+                     + "AND EXISTS (SELECT 1 FROM " + table + " AS b WHERE b.account_id = a.account_id AND b."
+                     + holdingColumn + " = a." + holdingColumn + " AND b.height > ?) "
+                     + "AND NOT EXISTS (SELECT 1 FROM " + table + " AS b WHERE b.account_id = a.account_id AND b."
+                     + holdingColumn + " = a." + holdingColumn + " AND b.height <= ? AND b.height > a.height)))");
+             PreparedStatement pstmtChanges = con.prepareStatement("SELECT account_id, " + balanceColumn + ", height FROM "
+                     + table + " WHERE " + holdingColumn + " = ? AND height > ? ORDER BY height, db_id")) {
+            pstmtSnapshot.setLong(1, holdingId);
+            pstmtSnapshot.setInt(2, snapshotHeight);
+            pstmtSnapshot.setInt(3, snapshotHeight);
+            pstmtSnapshot.setInt(4, snapshotHeight);
+            try (ResultSet rs = pstmtSnapshot.executeQuery()) {
+                while (rs.next()) {
+                    Holding.put(holding.snapshot, rs.getLong(1), rs.getLong(2));
+                }
+            }
+            pstmtChanges.setLong(1, holdingId);
+            pstmtChanges.setInt(2, snapshotHeight);
+            try (ResultSet rs = pstmtChanges.executeQuery()) {
+                while (rs.next()) {
+                    holding.add(rs.getInt(3), rs.getLong(1), rs.getLong(2));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        return holding;
+    }
+
+    private void use(long holdingId) {
+        if (Db.db.isInTransaction()) {
+            Set<Long> holdingIds = usedHoldings.get();
+            if (holdingIds == null) {
+                holdingIds = new HashSet<>();
+                usedHoldings.set(holdingIds);
+                Db.db.registerCallback(this);
+            }
+            holdingIds.add(holdingId);
+        }
+    }
+
+    @Override
+    public void commit() {
+        usedHoldings.remove();
+    }
+
+    @Override
+    public void rollback() {
+        Set<Long> holdingIds = usedHoldings.get();
+        usedHoldings.remove();
+        if (holdingIds != null) {
+            synchronized (this) {
+                holdingIds.forEach(holdings::remove);
+            }
+        }
+    }
+}
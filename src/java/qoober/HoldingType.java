@@ -16,6 +16,8 @@
 
 package qoober;
 
+import java.util.Map;
+
 public enum HoldingType {
 
     NXT((byte)0) {
@@ -60,6 +62,14 @@ public enum HoldingType {
             account.addToBalanceAndUnconfirmedBalanceNQT(event, eventId, amount);
         }
 
+        @Override
+        void addToBalanceAndUnconfirmedBalance(Map<Long, Long> amounts, AccountLedger.LedgerEvent event, long eventId, long holdingId) {
+            if (holdingId != 0) {
+                throw new IllegalArgumentException("holdingId must be 0");
+            }
+            Account.addToBalanceAndUnconfirmedBalanceNQT(event, eventId, amounts);
+        }
+
     },
 
     ASSET((byte)1) {
@@ -149,4 +159,8 @@ public enum HoldingType {
 
     abstract void addToBalanceAndUnconfirmedBalance(Account account, AccountLedger.LedgerEvent event, long eventId, long holdingId, long amount);
 
+    void addToBalanceAndUnconfirmedBalance(Map<Long, Long> amounts, AccountLedger.LedgerEvent event, long eventId, long holdingId) {
+        amounts.forEach((accountId, amount) -> addToBalanceAndUnconfirmedBalance(Account.getAccount(accountId), event, eventId, holdingId, amount));
+    }
+
 }
@@ -26,6 +26,8 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.List;
 
 public abstract class Order {
 
@@ -34,8 +36,8 @@ public abstract class Order {
         Order.Ask askOrder;
         Order.Bid bidOrder;
 
-        while ((askOrder = Ask.getNextOrder(assetId)) != null
-                && (bidOrder = Bid.getNextOrder(assetId)) != null) {
+        while ((askOrder = Ask.askOrderBook.getFirst(assetId)) != null
+                && (bidOrder = Bid.bidOrderBook.getFirst(assetId)) != null) {
 
             if (askOrder.getPriceNQT() > bidOrder.getPriceNQT()) {
                 break;
@@ -66,6 +68,11 @@ public abstract class Order {
         Bid.init();
     }
 
+    /** Time priority of orders with the same price */
+    private static final Comparator<Order> timeComparator = Comparator.<Order>comparingInt(order -> order.creationHeight)
+            .thenComparingInt(order -> order.transactionHeight)
+            .thenComparingInt(order -> order.transactionIndex)
+            .thenComparingLong(order -> order.id);
 
     private final long id;
     private final long accountId;
@@ -88,6 +95,17 @@ public abstract class Order {
         this.transactionHeight = transaction.getHeight();
     }
 
+    private Order(Order order) {
+        this.id = order.id;
+        this.accountId = order.accountId;
+        this.assetId = order.assetId;
+        this.quantityQNT = order.quantityQNT;
+        this.priceNQT = order.priceNQT;
+        this.creationHeight = order.creationHeight;
+        this.transactionIndex = order.transactionIndex;
+        this.transactionHeight = order.transactionHeight;
+    }
+
     private Order(ResultSet rs) throws SQLException {
         this.id = rs.getLong("id");
         this.accountId = rs.getLong("account_id");
@@ -205,8 +223,28 @@ public abstract class Order {
                 return " ORDER BY creation_height DESC ";
             }
 
+            @Override
+            public boolean keepsExternalState() {
+                return true;
+            }
+
+            @Override
+            public void popOffTo(int height) {
+                super.popOffTo(height);
+                askOrderBook.clear();
+            }
+
+            @Override
+            public void truncate() {
+                super.truncate();
+                askOrderBook.clear();
+            }
+
         };
 
+        private static final OrderBook<Ask> askOrderBook = new OrderBook<>(askOrderTable, "asset_id", Order::getAssetId, Order::getId,
+                Comparator.<Ask>comparingLong(Order::getPriceNQT).thenComparing(timeComparator));
+
         public static int getCount() {
             return askOrderTable.getCount();
         }
@@ -232,32 +270,21 @@ public abstract class Order {
             return askOrderTable.getManyBy(dbClause, from, to);
         }
 
-        public static DbIterator<Ask> getSortedOrders(long assetId, int from, int to) {
-            return askOrderTable.getManyBy(new DbClause.LongClause("asset_id", assetId), from, to,
-                    " ORDER BY price ASC, creation_height ASC, transaction_height ASC, transaction_index ASC ");
-        }
-
-        private static Ask getNextOrder(long assetId) {
-            try (Connection con = Db.db.getConnection();
-                 PreparedStatement pstmt = con.prepareStatement("SELECT * FROM ask_order WHERE asset_id = ? "
-                         + "AND latest = TRUE ORDER BY price ASC, creation_height ASC, transaction_height ASC, transaction_index ASC LIMIT 1")) {
-                pstmt.setLong(1, assetId);
-                try (DbIterator<Ask> askOrders = askOrderTable.getManyBy(con, pstmt, true)) {
-                    return askOrders.hasNext() ? askOrders.next() : null;
-                }
-            } catch (SQLException e) {
-                throw new RuntimeException(e.toString(), e);
-            }
+        public static List<Ask> getSortedOrders(long assetId, int from, int to) {
+            return askOrderBook.getOrders(assetId, order -> true, from, to, Ask::new);
         }
 
         static void addOrder(Transaction transaction, Attachment.ColoredCoinsAskOrderPlacement attachment) {
             Ask order = new Ask(transaction, attachment);
+            askOrderBook.add(order);
             askOrderTable.insert(order);
             matchOrders(attachment.getAssetId());
         }
 
         static void removeOrder(long orderId) {
-            askOrderTable.delete(getAskOrder(orderId));
+            Ask order = getAskOrder(orderId);
+            askOrderTable.delete(order);
+            askOrderBook.remove(order);
         }
 
         static void init() {}
@@ -275,6 +302,11 @@ public abstract class Order {
             this.dbKey = dbKey;
         }
 
+        private Ask(Ask ask) {
+            super(ask);
+            this.dbKey = ask.dbKey;
+        }
+
         private void save(Connection con, String table) throws SQLException {
             super.save(con, table);
         }
@@ -285,6 +317,7 @@ public abstract class Order {
                 askOrderTable.insert(this);
             } else if (quantityQNT == 0) {
                 askOrderTable.delete(this);
+                askOrderBook.remove(this);
             } else {
                 throw new IllegalArgumentException("Negative quantity: " + quantityQNT
                         + " for order: " + Long.toUnsignedString(getId()));
@@ -334,8 +367,28 @@ public abstract class Order {
                 return " ORDER BY creation_height DESC ";
             }
 
+            @Override
+            public boolean keepsExternalState() {
+                return true;
+            }
+
+            @Override
+            public void popOffTo(int height) {
+                super.popOffTo(height);
+                bidOrderBook.clear();
+            }
+
+            @Override
+            public void truncate() {
+                super.truncate();
+                bidOrderBook.clear();
+            }
+
         };
 
+        private static final OrderBook<Bid> bidOrderBook = new OrderBook<>(bidOrderTable, "asset_id", Order::getAssetId, Order::getId,
+                Comparator.<Bid>comparingLong(Order::getPriceNQT).reversed().thenComparing(timeComparator));
+
         public static int getCount() {
             return bidOrderTable.getCount();
         }
@@ -361,32 +414,21 @@ public abstract class Order {
             return bidOrderTable.getManyBy(dbClause, from, to);
         }
 
-        public static DbIterator<Bid> getSortedOrders(long assetId, int from, int to) {
-            return bidOrderTable.getManyBy(new DbClause.LongClause("asset_id", assetId), from, to,
-                    " ORDER BY price DESC, creation_height ASC, transaction_height ASC, transaction_index ASC ");
-        }
-
-        private static Bid getNextOrder(long assetId) {
-            try (Connection con = Db.db.getConnection();
-                 PreparedStatement pstmt = con.prepareStatement("SELECT * FROM bid_order WHERE asset_id = ? "
-                         + "AND latest = TRUE ORDER BY price DESC, creation_height ASC, transaction_height ASC, transaction_index ASC LIMIT 1")) {
-                pstmt.setLong(1, assetId);
-                try (DbIterator<Bid> bidOrders = bidOrderTable.getManyBy(con, pstmt, true)) {
-                    return bidOrders.hasNext() ? bidOrders.next() : null;
-                }
-            } catch (SQLException e) {
-                throw new RuntimeException(e.toString(), e);
-            }
+        public static List<Bid> getSortedOrders(long assetId, int from, int to) {
+            return bidOrderBook.getOrders(assetId, order -> true, from, to, Bid::new);
         }
 
         static void addOrder(Transaction transaction, Attachment.ColoredCoinsBidOrderPlacement attachment) {
             Bid order = new Bid(transaction, attachment);
+            bidOrderBook.add(order);
             bidOrderTable.insert(order);
             matchOrders(attachment.getAssetId());
         }
 
         static void removeOrder(long orderId) {
-            bidOrderTable.delete(getBidOrder(orderId));
+            Bid order = getBidOrder(orderId);
+            bidOrderTable.delete(order);
+            bidOrderBook.remove(order);
         }
 
         static void init() {}
@@ -404,6 +446,11 @@ public abstract class Order {
             this.dbKey = dbKey;
         }
 
+        private Bid(Bid bid) {
+            super(bid);
+            this.dbKey = bid.dbKey;
+        }
+
         private void save(Connection con, String table) throws SQLException {
             super.save(con, table);
         }
@@ -414,6 +461,7 @@ public abstract class Order {
                 bidOrderTable.insert(this);
             } else if (quantityQNT == 0) {
                 bidOrderTable.delete(this);
+                bidOrderBook.remove(this);
             } else {
                 throw new IllegalArgumentException("Negative quantity: " + quantityQNT
                         + " for order: " + Long.toUnsignedString(getId()));
@@ -0,0 +1,304 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober;
+
+import qoober.db.DbIterator;
+import qoober.db.TransactionalDb;
+import qoober.db.VersionedEntityDbTable;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * Open orders or exchange offers of each asset or currency in priority order
+ *
+ * The book of an asset or currency is loaded from the latest table rows when it is first used
+ * and is then updated together with the table, so the best orders are found without a database
+ * query. The books used by a database transaction are discarded if the transaction is rolled
+ * back, and all books are discarded when the table is popped off or truncated. A discarded book
+ * is loaded again when it is next used.
+ *
+ * Books are modified by block processing while the blockchain write lock is held. Readers that
+ * are not processing a block must hold the blockchain read lock, so they do not see the changes
+ * of a block that has not been committed yet.
+ *
+ * @param   <T>                     Order type
+ */
+final class OrderBook<T> implements TransactionalDb.TransactionCallback {
+
+    /**
+     * Orders of a single asset or currency
+     */
+    private final class Book {
+
+        /** Orders in priority order */
+        private final TreeSet<T> orders = new TreeSet<>(comparator);
+
+        /** Orders by identifier */
+        private final Map<Long, T> ordersById = new HashMap<>();
+    }
+
+    /** Order table */
+    private final VersionedEntityDbTable<T> table;
+
+    /** Column containing the asset or currency identifier */
+    private final String column;
+
+    /** Get the asset or currency identifier of an order */
+    private final ToLongFunction<T> bookIdFunction;
+
+    /** Get the identifier of an order */
+    private final ToLongFunction<T> idFunction;
+
+    /** Order priority */
+    private final Comparator<? super T> comparator;
+
+    /** Loaded books */
+    private final Map<Long, Book> books = new HashMap<>();
+
+    /** Books used by the database transaction of the current thread */
+    private final ThreadLocal<Set<Long>> usedBooks = new ThreadLocal<>();
+
+    /**
+     * Create an order book
+     *
+     * @param   table                   Order table
+     * @param   column                  Column containing the asset or currency identifier
+     * @param   bookIdFunction          Get the asset or currency identifier of an order
+     * @param   idFunction              Get the identifier of an order
+     * @param   comparator              Order priority, orders with different identifiers must not be equal
+     */
+    OrderBook(VersionedEntityDbTable<T> table, String column, ToLongFunction<T> bookIdFunction,
+              ToLongFunction<T> idFunction, Comparator<? super T> comparator) {
+        this.table = table;
+        this.column = column;
+        this.bookIdFunction = bookIdFunction;
+        this.idFunction = idFunction;
+        this.comparator = comparator;
+    }
+
+    /**
+     * Get the order with the highest priority
+     *
+     * @param   bookId                  Asset or currency identifier
+     * @return                          Order or null if there are no orders
+     */
+    synchronized T getFirst(long bookId) {
+        Book book = getBook(bookId);
+        return book.orders.isEmpty() ? null : getCachedInstance(book, book.orders.first());
+    }
+
+    /**
+     * Get an order
+     *
+     * @param   bookId                  Asset or currency identifier
+     * @param   id                      Order identifier
+     * @return                          Order or null if the order is not found
+     */
+    synchronized T get(long bookId, long id) {
+        Book book = getBook(bookId);
+        T order = book.ordersById.get(id);
+        return order != null ? getCachedInstance(book, order) : null;
+    }
+
+    /**
+     * Get the orders accepted by a filter in priority order, the returned orders are the
+     * book entries and must only be modified by block processing
+     *
+     * @param   bookId                  Asset or currency identifier
+     * @param   filter                  Order filter
+     * @return                          Orders
+     */
+    synchronized List<T> getOrders(long bookId, Predicate<T> filter) {
+        Book book = getBook(bookId);
+        List<T> orders = new ArrayList<>();
+        for (T order : book.orders) {
+            if (filter.test(order)) {
+                orders.add(order);
+            }
+        }
+        orders.replaceAll(order -> getCachedInstance(book, order));
+        return orders;
+    }
+
+    /**
+     * Get copies of the orders accepted by a filter in priority order
+     *
+     * @param   bookId                  Asset or currency identifier
+     * @param   filter                  Order filter
+     * @param   from                    Index of the first order
+     * @param   to                      Index of the last order, a negative value or a value less
+     *                                  than the first index returns all remaining orders
+     * @param   copy                    Copy an order
+     * @return                          Orders
+     */
+    List<T> getOrders(long bookId, Predicate<T> filter, int from, int to, UnaryOperator<T> copy) {
+        int limit = to >= 0 && to >= from && to < Integer.MAX_VALUE ? to - from + 1 : Integer.MAX_VALUE;
+        List<T> orders = new ArrayList<>();
+        Qoober.getBlockchain().readLock();
+        try {
+            synchronized (this) {
+                Iterator<T> it = getBook(bookId).orders.iterator();
+                int skipped = 0;
+                while (orders.size() < limit && it.hasNext()) {
+                    T order = it.next();
+                    if (!filter.test(order)) {
+                        continue;
+                    }
+                    if (skipped < from) {
+                        skipped++;
+                    } else {
+                        orders.add(copy.apply(order));
+                    }
+                }
+            }
+        } finally {
+            Qoober.getBlockchain().readUnlock();
+        }
+        return orders;
+    }
+
+    /**
+     * Compute a result from the orders without copying them
+     *
+     * @param   bookId                  Asset or currency identifier
+     * @param   function                Function applied to the orders in priority order
+     * @param   <R>                     Result type
+     * @return                          Function result
+     */
+    <R> R apply(long bookId, Function<Iterable<T>, R> function) {
+        Qoober.getBlockchain().readLock();
+        try {
+            synchronized (this) {
+                return function.apply(getBook(bookId).orders);
+            }
+        } finally {
+            Qoober.getBlockchain().readUnlock();
+        }
+    }
+
+    /**
+     * Add an order, the order must be added before it is inserted into the order table
+     *
+     * @param   order                   Order
+     */
+    synchronized void add(T order) {
+        Book book = getBook(bookIdFunction.applyAsLong(order));
+        book.orders.add(order);
+        book.ordersById.put(idFunction.applyAsLong(order), order);
+    }
+
+    /**
+     * Remove an order
+     *
+     * @param   order                   Order
+     */
+    synchronized void remove(T order) {
+        Book book = getBook(bookIdFunction.applyAsLong(order));
+        book.orders.remove(order);
+        book.ordersById.remove(idFunction.applyAsLong(order));
+    }
+
+    /**
+     * Discard all books
+     */
+    synchronized void clear() {
+        books.clear();
+    }
+
+    /**
+     * Use the instance of an order cached by the current database transaction, so the order
+     * can be saved even if it was read from the table before it was taken from the book
+     *
+     * @param   book                    Order book
+     * @param   order                   Book entry
+     * @return                          Book entry
+     */
+    private T getCachedInstance(Book book, T order) {
+        if (!Db.db.isInTransaction()) {
+            return order;
+        }
+        T cached = table.getCachedInstance(order);
+        if (cached != order) {
+            book.orders.remove(order);
+            book.orders.add(cached);
+            book.ordersById.put(idFunction.applyAsLong(cached), cached);
+        }
+        return cached;
+    }
+
+    private Book getBook(long bookId) {
+        if (Db.db.isInTransaction()) {
+            Set<Long> bookIds = usedBooks.get();
+            if (bookIds == null) {
+                bookIds = new HashSet<>();
+                usedBooks.set(bookIds);
+                Db.db.registerCallback(this);
+            }
+            bookIds.add(bookId);
+        }
+        Book book = books.get(bookId);
+        if (book == null) {
+            book = new Book();
+            try (Connection con = Db.db.getConnection();
+                 PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + " WHERE " + column + " = ? AND latest = TRUE")) {
+                pstmt.setLong(1, bookId);
+                try (DbIterator<T> orders = table.getManyBy(con, pstmt, true)) {
+                    while (orders.hasNext()) {
+                        T order = orders.next();
+                        book.orders.add(order);
+                        book.ordersById.put(idFunction.applyAsLong(order), order);
+                    }
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e.toString(), e);
+            }
+            books.put(bookId, book);
+        }
+        return book;
+    }
+
+    @Override
+    public void commit() {
+        usedBooks.remove();
+    }
+
+    @Override
+    public void rollback() {
+        Set<Long> bookIds = usedBooks.get();
+        usedBooks.remove();
+        if (bookIds != null) {
+            synchronized (this) {
+                bookIds.forEach(books::remove);
+            }
+        }
+    }
+}
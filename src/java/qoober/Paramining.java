@@ -7,9 +7,13 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
 import qoober.util.Logger;
+import qoober.util.Metrics;
 
 public class Paramining {
 
+    private static final Metrics.Histogram calculateTime = Metrics.histogram("qoober_paramining_calculate_seconds",
+            "Time to calculate the paramining balance of an account");
+
     static final long[] balanceLevels = {
             100L * Constants.ONE_QBR, 1000L * Constants.ONE_QBR, 10000L * Constants.ONE_QBR, 50000L * Constants.ONE_QBR,
             100000L * Constants.ONE_QBR, 500000L * Constants.ONE_QBR, 1000000L * Constants.ONE_QBR};
@@ -117,6 +121,15 @@ public class Paramining {
 		}
 
     public static long calculate(long accountId) {
+        long startTime = System.nanoTime();
+        try {
+            return doCalculate(accountId);
+        } finally {
+            calculateTime.update(System.nanoTime() - startTime);
+        }
+    }
+
+    private static long doCalculate(long accountId) {
         int start = Account.getAccount(accountId).getLastParaminingStart();
         int end = Qoober.getBlockchain().getHeight();
         long reinvestedBalance = 0;
@@ -485,13 +485,16 @@ public final class PhasingPoll extends AbstractPoll {
         if (voteWeighting.isBalanceIndependent()) {
             return PhasingVote.getVoteCount(this.id);
         }
-        VoteWeighting.VotingModel votingModel = voteWeighting.getVotingModel();
-        long cumulativeWeight = 0;
+        List<Long> voterIds = new ArrayList<>();
         try (DbIterator<PhasingVote> votes = PhasingVote.getVotes(this.id, 0, Integer.MAX_VALUE)) {
             for (PhasingVote vote : votes) {
-                cumulativeWeight += votingModel.calcWeight(voteWeighting, vote.getVoterId(), height);
+                voterIds.add(vote.getVoterId());
             }
         }
+        long cumulativeWeight = 0;
+        for (long weight : voteWeighting.calcWeights(voterIds, height)) {
+            cumulativeWeight += weight;
+        }
         return cumulativeWeight;
     }
 
@@ -47,8 +47,29 @@ public class PhasingVote {
             vote.save(con);
         }
 
+        @Override
+        public boolean keepsExternalState() {
+            return true;
+        }
+
+        @Override
+        public void popOffTo(int height) {
+            super.popOffTo(height);
+            voteCounts.clear();
+        }
+
+        @Override
+        public void truncate() {
+            super.truncate();
+            voteCounts.clear();
+        }
+
     };
 
+    /** Running vote counts of phasing polls */
+    private static final VoteTallies<long[]> voteCounts = new VoteTallies<>(phasedTransactionId ->
+            new long[] {phasingVoteTable.getCount(new DbClause.LongClause("transaction_id", phasedTransactionId))});
+
     public static DbIterator<PhasingVote> getVotes(long phasedTransactionId, int from, int to) {
         return phasingVoteTable.getManyBy(new DbClause.LongClause("transaction_id", phasedTransactionId), from, to);
     }
@@ -58,7 +79,7 @@ public class PhasingVote {
     }
 
     public static long getVoteCount(long phasedTransactionId) {
-        return phasingVoteTable.getCount(new DbClause.LongClause("transaction_id", phasedTransactionId));
+        return voteCounts.apply(phasedTransactionId, count -> count[0]);
     }
 
     static void addVote(Transaction transaction, Account voter, long phasedTransactionId) {
@@ -66,6 +87,7 @@ public class PhasingVote {
         if (phasingVote == null) {
             phasingVote = new PhasingVote(transaction, voter, phasedTransactionId);
             phasingVoteTable.insert(phasingVote);
+            voteCounts.update(phasedTransactionId, count -> count[0]++);
         }
     }
 
@@ -29,6 +29,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -115,6 +116,18 @@ public final class Poll extends AbstractPoll {
         }
     };
 
+    /** Running results of the polls that count one vote per voter */
+    private static final VoteTallies<OptionResult[]> pollTallies = new VoteTallies<>(pollId -> {
+        Poll poll = getPoll(pollId);
+        OptionResult[] tally = new OptionResult[poll.options.length];
+        try (DbIterator<Vote> votes = Vote.getVotes(pollId, 0, -1)) {
+            for (Vote vote : votes) {
+                countVote(tally, vote, 1);
+            }
+        }
+        return tally;
+    });
+
     public static Poll getPoll(long id) {
         return pollTable.get(pollDbKeyFactory.newKey(id));
     }
@@ -164,6 +177,14 @@ public final class Poll extends AbstractPoll {
         pollTable.insert(poll);
     }
 
+    static void addToResults(Vote vote) {
+        pollTallies.update(vote.getPollId(), tally -> countVote(tally, vote, 1));
+    }
+
+    static void discardResults() {
+        pollTallies.clear();
+    }
+
     static void init() {}
 
     static {
@@ -318,40 +339,48 @@ public final class Poll extends AbstractPoll {
     }
 
     private List<OptionResult> countResults(VoteWeighting voteWeighting, int height) {
-        final OptionResult[] result = new OptionResult[options.length];
-        VoteWeighting.VotingModel votingModel = voteWeighting.getVotingModel();
-        try (DbIterator<Vote> votes = Vote.getVotes(this.getId(), 0, -1)) {
-            for (Vote vote : votes) {
-                long weight = votingModel.calcWeight(voteWeighting, vote.getVoterId(), height);
-                if (weight <= 0) {
-                    continue;
-                }
-                long[] partialResult = countVote(vote, weight);
-                for (int i = 0; i < partialResult.length; i++) {
-                    if (partialResult[i] != Long.MIN_VALUE) {
-                        if (result[i] == null) {
-                            result[i] = new OptionResult(partialResult[i], weight);
-                        } else {
-                            result[i].add(partialResult[i], weight);
-                        }
+        if (voteWeighting.isBalanceIndependent() && voteWeighting.acceptsVotes()) {
+            return pollTallies.apply(id, tally -> {
+                OptionResult[] result = new OptionResult[tally.length];
+                for (int i = 0; i < tally.length; i++) {
+                    if (tally[i] != null) {
+                        result[i] = new OptionResult(tally[i].result, tally[i].weight);
                     }
                 }
+                return Arrays.asList(result);
+            });
+        }
+        List<Vote> votes = new ArrayList<>();
+        List<Long> voterIds = new ArrayList<>();
+        try (DbIterator<Vote> iterator = Vote.getVotes(this.getId(), 0, -1)) {
+            for (Vote vote : iterator) {
+                votes.add(vote);
+                voterIds.add(vote.getVoterId());
             }
         }
+        long[] weights = voteWeighting.calcWeights(voterIds, height);
+        final OptionResult[] result = new OptionResult[options.length];
+        for (int i = 0; i < weights.length; i++) {
+            countVote(result, votes.get(i), weights[i]);
+        }
         return Arrays.asList(result);
     }
 
-    private long[] countVote(Vote vote, long weight) {
-        final long[] partialResult = new long[options.length];
+    private static void countVote(OptionResult[] result, Vote vote, long weight) {
+        if (weight <= 0) {
+            return;
+        }
         final byte[] optionValues = vote.getVoteBytes();
         for (int i = 0; i < optionValues.length; i++) {
             if (optionValues[i] != Constants.NO_VOTE_VALUE) {
-                partialResult[i] = (long) optionValues[i] * weight;
-            } else {
-                partialResult[i] = Long.MIN_VALUE;
+                long partialResult = (long) optionValues[i] * weight;
+                if (result[i] == null) {
+                    result[i] = new OptionResult(partialResult, weight);
+                } else {
+                    result[i].add(partialResult, weight);
+                }
             }
         }
-        return partialResult;
     }
 
 }
\ No newline at end of file
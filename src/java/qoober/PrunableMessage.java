@@ -18,6 +18,7 @@ package qoober;
 
 import qoober.crypto.Crypto;
 import qoober.crypto.EncryptedData;
+import qoober.db.BlobStore;
 import qoober.db.DbIterator;
 import qoober.db.DbKey;
 import qoober.db.DbUtils;
@@ -40,7 +41,8 @@ public final class PrunableMessage {
 
     };
 
-    private static final PrunableDbTable<PrunableMessage> prunableMessageTable = new PrunableDbTable<PrunableMessage>("prunable_message", prunableMessageKeyFactory) {
+    private static final PrunableDbTable<PrunableMessage> prunableMessageTable = new PrunableDbTable<PrunableMessage>("prunable_message",
+            prunableMessageKeyFactory, null, new String[] {"message_hash", "encrypted_message_hash"}) {
 
         @Override
         protected PrunableMessage load(Connection con, ResultSet rs, DbKey dbKey) throws SQLException {
@@ -152,11 +154,11 @@ public final class PrunableMessage {
         this.dbKey = dbKey;
         this.senderId = rs.getLong("sender_id");
         this.recipientId = rs.getLong("recipient_id");
-        this.message = rs.getBytes("message");
+        this.message = BlobStore.get(rs.getBytes("message_hash"));
         if (this.message != null) {
             this.messageIsText = rs.getBoolean("message_is_text");
         }
-        byte[] encryptedMessage = rs.getBytes("encrypted_message");
+        byte[] encryptedMessage = BlobStore.get(rs.getBytes("encrypted_message_hash"));
         if (encryptedMessage != null) {
             this.encryptedData = EncryptedData.readEncryptedData(encryptedMessage);
             this.encryptedMessageIsText = rs.getBoolean("encrypted_is_text");
@@ -172,15 +174,15 @@ public final class PrunableMessage {
             throw new IllegalStateException("Prunable message not fully initialized");
         }
         try (PreparedStatement pstmt = con.prepareStatement("MERGE INTO prunable_message (id, sender_id, recipient_id, "
-                + "message, encrypted_message, message_is_text, encrypted_is_text, is_compressed, block_timestamp, transaction_timestamp, height) "
-                + "KEY (id) "
-                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+                + "message, encrypted_message, message_hash, encrypted_message_hash, message_is_text, encrypted_is_text, is_compressed, "
+                + "block_timestamp, transaction_timestamp, height) KEY (id) "
+                + "VALUES (?, ?, ?, NULL, NULL, ?, ?, ?, ?, ?, ?, ?, ?)")) {
             int i = 0;
             pstmt.setLong(++i, this.id);
             pstmt.setLong(++i, this.senderId);
             DbUtils.setLongZeroToNull(pstmt, ++i, this.recipientId);
-            DbUtils.setBytes(pstmt, ++i, this.message);
-            DbUtils.setBytes(pstmt, ++i, this.encryptedData == null ? null : this.encryptedData.getBytes());
+            DbUtils.setBytes(pstmt, ++i, BlobStore.put(this.message));
+            DbUtils.setBytes(pstmt, ++i, BlobStore.put(this.encryptedData == null ? null : this.encryptedData.getBytes()));
             pstmt.setBoolean(++i, this.messageIsText);
             pstmt.setBoolean(++i, this.encryptedMessageIsText);
             pstmt.setBoolean(++i, this.isCompressed);
@@ -298,12 +300,12 @@ public final class PrunableMessage {
             return false;
         }
         try (Connection con = Db.db.getConnection();
-                PreparedStatement pstmt = con.prepareStatement("SELECT message, encrypted_message FROM prunable_message WHERE id = ?")) {
+                PreparedStatement pstmt = con.prepareStatement("SELECT message_hash, encrypted_message_hash FROM prunable_message WHERE id = ?")) {
             pstmt.setLong(1, transactionId);
             try (ResultSet rs = pstmt.executeQuery()) {
                 return !rs.next()
-                        || (hasPrunablePlainMessage && rs.getBytes("message") == null)
-                        || (hasPrunableEncryptedMessage && rs.getBytes("encrypted_message") == null);
+                        || (hasPrunablePlainMessage && rs.getBytes("message_hash") == null)
+                        || (hasPrunableEncryptedMessage && rs.getBytes("encrypted_message_hash") == null);
             }
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
@@ -16,6 +16,7 @@
 
 package qoober;
 
+import qoober.db.BlobStore;
 import qoober.db.DbVersion;
 
 class QooberDbVersion extends DbVersion {
@@ -696,6 +697,30 @@ class QooberDbVersion extends DbVersion {
             case 258:
                 apply("CREATE TABLE IF NOT EXISTS paratax (db_id IDENTITY, all_balance BIGINT NOT NULL, height INT NOT NULL)");
             case 259:
+                apply("ALTER TABLE tagged_data ADD COLUMN IF NOT EXISTS data_hash BINARY(32)");
+            case 260:
+                apply("ALTER TABLE tagged_data ALTER COLUMN data SET NULL");
+            case 261:
+                apply("ALTER TABLE prunable_message ADD COLUMN IF NOT EXISTS message_hash BINARY(32)");
+            case 262:
+                apply("ALTER TABLE prunable_message ADD COLUMN IF NOT EXISTS encrypted_message_hash BINARY(32)");
+            case 263:
+                BlobStore.migrate(db, "tagged_data", "data", "data_hash");
+                BlobStore.migrate(db, "prunable_message", "message", "message_hash");
+                BlobStore.migrate(db, "prunable_message", "encrypted_message", "encrypted_message_hash");
+                apply(null);
+            case 264:
+                apply("CREATE INDEX IF NOT EXISTS tagged_data_data_hash_idx ON tagged_data (data_hash)");
+            case 265:
+                apply("CREATE INDEX IF NOT EXISTS prunable_message_message_hash_idx ON prunable_message (message_hash)");
+            case 266:
+                apply("CREATE INDEX IF NOT EXISTS prunable_message_encrypted_message_hash_idx ON prunable_message (encrypted_message_hash)");
+            case 267:
+                BlobStore.migrate(db, "tagged_data", "data", "data_hash");
+                BlobStore.migrate(db, "prunable_message", "message", "message_hash");
+                BlobStore.migrate(db, "prunable_message", "encrypted_message", "encrypted_message_hash");
+                apply(null);
+            case 268:
                 return;
             default:
                 throw new RuntimeException("Blockchain database inconsistent with code, at update " + nextUpdate
@@ -0,0 +1,340 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober;
+
+import qoober.util.Logger;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Read-ahead of the blocks processed by a blockchain scan
+ *
+ * A reader thread loads the blocks and their transactions from the block table in database order,
+ * while a pool of verifier threads checks the block and transaction signatures and, for a validating
+ * scan, the byte and JSON round trips of each block. None of these checks depend on the derived
+ * tables, so the scan thread is left with the ordered validation and acceptance of each block.
+ * Signature verification results are cached in the block and transaction objects, so the signature
+ * checks done later by the scan thread do not have to be repeated.
+ *
+ * The scan thread holds the blockchain write lock for the duration of the scan and does not delete
+ * any blocks while the reader is open, so the reader thread loads the block transactions without
+ * taking the blockchain read lock.
+ */
+final class ScanReader implements AutoCloseable {
+
+    /** Number of verifier threads, 0 to do the scan on a single thread */
+    private static final int scanThreads = Qoober.getIntProperty("qoober.scanThreads", Runtime.getRuntime().availableProcessors());
+
+    /** Number of blocks read by a single query */
+    private static final int BATCH_SIZE = 200;
+
+    /** Progress logging interval (milliseconds) */
+    private static final long LOG_INTERVAL = 30 * 1000;
+
+    /**
+     * Block read from the database
+     */
+    static final class Entry {
+
+        /** Block with its transactions loaded */
+        private final BlockImpl block;
+
+        /** Block verification or null if the block is not verified */
+        private final FutureTask<Void> verification;
+
+        /** Database error */
+        private final RuntimeException error;
+
+        private Entry(BlockImpl block, FutureTask<Void> verification, RuntimeException error) {
+            this.block = block;
+            this.verification = verification;
+            this.error = error;
+        }
+
+        /**
+         * Get the block
+         *
+         * @return                          Block
+         */
+        BlockImpl getBlock() {
+            return block;
+        }
+
+        /**
+         * Wait for the verification of the block to complete, the verification is done
+         * on the calling thread if no verifier thread has started it yet
+         *
+         * @throws  QooberException.NotValidException  Block failed verification
+         */
+        void verified() throws QooberException.NotValidException {
+            if (verification == null) {
+                return;
+            }
+            verification.run();
+            try {
+                verification.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Block verification interrupted", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof QooberException.NotValidException) {
+                    throw (QooberException.NotValidException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new RuntimeException(cause.toString(), cause);
+            }
+        }
+    }
+
+    /** End of blocks marker */
+    private static final Entry END = new Entry(null, null, null);
+
+    private final int height;
+    private final boolean validate;
+    private final BlockingQueue<Entry> queue;
+    private final ExecutorService verifierService;
+    private final Thread readerThread;
+    private volatile boolean stopped;
+
+    /** Database position */
+    private long lastDbId = Long.MIN_VALUE;
+    private boolean hasMore = true;
+
+    /** Blocks read on the scan thread when no verifier threads are used */
+    private Entry[] pending = new Entry[0];
+    private int pendingIndex = 0;
+
+    /** Scan statistics */
+    private final long startTime = System.currentTimeMillis();
+    private long lastLogTime = startTime;
+    private int blockCount;
+    private int transactionCount;
+
+    /**
+     * Start reading blocks
+     *
+     * @param   height                  Starting height
+     * @param   validate                TRUE to validate the block and transaction round trips
+     */
+    ScanReader(int height, boolean validate) {
+        this.height = height;
+        this.validate = validate;
+        if (scanThreads > 0) {
+            Logger.logDebugMessage("Using " + scanThreads + " threads for block verification");
+            queue = new ArrayBlockingQueue<>(Math.max(scanThreads * 16, BATCH_SIZE));
+            verifierService = Executors.newFixedThreadPool(scanThreads);
+            readerThread = new Thread(this::readBlocks, "ScanReader");
+            readerThread.setDaemon(true);
+            readerThread.start();
+        } else {
+            queue = null;
+            verifierService = null;
+            readerThread = null;
+        }
+    }
+
+    /**
+     * Get the next block
+     *
+     * @return                          Next block or null if there are no more blocks
+     */
+    Entry next() {
+        if (queue == null) {
+            if (pendingIndex >= pending.length && hasMore) {
+                pending = readBatch();
+                pendingIndex = 0;
+            }
+            return pendingIndex < pending.length ? pending[pendingIndex++] : null;
+        }
+        try {
+            Entry entry = queue.take();
+            if (entry.error != null) {
+                throw entry.error;
+            }
+            return entry == END ? null : entry;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Block scan interrupted", e);
+        }
+    }
+
+    /**
+     * Record the acceptance of a block and periodically log the scan progress
+     *
+     * @param   block                   Accepted block
+     */
+    void accepted(BlockImpl block) {
+        blockCount++;
+        transactionCount += block.getTransactions().size();
+        long now = System.currentTimeMillis();
+        if (now - lastLogTime >= LOG_INTERVAL) {
+            lastLogTime = now;
+            logProgress(block.getHeight(), now);
+        }
+    }
+
+    /**
+     * Log the scan throughput
+     *
+     * @param   height                  Current height
+     */
+    void logSummary(int height) {
+        logProgress(height, System.currentTimeMillis());
+    }
+
+    private void logProgress(int height, long now) {
+        double seconds = Math.max(now - startTime, 1) / 1000.0;
+        Logger.logMessage(String.format("Scanned %d blocks and %d transactions up to height %d in %.1f seconds, %.1f blocks/s, %.1f transactions/s",
+                blockCount, transactionCount, height, seconds, blockCount / seconds, transactionCount / seconds));
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    /**
+     * Stop reading blocks when the scan fails before all blocks have been read
+     */
+    void stop() {
+        stopped = true;
+        if (readerThread != null) {
+            readerThread.interrupt();
+            verifierService.shutdownNow();
+        }
+    }
+
+    /**
+     * Reader thread
+     */
+    private void readBlocks() {
+        try {
+            while (hasMore && !stopped) {
+                for (Entry entry : readBatch()) {
+                    if (stopped) {
+                        return;
+                    }
+                    queue.put(entry);
+                }
+            }
+            queue.put(END);
+        } catch (InterruptedException e) {
+            // scan has been stopped
+        } catch (RuntimeException e) {
+            if (!stopped) {
+                Logger.logDebugMessage("Unable to read blocks for scan: " + e.toString());
+                try {
+                    queue.put(new Entry(null, null, e));
+                } catch (InterruptedException exc) {
+                    // scan has been stopped
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the next batch of blocks
+     *
+     * @return                          Blocks
+     */
+    private Entry[] readBatch() {
+        Entry[] entries = new Entry[BATCH_SIZE];
+        int count = 0;
+        hasMore = false;
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE " + (height > 0 ? "height >= ? AND " : "")
+                     + " db_id > ? ORDER BY db_id ASC LIMIT ?")) {
+            int i = 0;
+            if (height > 0) {
+                pstmt.setInt(++i, height);
+            }
+            pstmt.setLong(++i, lastDbId);
+            pstmt.setInt(++i, BATCH_SIZE);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    lastDbId = rs.getLong("db_id");
+                    BlockImpl block = BlockDb.loadBlock(con, rs, true, queue == null);
+                    FutureTask<Void> verification = null;
+                    if (block.getHeight() > 0) {
+                        block.loadTransactions();
+                        verification = new FutureTask<>(() -> {
+                            verify(block);
+                            return null;
+                        });
+                        if (verifierService != null) {
+                            verifierService.execute(verification);
+                        }
+                    }
+                    entries[count++] = new Entry(block, verification, null);
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        hasMore = count == BATCH_SIZE;
+        return count == BATCH_SIZE ? entries : Arrays.copyOf(entries, count);
+    }
+
+    /**
+     * Verify the block signature and the signatures of the block transactions, and for a validating
+     * scan, check that the block and its transactions can be parsed back from their bytes and JSON
+     *
+     * @param   block                   Block
+     * @throws  QooberException.NotValidException  Block failed verification
+     */
+    private void verify(BlockImpl block) throws QooberException.NotValidException {
+        block.checkSignature();
+        for (TransactionImpl transaction : block.getTransactions()) {
+            transaction.checkSignature();
+        }
+        if (!validate) {
+            return;
+        }
+        byte[] blockBytes = block.bytes();
+        JSONObject blockJSON = (JSONObject) JSONValue.parse(block.getJSONObject().toJSONString());
+        if (!Arrays.equals(blockBytes, BlockImpl.parseBlock(blockJSON).bytes())) {
+            throw new QooberException.NotValidException("Block JSON cannot be parsed back to the same block");
+        }
+        for (TransactionImpl transaction : block.getTransactions()) {
+            byte[] transactionBytes = transaction.bytes();
+            if (!Arrays.equals(transactionBytes, TransactionImpl.newTransactionBuilder(transactionBytes).build().bytes())) {
+                throw new QooberException.NotValidException("Transaction bytes cannot be parsed back to the same transaction: "
+                        + transaction.getJSONObject().toJSONString());
+            }
+            JSONObject transactionJSON = (JSONObject) JSONValue.parse(transaction.getJSONObject().toJSONString());
+            if (!Arrays.equals(transactionBytes, TransactionImpl.newTransactionBuilder(transactionJSON).build().bytes())) {
+                throw new QooberException.NotValidException("Transaction JSON cannot be parsed back to the same transaction: "
+                        + transaction.getJSONObject().toJSONString());
+            }
+        }
+    }
+}
@@ -20,6 +20,7 @@ import qoober.crypto.Crypto;
 import qoober.db.DbIterator;
 import qoober.util.Convert;
 import qoober.util.Logger;
+import qoober.util.Metrics;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -28,6 +29,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public final class Shuffler {
 
@@ -35,6 +39,22 @@ public final class Shuffler {
     private static final Map<String, Map<Long, Shuffler>> shufflingsMap = new HashMap<>();
     private static final Map<Integer, Set<String>> expirations = new HashMap<>();
 
+    /** Processes the shufflings assigned to local participants while a block is applied, the thread is stopped when it is idle */
+    private static final ThreadPoolExecutor processService = new ThreadPoolExecutor(1, 1,
+            60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "Shuffler processing");
+                thread.setDaemon(true);
+                return thread;
+            });
+    static {
+        processService.allowCoreThreadTimeOut(true);
+    }
+
+    private static final Metrics.Histogram processTime = Metrics.histogram("qoober_shuffler_submit_seconds",
+            "Time to prepare a shuffling transaction of a local participant", "stage", "process");
+    private static final Metrics.Histogram revealKeySeedsTime = Metrics.histogram("qoober_shuffler_submit_seconds",
+            "Time to prepare a shuffling transaction of a local participant", "stage", "revealKeySeeds");
+
     public static Shuffler addOrGetShuffler(String secretPhrase, byte[] recipientPublicKey, byte[] shufflingFullHash) throws ShufflerException {
         String hash = Convert.toHexString(shufflingFullHash);
         long accountId = Account.getId(Crypto.getPublicKey(secretPhrase));
@@ -199,11 +219,14 @@ public final class Shuffler {
             if (shufflerMap != null) {
                 Shuffler shuffler = shufflerMap.get(shuffling.getAssigneeAccountId());
                 if (shuffler != null) {
-                    try {
-                        shuffler.submitProcess(shuffling);
-                    } catch (RuntimeException e) {
-                        Logger.logErrorMessage(e.toString(), e);
-                    }
+                    // the processing waits for the block to be applied before reading the participants
+                    processService.execute(() -> {
+                        try {
+                            shuffler.submitProcess(shuffling);
+                        } catch (RuntimeException e) {
+                            Logger.logErrorMessage(e.toString(), e);
+                        }
+                    });
                 }
                 clearExpiration(shuffling);
             }
@@ -406,7 +429,12 @@ public final class Shuffler {
 
     private void submitProcess(Shuffling shuffling) {
         Logger.logDebugMessage("Account %s processing shuffling %s", Long.toUnsignedString(accountId), Long.toUnsignedString(shuffling.getId()));
+        long start = System.nanoTime();
         Attachment.ShufflingAttachment attachment = shuffling.process(accountId, secretPhrase, recipientPublicKey);
+        long elapsed = System.nanoTime() - start;
+        processTime.update(elapsed);
+        Logger.logDebugMessage("Account %s processed shuffling %s in %d ms", Long.toUnsignedString(accountId), Long.toUnsignedString(shuffling.getId()),
+                elapsed / 1000000);
         submitTransaction(attachment);
     }
 
@@ -418,7 +446,12 @@ public final class Shuffler {
 
     private void submitCancel(Shuffling shuffling) {
         Logger.logDebugMessage("Account %s cancelling shuffling %s", Long.toUnsignedString(accountId), Long.toUnsignedString(shuffling.getId()));
+        long start = System.nanoTime();
         Attachment.ShufflingCancellation attachment = shuffling.revealKeySeeds(secretPhrase, shuffling.getAssigneeAccountId(), shuffling.getStateHash());
+        long elapsed = System.nanoTime() - start;
+        revealKeySeedsTime.update(elapsed);
+        Logger.logDebugMessage("Account %s revealed key seeds of shuffling %s in %d ms", Long.toUnsignedString(accountId), Long.toUnsignedString(shuffling.getId()),
+                elapsed / 1000000);
         submitTransaction(attachment);
     }
 
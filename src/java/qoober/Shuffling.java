@@ -27,6 +27,7 @@ import qoober.util.Convert;
 import qoober.util.Listener;
 import qoober.util.Listeners;
 import qoober.util.Logger;
+import qoober.util.Metrics;
 
 import java.security.MessageDigest;
 import java.sql.Connection;
@@ -38,6 +39,11 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public final class Shuffling {
 
@@ -128,6 +134,27 @@ public final class Shuffling {
 
     private static final boolean deleteFinished = Qoober.getBooleanProperty("qoober.deleteFinishedShufflings");
 
+    /** Number of threads decrypting the tokens of a local participant */
+    private static final int DECRYPT_THREADS = Math.min(Runtime.getRuntime().availableProcessors(), 4);
+
+    /** Decrypts the tokens of local participants, the threads are stopped when they are idle */
+    private static final ThreadPoolExecutor decryptService = new ThreadPoolExecutor(DECRYPT_THREADS, DECRYPT_THREADS,
+            60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "Shuffling decrypt");
+                thread.setDaemon(true);
+                return thread;
+            });
+    static {
+        decryptService.allowCoreThreadTimeOut(true);
+    }
+
+    private static final Metrics.Histogram readParticipantsTime = Metrics.histogram("qoober_shuffling_process_phase_seconds",
+            "Time spent in each phase of the shuffling processing of a local participant", "phase", "readParticipants");
+    private static final Metrics.Histogram decryptTime = Metrics.histogram("qoober_shuffling_process_phase_seconds",
+            "Time spent in each phase of the shuffling processing of a local participant", "phase", "decrypt");
+    private static final Metrics.Histogram encryptTime = Metrics.histogram("qoober_shuffling_process_phase_seconds",
+            "Time spent in each phase of the shuffling processing of a local participant", "phase", "encrypt");
+
     private static final Listeners<Shuffling, Event> listeners = new Listeners<>();
 
     private static final DbKey.LongKeyFactory<Shuffling> shufflingDbKeyFactory = new DbKey.LongKeyFactory<Shuffling>("id") {
@@ -435,6 +462,7 @@ public final class Shuffling {
         byte[] shufflingStateHash = null;
         int participantIndex = 0;
         List<ShufflingParticipant> shufflingParticipants = new ArrayList<>();
+        long phaseStart = System.nanoTime();
         Qoober.getBlockchain().readLock();
         // Read the participant list for the shuffling
         try (DbIterator<ShufflingParticipant> participants = ShufflingParticipant.getParticipants(id)) {
@@ -452,22 +480,35 @@ public final class Shuffling {
         } finally {
             Qoober.getBlockchain().readUnlock();
         }
+        readParticipantsTime.update(System.nanoTime() - phaseStart);
         boolean isLast = participantIndex == participantCount - 1;
-        // decrypt the tokens bundled in the current data
-        List<byte[]> outputDataList = new ArrayList<>();
+        // decrypt the tokens bundled in the current data, the tokens are independent so they are decrypted in parallel
+        phaseStart = System.nanoTime();
+        List<Future<byte[]>> decryptedTokens = new ArrayList<>(data.length);
         for (byte[] bytes : data) {
             AnonymouslyEncryptedData encryptedData = AnonymouslyEncryptedData.readEncryptedData(bytes);
-            try {
-                byte[] decrypted = encryptedData.decrypt(secretPhrase);
-                outputDataList.add(decrypted);
-            } catch (Exception e) {
-                Logger.logMessage("Decryption failed", e);
-                return isLast ? new Attachment.ShufflingRecipients(this.id, Convert.EMPTY_BYTES, shufflingStateHash)
-                        : new Attachment.ShufflingProcessing(this.id, Convert.EMPTY_BYTES, shufflingStateHash);
-            }
+            decryptedTokens.add(decryptService.submit(() -> encryptedData.decrypt(secretPhrase)));
+        }
+        List<byte[]> outputDataList = new ArrayList<>(data.length);
+        try {
+            for (Future<byte[]> decryptedToken : decryptedTokens) {
+                outputDataList.add(decryptedToken.get());
+            }
+        } catch (ExecutionException e) {
+            decryptedTokens.forEach(decryptedToken -> decryptedToken.cancel(false));
+            Logger.logMessage("Decryption failed", e);
+            return isLast ? new Attachment.ShufflingRecipients(this.id, Convert.EMPTY_BYTES, shufflingStateHash)
+                    : new Attachment.ShufflingProcessing(this.id, Convert.EMPTY_BYTES, shufflingStateHash);
+        } catch (InterruptedException e) {
+            decryptedTokens.forEach(decryptedToken -> decryptedToken.cancel(false));
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e.toString(), e);
+        } finally {
+            decryptTime.update(System.nanoTime() - phaseStart);
         }
         // Calculate the token for the current sender by iteratively encrypting it using the public key of all the participants
         // which did not perform shuffle processing yet
+        phaseStart = System.nanoTime();
         byte[] bytesToEncrypt = recipientPublicKey;
         byte[] nonce = Convert.toBytes(this.id);
         for (int i = shufflingParticipants.size() - 1; i > participantIndex; i--) {
@@ -476,6 +517,7 @@ public final class Shuffling {
             AnonymouslyEncryptedData encryptedData = AnonymouslyEncryptedData.encrypt(bytesToEncrypt, secretPhrase, participantPublicKey, nonce);
             bytesToEncrypt = encryptedData.getBytes();
         }
+        encryptTime.update(System.nanoTime() - phaseStart);
         outputDataList.add(bytesToEncrypt);
         // Shuffle the tokens and save the shuffled tokens as the participant data
         outputDataList.sort(Convert.byteArrayComparator);
@@ -16,24 +16,33 @@
 
 package qoober;
 
+import qoober.db.BlobStore;
 import qoober.db.DbClause;
 import qoober.db.DbIterator;
 import qoober.db.DbKey;
 import qoober.db.DbUtils;
+import qoober.db.TransactionalDb;
 import qoober.db.VersionedEntityDbTable;
 import qoober.db.VersionedPersistentDbTable;
 import qoober.db.VersionedPrunableDbTable;
 import qoober.db.VersionedValuesDbTable;
 import qoober.util.Logger;
+import qoober.util.PrefixCountTrie;
 import qoober.util.Search;
+import qoober.util.ThreadPool;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class TaggedData {
 
@@ -47,7 +56,7 @@ public class TaggedData {
     };
 
     private static final VersionedPrunableDbTable<TaggedData> taggedDataTable = new VersionedPrunableDbTable<TaggedData>(
-            "tagged_data", taggedDataKeyFactory, "name,description,tags") {
+            "tagged_data", taggedDataKeyFactory, "name,description,tags", new String[] {"data_hash"}) {
 
         @Override
         protected TaggedData load(Connection con, ResultSet rs, DbKey dbKey) throws SQLException {
@@ -174,32 +183,146 @@ public class TaggedData {
                 return " ORDER BY tag_count DESC, tag ASC ";
             }
 
+            @Override
+            public boolean keepsExternalState() {
+                return true;
+            }
+
+            @Override
+            public void popOffTo(int height) {
+                Set<String> tags = new HashSet<>();
+                try (Connection con = db.getConnection();
+                     PreparedStatement pstmt = con.prepareStatement("SELECT DISTINCT tag FROM data_tag WHERE height > ?")) {
+                    pstmt.setInt(1, height);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            tags.add(rs.getString("tag"));
+                        }
+                    }
+                } catch (SQLException e) {
+                    throw new RuntimeException(e.toString(), e);
+                }
+                super.popOffTo(height);
+                modified(tags);
+            }
+
+        };
+
+        /** Latest tag counts, updated when a database transaction is committed */
+        private static final PrefixCountTrie tagIndex = new PrefixCountTrie();
+
+        /** Tag count changes of the block being applied by the current thread */
+        private static final ThreadLocal<Map<String,Integer>> blockTags = new ThreadLocal<>();
+
+        /** Tag count changes saved by the database transaction of the current thread */
+        private static final ThreadLocal<Map<String,Integer>> savedTags = new ThreadLocal<>();
+
+        /** Tags modified in the database by the current thread, reloaded after the commit */
+        private static final ThreadLocal<Set<String>> modifiedTags = new ThreadLocal<>();
+
+        /** Update the tag index when the database transaction is committed */
+        private static final TransactionalDb.TransactionCallback indexCallback = new TransactionalDb.TransactionCallback() {
+            @Override
+            public void commit() {
+                Map<String,Integer> saved = savedTags.get();
+                Set<String> modified = modifiedTags.get();
+                savedTags.remove();
+                modifiedTags.remove();
+                // the block tags are kept until they are saved since a block may commit before it has been applied
+                if (saved != null) {
+                    saved.forEach(tagIndex::add);
+                }
+                if (modified != null) {
+                    reload(modified);
+                }
+            }
+
+            @Override
+            public void rollback() {
+                savedTags.remove();
+                modifiedTags.remove();
+                blockTags.remove();
+            }
         };
 
         public static int getTagCount() {
-            return tagTable.getCount();
+            return tagIndex.size();
+        }
+
+        public static List<Tag> getAllTags(int from, int to) {
+            return getTags(tagIndex.getEntries(from, to));
         }
 
-        public static DbIterator<Tag> getAllTags(int from, int to) {
-            return tagTable.getAll(from, to);
+        public static List<Tag> getTagsLike(String prefix, int from, int to) {
+            return getTags(tagIndex.getEntries(prefix, from, to));
         }
 
-        public static DbIterator<Tag> getTagsLike(String prefix, int from, int to) {
-            DbClause dbClause = new DbClause.LikeClause("tag", prefix);
-            return tagTable.getManyBy(dbClause, from, to, " ORDER BY tag ");
+        private static List<Tag> getTags(List<PrefixCountTrie.Entry> entries) {
+            List<Tag> tags = new ArrayList<>(entries.size());
+            entries.forEach(entry -> tags.add(new Tag(entry.getKey(), 0, entry.getCount())));
+            return tags;
         }
 
-        private static void init() {}
+        private static void init() {
+            loadIndex();
+            Logger.logDebugMessage("Loaded " + tagIndex.size() + " data tags");
+            Qoober.getBlockchainProcessor().addListener(block -> blockTags.remove(), BlockchainProcessor.Event.BEFORE_BLOCK_APPLY);
+            Qoober.getBlockchainProcessor().addListener(block -> saveBlockTags(), BlockchainProcessor.Event.AFTER_BLOCK_APPLY);
+            Qoober.getBlockchainProcessor().addListener(block -> loadIndex(), BlockchainProcessor.Event.RESCAN_BEGIN);
+        }
+
+        /**
+         * Load the tag index from the database, the tag table is truncated or rolled back when a rescan begins
+         */
+        private static void loadIndex() {
+            tagIndex.clear();
+            try (Connection con = Db.db.getConnection();
+                 PreparedStatement pstmt = con.prepareStatement("SELECT tag, tag_count FROM data_tag WHERE latest = TRUE")) {
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        tagIndex.set(rs.getString("tag"), rs.getInt("tag_count"));
+                    }
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e.toString(), e);
+            }
+        }
 
         private static void add(TaggedData taggedData) {
+            Map<String,Integer> tags = blockTags.get();
+            if (tags == null) {
+                tags = new HashMap<>();
+                blockTags.set(tags);
+                Db.db.registerCallback(indexCallback);
+            }
             for (String tagValue : taggedData.getParsedTags()) {
-                Tag tag = tagTable.get(tagDbKeyFactory.newKey(tagValue));
-                if (tag == null) {
-                    tag = new Tag(tagValue, Qoober.getBlockchain().getHeight());
-                }
-                tag.count += 1;
+                tags.merge(tagValue, 1, Integer::sum);
+            }
+        }
+
+        /**
+         * Save the tag counts changed by the block, each tag is saved once no matter how many
+         * tagged data uploads in the block use it
+         */
+        private static void saveBlockTags() {
+            Map<String,Integer> tags = blockTags.get();
+            if (tags == null) {
+                return;
+            }
+            blockTags.remove();
+            Map<String,Integer> saved = savedTags.get();
+            if (saved == null) {
+                saved = new HashMap<>();
+                savedTags.set(saved);
+            }
+            int height = Qoober.getBlockchain().getHeight();
+            for (Map.Entry<String,Integer> entry : tags.entrySet()) {
+                Tag tag = new Tag(entry.getKey(), height);
+                tag.count = tagIndex.getCount(entry.getKey()) + saved.getOrDefault(entry.getKey(), 0) + entry.getValue();
                 tagTable.insert(tag);
+                saved.merge(entry.getKey(), entry.getValue(), Integer::sum);
             }
+            Db.db.registerCallback(indexCallback);
         }
 
         private static void add(TaggedData taggedData, int height) {
@@ -218,9 +341,11 @@ public class TaggedData {
             } catch (SQLException e) {
                 throw new RuntimeException(e.toString(), e);
             }
+            modified(Arrays.asList(taggedData.getParsedTags()));
         }
 
         private static void delete(Map<String,Integer> expiredTags) {
+            modified(expiredTags.keySet());
             try (Connection con = Db.db.getConnection();
                  PreparedStatement pstmt = con.prepareStatement("UPDATE data_tag SET tag_count = tag_count - ? WHERE tag = ?");
                  PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM data_tag WHERE tag_count <= 0 LIMIT " + Constants.BATCH_COMMIT_SIZE)) {
@@ -243,6 +368,43 @@ public class TaggedData {
             }
         }
 
+        /**
+         * Reload the index entries of tags modified directly in the database once the
+         * database transaction is committed
+         *
+         * @param   tags                    Modified tags
+         */
+        private static void modified(Collection<String> tags) {
+            if (!Db.db.isInTransaction()) {
+                reload(tags);
+                return;
+            }
+            Set<String> modified = modifiedTags.get();
+            if (modified == null) {
+                modified = new HashSet<>();
+                modifiedTags.set(modified);
+            }
+            modified.addAll(tags);
+            Db.db.registerCallback(indexCallback);
+        }
+
+        private static void reload(Collection<String> tags) {
+            if (tags.isEmpty()) {
+                return;
+            }
+            try (Connection con = Db.db.getConnection();
+                 PreparedStatement pstmt = con.prepareStatement("SELECT tag_count FROM data_tag WHERE tag = ? AND latest = TRUE")) {
+                for (String tag : tags) {
+                    pstmt.setString(1, tag);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        tagIndex.set(tag, rs.next() ? rs.getInt("tag_count") : 0);
+                    }
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e.toString(), e);
+            }
+        }
+
         private final String tag;
         private final DbKey dbKey;
         private final int height;
@@ -254,6 +416,11 @@ public class TaggedData {
             this.height = height;
         }
 
+        private Tag(String tag, int height, int count) {
+            this(tag, height);
+            this.count = count;
+        }
+
         private Tag(ResultSet rs, DbKey dbKey) throws SQLException {
             this.tag = rs.getString("tag");
             this.dbKey = dbKey;
@@ -354,6 +521,7 @@ public class TaggedData {
 
     static void init() {
         Tag.init();
+        ThreadPool.runAfterStart(BlobStore::deleteOrphans);
     }
 
     private final long id;
@@ -363,7 +531,8 @@ public class TaggedData {
     private final String description;
     private final String tags;
     private final String[] parsedTags;
-    private final byte[] data;
+    private byte[] data;
+    private byte[] dataHash;
     private final String type;
     private final String channel;
     private final boolean isText;
@@ -402,7 +571,7 @@ public class TaggedData {
         this.description = rs.getString("description");
         this.tags = rs.getString("tags");
         this.parsedTags = DbUtils.getArray(rs, "parsed_tags", String[].class);
-        this.data = rs.getBytes("data");
+        this.dataHash = rs.getBytes("data_hash");
         this.type = rs.getString("type");
         this.channel = rs.getString("channel");
         this.isText = rs.getBoolean("is_text");
@@ -414,8 +583,8 @@ public class TaggedData {
 
     private void save(Connection con) throws SQLException {
         try (PreparedStatement pstmt = con.prepareStatement("MERGE INTO tagged_data (id, account_id, name, description, tags, parsed_tags, "
-                + "type, channel, data, is_text, filename, block_timestamp, transaction_timestamp, height, latest) "
-                + "KEY (id, height) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, TRUE)")) {
+                + "type, channel, data, data_hash, is_text, filename, block_timestamp, transaction_timestamp, height, latest) "
+                + "KEY (id, height) VALUES (?, ?, ?, ?, ?, ?, ?, ?, NULL, ?, ?, ?, ?, ?, ?, TRUE)")) {
             int i = 0;
             pstmt.setLong(++i, this.id);
             pstmt.setLong(++i, this.accountId);
@@ -425,7 +594,10 @@ public class TaggedData {
             DbUtils.setArray(pstmt, ++i, this.parsedTags);
             pstmt.setString(++i, this.type);
             pstmt.setString(++i, this.channel);
-            pstmt.setBytes(++i, this.data);
+            if (this.dataHash == null) {
+                this.dataHash = BlobStore.put(this.data);
+            }
+            pstmt.setBytes(++i, this.dataHash);
             pstmt.setBoolean(++i, this.isText);
             pstmt.setString(++i, this.filename);
             pstmt.setInt(++i, this.blockTimestamp);
@@ -460,9 +632,21 @@ public class TaggedData {
     }
 
     public byte[] getData() {
+        if (data == null) {
+            data = BlobStore.get(dataHash);
+        }
         return data;
     }
 
+    /**
+     * Get the blob store hash of the data
+     *
+     * @return                      Data hash or null if the data has not been saved
+     */
+    public byte[] getDataHash() {
+        return dataHash;
+    }
+
     public String getType() {
         return type;
     }
@@ -17,6 +17,7 @@
 package qoober;
 
 import qoober.db.DbClause;
+import qoober.db.DbCursor;
 import qoober.db.DbIterator;
 import qoober.db.DbKey;
 import qoober.db.DbUtils;
@@ -66,6 +67,10 @@ public final class Trade {
         return tradeTable.getAll(from, to);
     }
 
+    public static DbIterator<Trade> getAllTrades(DbCursor cursor, int from, int to) {
+        return tradeTable.getAll(cursor, from, to);
+    }
+
     public static int getCount() {
         return tradeTable.getCount();
     }
@@ -259,7 +259,13 @@ final class TransactionDb {
     }
 
     static List<TransactionImpl> findBlockTransactions(Connection con, long blockId) {
-        BlockchainImpl.getInstance().readLock();
+        return findBlockTransactions(con, blockId, true);
+    }
+
+    static List<TransactionImpl> findBlockTransactions(Connection con, long blockId, boolean lock) {
+        if (lock) {
+            BlockchainImpl.getInstance().readLock();
+        }
         try (PreparedStatement pstmt = con.prepareStatement("SELECT * FROM transaction WHERE block_id = ? ORDER BY transaction_index")) {
             pstmt.setLong(1, blockId);
             pstmt.setFetchSize(50);
@@ -276,7 +282,9 @@ final class TransactionDb {
             throw new RuntimeException("Transaction already in database for block_id = " + Long.toUnsignedString(blockId)
                     + " does not pass validation!", e);
         } finally {
-            BlockchainImpl.getInstance().readUnlock();
+            if (lock) {
+                BlockchainImpl.getInstance().readUnlock();
+            }
         }
     }
 
@@ -69,6 +69,7 @@ final class TransactionImpl implements Transaction {
         private long ecBlockId;
         private short index = -1;
         private boolean isGenesisBlock;
+        private byte[] bytes;
 
         BuilderImpl(byte version, byte[] senderPublicKey, long amountNQT, long feeNQT, short deadline,
                     Attachment.AbstractAttachment attachment) {
@@ -226,6 +227,15 @@ final class TransactionImpl implements Transaction {
             isGenesisBlock = genesisBlock;
             return this;
         }
+
+        /**
+         * Set the serialized transaction, the bytes are used instead of serializing the transaction again
+         * and must only be set for bytes previously returned by {@link TransactionImpl#bytes()}
+         */
+        BuilderImpl bytes(byte[] bytes) {
+            this.bytes = bytes;
+            return this;
+        }
     }
 
     private final short deadline;
@@ -333,6 +343,9 @@ final class TransactionImpl implements Transaction {
             throw new NotValidException("Transaction is already signed");
         } else if (builder.signature != null) {
             this.signature = builder.signature;
+            if (builder.bytes != null && feeNQT == builder.feeNQT && builder.bytes.length == getSize()) {
+                this.bytes = builder.bytes;
+            }
         } else if (secretPhrase != null) {
             if (getSenderPublicKey() != null && ! Arrays.equals(senderPublicKey, Crypto.getPublicKey(secretPhrase))) {
                 throw new NotValidException("Secret phrase doesn't match transaction sender public key");
@@ -504,8 +517,8 @@ final class TransactionImpl implements Transaction {
                 throw new IllegalStateException("Transaction is not signed yet");
             }
             byte[] data = zeroSignature(getBytes());
-            byte[] signatureHash = Crypto.sha256().digest(signature);
-            MessageDigest digest = Crypto.sha256();
+            byte[] signatureHash = Crypto.localSha256().digest(signature);
+            MessageDigest digest = Crypto.localSha256();
             digest.update(data);
             fullHash = digest.digest(signatureHash);
             BigInteger bigInteger = new BigInteger(1, new byte[] {fullHash[7], fullHash[6], fullHash[5], fullHash[4], fullHash[3], fullHash[2], fullHash[1], fullHash[0]});
@@ -625,9 +638,13 @@ final class TransactionImpl implements Transaction {
                 if (referencedTransactionFullHash != null) {
                     buffer.put(referencedTransactionFullHash);
                 } else {
-                    buffer.put(new byte[32]);
+                    buffer.position(buffer.position() + 32);
+                }
+                if (signature != null) {
+                    buffer.put(signature);
+                } else {
+                    buffer.position(buffer.position() + 64);
                 }
-                buffer.put(signature != null ? signature : new byte[64]);
                 buffer.putInt(getFlags());
                 buffer.putInt(ecBlockHeight);
                 buffer.putLong(ecBlockId);
@@ -889,7 +906,7 @@ final class TransactionImpl implements Transaction {
 
     private volatile boolean hasValidSignature = false;
 
-    private boolean checkSignature() {
+    boolean checkSignature() {
         if (!hasValidSignature) {
             hasValidSignature = signature != null && Crypto.verify(signature, zeroSignature(getBytes()), getSenderPublicKey());
         }
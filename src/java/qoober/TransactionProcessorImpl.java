@@ -76,6 +76,11 @@ final class TransactionProcessorImpl implements TransactionProcessor {
             }
         }
 
+        @Override
+        public boolean keepsExternalState() {
+            return true;
+        }
+
         @Override
         public void popOffTo(int height) {
             try (Connection con = Db.db.getConnection();
@@ -287,6 +292,10 @@ final class TransactionProcessorImpl implements TransactionProcessor {
 
 
     private TransactionProcessorImpl() {
+        Metrics.gauge("qoober_unconfirmed_transactions", "Number of transactions in the unconfirmed pool",
+                unconfirmedTransactionTable::getCount);
+        Metrics.gauge("qoober_waiting_transactions", "Number of transactions waiting to enter the unconfirmed pool",
+                waitingTransactions::size);
         if (!Constants.isLightClient) {
             if (!Constants.isOffline) {
                 ThreadPool.scheduleThread("ProcessTransactions", processTransactionsThread, 5);
@@ -48,7 +48,8 @@ class UnconfirmedTransaction implements Transaction {
             if (prunableJSON != null) {
                 prunableAttachments = (JSONObject) JSONValue.parse(prunableJSON);
             }
-            TransactionImpl.BuilderImpl builder = TransactionImpl.newTransactionBuilder(transactionBytes, prunableAttachments);
+            TransactionImpl.BuilderImpl builder = TransactionImpl.newTransactionBuilder(transactionBytes, prunableAttachments)
+                    .bytes(transactionBytes);
             this.transaction = builder.build();
             this.transaction.setHeight(rs.getInt("transaction_height"));
             this.arrivalTimestamp = rs.getLong("arrival_timestamp");
@@ -71,6 +71,23 @@ public final class Vote {
                 }
             }
         }
+
+        @Override
+        public boolean keepsExternalState() {
+            return true;
+        }
+
+        @Override
+        public void popOffTo(int height) {
+            super.popOffTo(height);
+            Poll.discardResults();
+        }
+
+        @Override
+        public void truncate() {
+            super.truncate();
+            Poll.discardResults();
+        }
     };
 
     public static int getCount() {
@@ -93,6 +110,7 @@ public final class Vote {
     static Vote addVote(Transaction transaction, Attachment.MessagingVoteCasting attachment) {
         Vote vote = new Vote(transaction, attachment);
         voteTable.insert(vote);
+        Poll.addToResults(vote);
         return vote;
     }
 
@@ -0,0 +1,145 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober;
+
+import qoober.db.TransactionalDb;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+/**
+ * Running vote tallies of polls
+ *
+ * The tally of a poll is counted from the vote table when it is first used and is then updated
+ * as votes are added, so it can be read without a database query. Tallies used by a database
+ * transaction are discarded if the transaction is rolled back, and all tallies are discarded when
+ * the vote table is popped off or truncated. Votes are only deleted by trimming once their polls
+ * have finished and their results are no longer counted.
+ *
+ * Readers that are not processing a block hold the blockchain read lock, so they do not see the
+ * votes of a block that has not been committed yet.
+ *
+ * @param   <V>                     Tally type
+ */
+final class VoteTallies<V> implements TransactionalDb.TransactionCallback {
+
+    /** Maximum number of tallies kept */
+    private static final int MAX_TALLIES = 10000;
+
+    /** Count the tally of a poll from the vote table */
+    private final LongFunction<V> loader;
+
+    /** Loaded tallies in access order */
+    private final Map<Long, V> tallies = new LinkedHashMap<Long, V>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, V> eldest) {
+            return size() > MAX_TALLIES;
+        }
+    };
+
+    /** Polls used by the database transaction of the current thread */
+    private final ThreadLocal<Set<Long>> usedPolls = new ThreadLocal<>();
+
+    /**
+     * Create the vote tallies
+     *
+     * @param   loader                  Count the tally of a poll from the vote table
+     */
+    VoteTallies(LongFunction<V> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Compute a result from the tally of a poll
+     *
+     * @param   pollId                  Poll identifier
+     * @param   function                Function applied to the tally, the tally must not be modified
+     * @param   <R>                     Result type
+     * @return                          Function result
+     */
+    <R> R apply(long pollId, Function<V, R> function) {
+        Qoober.getBlockchain().readLock();
+        try {
+            synchronized (this) {
+                use(pollId);
+                V tally = tallies.get(pollId);
+                if (tally == null) {
+                    tally = loader.apply(pollId);
+                    tallies.put(pollId, tally);
+                }
+                return function.apply(tally);
+            }
+        } finally {
+            Qoober.getBlockchain().readUnlock();
+        }
+    }
+
+    /**
+     * Add a vote to the tally of a poll if the tally is loaded, the vote must be added after it
+     * has been inserted into the vote table
+     *
+     * @param   pollId                  Poll identifier
+     * @param   updater                 Add the vote to the tally
+     */
+    synchronized void update(long pollId, Consumer<V> updater) {
+        V tally = tallies.get(pollId);
+        if (tally != null) {
+            use(pollId);
+            updater.accept(tally);
+        }
+    }
+
+    /**
+     * Discard all tallies
+     */
+    synchronized void clear() {
+        tallies.clear();
+    }
+
+    private void use(long pollId) {
+        if (Db.db.isInTransaction()) {
+            Set<Long> pollIds = usedPolls.get();
+            if (pollIds == null) {
+                pollIds = new HashSet<>();
+                usedPolls.set(pollIds);
+                Db.db.registerCallback(this);
+            }
+            pollIds.add(pollId);
+        }
+    }
+
+    @Override
+    public void commit() {
+        usedPolls.remove();
+    }
+
+    @Override
+    public void rollback() {
+        Set<Long> pollIds = usedPolls.get();
+        usedPolls.remove();
+        if (pollIds != null) {
+            synchronized (this) {
+                pollIds.forEach(tallies::remove);
+            }
+        }
+    }
+}
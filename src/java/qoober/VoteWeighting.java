@@ -16,6 +16,9 @@
 
 package qoober;
 
+import java.util.List;
+import java.util.Map;
+
 public final class VoteWeighting {
 
     public enum VotingModel {
@@ -57,7 +60,7 @@ public final class VoteWeighting {
         ASSET(2) {
             @Override
             public final long calcWeight(VoteWeighting voteWeighting, long voterId, int height) {
-                long qntBalance = Account.getAssetBalanceQNT(voterId, voteWeighting.holdingId, height);
+                long qntBalance = Account.getAssetHolderBalanceQNT(voterId, voteWeighting.holdingId, height);
                 return qntBalance >= voteWeighting.minBalance ? qntBalance : 0;
             }
             @Override
@@ -68,7 +71,7 @@ public final class VoteWeighting {
         CURRENCY(3) {
             @Override
             public final long calcWeight(VoteWeighting voteWeighting, long voterId, int height) {
-                long units = Account.getCurrencyUnits(voterId, voteWeighting.holdingId, height);
+                long units = Account.getCurrencyHolderUnits(voterId, voteWeighting.holdingId, height);
                 return units >= voteWeighting.minBalance ? units : 0;
             }
             @Override
@@ -145,13 +148,13 @@ public final class VoteWeighting {
         ASSET(2) {
             @Override
             public final long getBalance(VoteWeighting voteWeighting, long voterId, int height) {
-                return Account.getAssetBalanceQNT(voterId, voteWeighting.holdingId, height);
+                return Account.getAssetHolderBalanceQNT(voterId, voteWeighting.holdingId, height);
             }
         },
         CURRENCY(3) {
             @Override
             public final long getBalance(VoteWeighting voteWeighting, long voterId, int height) {
-                return Account.getCurrencyUnits(voterId, voteWeighting.holdingId, height);
+                return Account.getCurrencyHolderUnits(voterId, voteWeighting.holdingId, height);
             }
         };
 
@@ -261,6 +264,30 @@ public final class VoteWeighting {
         return votingModel.acceptsVotes();
     }
 
+    /**
+     * Calculate the weights of several voters, the NQT balances of the voters are read together
+     * instead of one voter at a time
+     *
+     * @param   voterIds                Voter identifiers
+     * @param   height                  Height
+     * @return                          Weights in voter order
+     */
+    long[] calcWeights(List<Long> voterIds, int height) {
+        long[] weights = new long[voterIds.size()];
+        if (votingModel != VotingModel.NQT && (isBalanceIndependent() || minBalanceModel != MinBalanceModel.NQT)) {
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = votingModel.calcWeight(this, voterIds.get(i), height);
+            }
+            return weights;
+        }
+        Map<Long, Long> balances = Account.getBalancesNQT(voterIds, height);
+        for (int i = 0; i < weights.length; i++) {
+            long nqtBalance = balances.getOrDefault(voterIds.get(i), 0L);
+            weights[i] = nqtBalance >= minBalance ? (votingModel == VotingModel.ACCOUNT ? 1 : nqtBalance) : 0;
+        }
+        return weights;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (! (o instanceof VoteWeighting)) {
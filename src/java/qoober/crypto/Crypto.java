@@ -30,11 +30,14 @@ import org.bouncycastle.crypto.params.ParametersWithIV;
 import org.bouncycastle.jcajce.provider.digest.Keccak;
 import org.bouncycastle.jcajce.provider.digest.RIPEMD160;
 
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 
 public final class Crypto {
 
@@ -51,6 +54,28 @@ public final class Crypto {
         }
     });
 
+    /** Maximum number of public keys prepared for signature verification */
+    private static final int maxVerifyingKeys = Qoober.getIntProperty("qoober.maxVerifyingKeys", 1000);
+
+    /** Prepared public keys in access order */
+    private static final Map<ByteBuffer, Curve25519.VerifyingKey> verifyingKeys = new LinkedHashMap<ByteBuffer, Curve25519.VerifyingKey>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Curve25519.VerifyingKey> eldest) {
+            return size() > maxVerifyingKeys;
+        }
+    };
+
+    /** Digests reused by the current thread */
+    private static final ThreadLocal<MessageDigest> threadLocalSha256 = ThreadLocal.withInitial(Crypto::sha256);
+    private static final ThreadLocal<MessageDigest> threadLocalRipemd160 = ThreadLocal.withInitial(Crypto::ripemd160);
+    private static final ThreadLocal<MessageDigest> threadLocalSha3 = ThreadLocal.withInitial(Crypto::sha3);
+
+    /** AES ciphers reused by the current thread, the ciphers are initialized before each use */
+    private static final ThreadLocal<PaddedBufferedBlockCipher> threadLocalAesCbc = ThreadLocal.withInitial(() ->
+            new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESEngine())));
+    private static final ThreadLocal<GCMBlockCipher> threadLocalAesGcm = ThreadLocal.withInitial(() ->
+            new GCMBlockCipher(new AESEngine()));
+
     private Crypto() {} //never
 
     public static SecureRandom getSecureRandom() {
@@ -78,8 +103,46 @@ public final class Crypto {
         return new Keccak.Digest256();
     }
 
+    /**
+     * Get the SHA-256 digest of the current thread
+     *
+     * The digest is reset before it is returned. It must only be used for a single hash computation
+     * and must not be held across calls that may use the digest of the current thread again, which
+     * includes the key and signature functions of this class. Use {@link #sha256()} for a digest
+     * that is updated across such calls.
+     *
+     * @return                          Reset SHA-256 digest
+     */
+    public static MessageDigest localSha256() {
+        MessageDigest digest = threadLocalSha256.get();
+        digest.reset();
+        return digest;
+    }
+
+    /**
+     * Get the RIPEMD-160 digest of the current thread, see {@link #localSha256()} for the usage rules
+     *
+     * @return                          Reset RIPEMD-160 digest
+     */
+    public static MessageDigest localRipemd160() {
+        MessageDigest digest = threadLocalRipemd160.get();
+        digest.reset();
+        return digest;
+    }
+
+    /**
+     * Get the SHA-3 digest of the current thread, see {@link #localSha256()} for the usage rules
+     *
+     * @return                          Reset SHA-3 digest
+     */
+    public static MessageDigest localSha3() {
+        MessageDigest digest = threadLocalSha3.get();
+        digest.reset();
+        return digest;
+    }
+
     public static byte[] getKeySeed(String secretPhrase, byte[]... nonces) {
-        MessageDigest digest = Crypto.sha256();
+        MessageDigest digest = localSha256();
         digest.update(Convert.toBytes(secretPhrase));
         for (byte[] nonce : nonces) {
             digest.update(nonce);
@@ -95,7 +158,7 @@ public final class Crypto {
 
     public static byte[] getPublicKey(String secretPhrase) {
         byte[] publicKey = new byte[32];
-        Curve25519.keygen(publicKey, null, Crypto.sha256().digest(Convert.toBytes(secretPhrase)));
+        Curve25519.keygen(publicKey, null, localSha256().digest(Convert.toBytes(secretPhrase)));
         return publicKey;
     }
 
@@ -106,7 +169,7 @@ public final class Crypto {
     }
 
     public static byte[] getPrivateKey(String secretPhrase) {
-        byte[] s = Crypto.sha256().digest(Convert.toBytes(secretPhrase));
+        byte[] s = localSha256().digest(Convert.toBytes(secretPhrase));
         Curve25519.clamp(s);
         return s;
     }
@@ -115,12 +178,101 @@ public final class Crypto {
         Curve25519.curve(Z, k, P);
     }
 
+    /**
+     * Key material derived from a secret phrase for signing several messages
+     *
+     * The signing key is kept until it is destroyed, so the key derivation is done once instead of
+     * for each signature. A signing key can be used by several threads.
+     */
+    public static final class SigningKey {
+
+        /** Public key */
+        private final byte[] publicKey;
+
+        /** Curve25519 signing key, zeroed when the key is destroyed */
+        private final byte[] signingKey;
+
+        /** Key has been destroyed */
+        private volatile boolean destroyed;
+
+        private SigningKey(byte[] publicKey, byte[] signingKey) {
+            this.publicKey = publicKey;
+            this.signingKey = signingKey;
+        }
+
+        /**
+         * Get the public key
+         *
+         * @return                      Public key
+         */
+        public byte[] getPublicKey() {
+            return publicKey;
+        }
+
+        /**
+         * Sign a message
+         *
+         * @param   message             Message
+         * @return                      Signature, the same as returned by {@link Crypto#sign(byte[], String)}
+         * @throws  IllegalStateException   The key has been destroyed
+         */
+        public byte[] sign(byte[] message) {
+            byte[] s;
+            synchronized (signingKey) {
+                if (destroyed) {
+                    throw new IllegalStateException("Signing key has been destroyed");
+                }
+                s = signingKey.clone();
+            }
+            try {
+                return Crypto.sign(message, s);
+            } finally {
+                Arrays.fill(s, (byte)0);
+            }
+        }
+
+        /**
+         * Zero the signing key, the key cannot be used to sign messages afterwards
+         */
+        public void destroy() {
+            synchronized (signingKey) {
+                destroyed = true;
+                Arrays.fill(signingKey, (byte)0);
+            }
+        }
+
+        /**
+         * Check if the key has been destroyed
+         *
+         * @return                      TRUE if the key has been destroyed
+         */
+        public boolean isDestroyed() {
+            return destroyed;
+        }
+    }
+
+    /**
+     * Derive the signing key of a secret phrase
+     *
+     * @param   secretPhrase            Secret phrase
+     * @return                          Signing key
+     */
+    public static SigningKey getSigningKey(String secretPhrase) {
+        byte[] P = new byte[32];
+        byte[] s = new byte[32];
+        Curve25519.keygen(P, s, localSha256().digest(Convert.toBytes(secretPhrase)));
+        return new SigningKey(P, s);
+    }
+
     public static byte[] sign(byte[] message, String secretPhrase) {
         byte[] P = new byte[32];
         byte[] s = new byte[32];
-        MessageDigest digest = Crypto.sha256();
-        Curve25519.keygen(P, s, digest.digest(Convert.toBytes(secretPhrase)));
+        Curve25519.keygen(P, s, localSha256().digest(Convert.toBytes(secretPhrase)));
+        return sign(message, s);
+    }
 
+    private static byte[] sign(byte[] message, byte[] s) {
+        MessageDigest digest = localSha256();
         byte[] m = digest.digest(message);
 
         digest.update(m);
@@ -142,6 +294,19 @@ public final class Crypto {
     }
 
     public static boolean verify(byte[] signature, byte[] message, byte[] publicKey) {
+        return verify(signature, message, publicKey, true);
+    }
+
+    /**
+     * Verify a signature
+     *
+     * @param   signature           Signature
+     * @param   message             Signed message
+     * @param   publicKey           Public key
+     * @param   cacheKey            FALSE to prepare the public key without the verifying key cache
+     * @return                      TRUE if the signature is valid
+     */
+    public static boolean verify(byte[] signature, byte[] message, byte[] publicKey, boolean cacheKey) {
         try {
             if (signature.length != 64) {
                 return false;
@@ -161,9 +326,9 @@ public final class Crypto {
             System.arraycopy(signature, 0, v, 0, 32);
             byte[] h = new byte[32];
             System.arraycopy(signature, 32, h, 0, 32);
-            Curve25519.verify(Y, v, h, publicKey);
+            Curve25519.verify(Y, v, h, cacheKey ? getVerifyingKey(publicKey) : Curve25519.getVerifyingKey(publicKey));
 
-            MessageDigest digest = Crypto.sha256();
+            MessageDigest digest = localSha256();
             byte[] m = digest.digest(message);
             digest.update(m);
             byte[] h2 = digest.digest(Y);
@@ -175,8 +340,45 @@ public final class Crypto {
         }
     }
 
+    /**
+     * Check the signature verification with a verifying key against the reference implementation
+     * which does not prepare the public key.  The verifying key cache is used, so a repeated check
+     * of a public key uses the cached verifying key.
+     *
+     * @param   v                   Signature value
+     * @param   h                   Signature hash
+     * @param   publicKey           Public key
+     * @return                      TRUE if both calculate the same signature public key
+     */
+    public static boolean checkVerifyingKey(byte[] v, byte[] h, byte[] publicKey) {
+        byte[] Y = new byte[32];
+        Curve25519.verify(Y, v, h, getVerifyingKey(publicKey));
+        byte[] referenceY = new byte[32];
+        Curve25519.verifyReference(referenceY, v, h, publicKey);
+        return Arrays.equals(Y, referenceY);
+    }
+
+    private static Curve25519.VerifyingKey getVerifyingKey(byte[] publicKey) {
+        if (maxVerifyingKeys <= 0) {
+            return Curve25519.getVerifyingKey(publicKey);
+        }
+        ByteBuffer keyBuffer = ByteBuffer.wrap(publicKey);
+        Curve25519.VerifyingKey verifyingKey;
+        synchronized (verifyingKeys) {
+            verifyingKey = verifyingKeys.get(keyBuffer);
+        }
+        if (verifyingKey == null) {
+            verifyingKey = Curve25519.getVerifyingKey(publicKey);
+            synchronized (verifyingKeys) {
+                verifyingKeys.put(ByteBuffer.wrap(publicKey.clone()), verifyingKey);
+            }
+        }
+        return verifyingKey;
+    }
+
     public static byte[] getSharedKey(byte[] myPrivateKey, byte[] theirPublicKey) {
-        return sha256().digest(getSharedSecret(myPrivateKey, theirPublicKey));
+        byte[] sharedSecret = getSharedSecret(myPrivateKey, theirPublicKey);
+        return localSha256().digest(sharedSecret);
     }
 
     public static byte[] getSharedKey(byte[] myPrivateKey, byte[] theirPublicKey, byte[] nonce) {
@@ -184,10 +386,25 @@ public final class Crypto {
         for (int i = 0; i < 32; i++) {
             dhSharedSecret[i] ^= nonce[i];
         }
-        return sha256().digest(dhSharedSecret);
+        return localSha256().digest(dhSharedSecret);
+    }
+
+    /**
+     * Derive the shared key of a message from a shared secret returned by {@link #getSharedSecret(byte[], byte[])}
+     *
+     * @param   sharedSecret            Shared secret, not modified
+     * @param   nonce                   Message nonce
+     * @return                          Shared key, the same as returned by {@link #getSharedKey(byte[], byte[], byte[])}
+     */
+    static byte[] deriveSharedKey(byte[] sharedSecret, byte[] nonce) {
+        byte[] dhSharedSecret = sharedSecret.clone();
+        for (int i = 0; i < 32; i++) {
+            dhSharedSecret[i] ^= nonce[i];
+        }
+        return localSha256().digest(dhSharedSecret);
     }
 
-    private static byte[] getSharedSecret(byte[] myPrivateKey, byte[] theirPublicKey) {
+    static byte[] getSharedSecret(byte[] myPrivateKey, byte[] theirPublicKey) {
         try {
             byte[] sharedSecret = new byte[32];
             Curve25519.curve(sharedSecret, myPrivateKey, theirPublicKey);
@@ -202,8 +419,7 @@ public final class Crypto {
         try {
             byte[] iv = new byte[16];
             secureRandom.get().nextBytes(iv);
-            PaddedBufferedBlockCipher aes = new PaddedBufferedBlockCipher(new CBCBlockCipher(
-                    new AESEngine()));
+            PaddedBufferedBlockCipher aes = threadLocalAesCbc.get();
             CipherParameters ivAndKey = new ParametersWithIV(new KeyParameter(key), iv);
             aes.init(true, ivAndKey);
             byte[] output = new byte[aes.getOutputSize(plaintext.length)];
@@ -222,7 +438,7 @@ public final class Crypto {
         try {
             byte[] iv = new byte[16];
             secureRandom.get().nextBytes(iv);
-            GCMBlockCipher aes = new GCMBlockCipher(new AESEngine());
+            GCMBlockCipher aes = threadLocalAesGcm.get();
             CipherParameters ivAndKey = new ParametersWithIV(new KeyParameter(key), iv);
             aes.init(true, ivAndKey);
             byte[] output = new byte[aes.getOutputSize(plaintext.length)];
@@ -244,8 +460,7 @@ public final class Crypto {
             }
             byte[] iv = Arrays.copyOfRange(ivCiphertext, 0, 16);
             byte[] ciphertext = Arrays.copyOfRange(ivCiphertext, 16, ivCiphertext.length);
-            PaddedBufferedBlockCipher aes = new PaddedBufferedBlockCipher(new CBCBlockCipher(
-                    new AESEngine()));
+            PaddedBufferedBlockCipher aes = threadLocalAesCbc.get();
             CipherParameters ivAndKey = new ParametersWithIV(new KeyParameter(key), iv);
             aes.init(false, ivAndKey);
             byte[] output = new byte[aes.getOutputSize(ciphertext.length)];
@@ -266,7 +481,7 @@ public final class Crypto {
             }
             byte[] iv = Arrays.copyOfRange(ivCiphertext, 0, 16);
             byte[] ciphertext = Arrays.copyOfRange(ivCiphertext, 16, ivCiphertext.length);
-            GCMBlockCipher aes = new GCMBlockCipher(new AESEngine());
+            GCMBlockCipher aes = threadLocalAesGcm.get();
             CipherParameters ivAndKey = new ParametersWithIV(new KeyParameter(key), iv);
             aes.init(false, ivAndKey);
             byte[] output = new byte[aes.getOutputSize(ciphertext.length)];
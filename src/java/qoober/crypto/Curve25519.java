@@ -154,6 +154,20 @@ final class Curve25519 {
         return w != 0;
     }
 
+    /* Public key prepared for signature verification, holds G and P and
+     * the x coordinates of P+G and P-G.  The values are never modified, so
+     * a verifying key can be shared by several threads.
+     */
+    public static final class VerifyingKey {
+        private final long10[] p;
+        private final long10[] s;
+
+        private VerifyingKey(long10[] p, long10[] s) {
+            this.p = p;
+            this.s = s;
+        }
+    }
+
     /* Signature verification primitive, calculates Y = vP + hG
      *   Y  [out] signature public key
      *   v  [in]  signature value
@@ -161,6 +175,149 @@ final class Curve25519 {
      *   P  [in]  public key
      */
     public static void verify(byte[] Y, byte[] v, byte[] h, byte[] P) {
+        verify(Y, v, h, getVerifyingKey(P));
+    }
+
+    /* Prepare a public key for signature verification
+     *   P  [in]  public key
+     */
+    public static VerifyingKey getVerifyingKey(byte[] P) {
+        long10[]
+                p=new long10[]{new long10(),new long10()},
+                s=new long10[]{new long10(),new long10()},
+                t1=new long10[]{new long10(),new long10()},
+                t2=new long10[]{new long10(),new long10()};
+
+        int j;
+
+        /* set p[0] to G and p[1] to P  */
+
+        set(p[0], 9);
+        unpack(p[1], P);
+
+        /* set s[0] to P+G and s[1] to P-G  */
+
+        /* s[0] = (Py^2 + Gy^2 - 2 Py Gy)/(Px - Gx)^2 - Px - Gx - 486662  */
+        /* s[1] = (Py^2 + Gy^2 + 2 Py Gy)/(Px - Gx)^2 - Px - Gx - 486662  */
+
+        x_to_y2(t1[0], t2[0], p[1]);	/* t2[0] = Py^2  */
+        sqrt(t1[0], t2[0]);	/* t1[0] = Py or -Py  */
+        j = is_negative(t1[0]);		/*      ... check which  */
+        t2[0]._0 += 39420360;		/* t2[0] = Py^2 + Gy^2  */
+        mul(t2[1], BASE_2Y, t1[0]);/* t2[1] = 2 Py Gy or -2 Py Gy  */
+        sub(t1[j], t2[0], t2[1]);	/* t1[0] = Py^2 + Gy^2 - 2 Py Gy  */
+        add(t1[1-j], t2[0], t2[1]);/* t1[1] = Py^2 + Gy^2 + 2 Py Gy  */
+        cpy(t2[0], p[1]);		/* t2[0] = Px  */
+        t2[0]._0 -= 9;			/* t2[0] = Px - Gx  */
+        sqr(t2[1], t2[0]);		/* t2[1] = (Px - Gx)^2  */
+        recip(t2[0], t2[1], 0);	/* t2[0] = 1/(Px - Gx)^2  */
+        mul(s[0], t1[0], t2[0]);	/* s[0] = t1[0]/(Px - Gx)^2  */
+        sub(s[0], s[0], p[1]);	/* s[0] = t1[0]/(Px - Gx)^2 - Px  */
+        s[0]._0 -= 9 + 486662;		/* s[0] = X(P+G)  */
+        mul(s[1], t1[1], t2[0]);	/* s[1] = t1[1]/(Px - Gx)^2  */
+        sub(s[1], s[1], p[1]);	/* s[1] = t1[1]/(Px - Gx)^2 - Px  */
+        s[1]._0 -= 9 + 486662;		/* s[1] = X(P-G)  */
+        mul_small(s[0], s[0], 1);	/* reduce s[0] */
+        mul_small(s[1], s[1], 1);	/* reduce s[1] */
+
+        return new VerifyingKey(p, s);
+    }
+
+    /* Signature verification primitive with a prepared public key
+     *   Y    [out] signature public key
+     *   v    [in]  signature value
+     *   h    [in]  signature hash
+     *   key  [in]  verifying key
+     */
+    public static void verify(byte[] Y, byte[] v, byte[] h, VerifyingKey key) {
+        /* Y = v abs(P) + h G  */
+        byte[] d=new byte[32];
+        long10[]
+                p=key.p,
+                s=key.s,
+                yx=new long10[]{new long10(),new long10(),new long10()},
+                yz=new long10[]{new long10(),new long10(),new long10()},
+                t1=new long10[]{new long10(),new long10(),new long10()},
+                t2=new long10[]{new long10(),new long10(),new long10()};
+
+        int vi = 0, hi = 0, di = 0, nvh=0, i, j, k;
+
+        /* prepare the chain  */
+        for (i = 0; i < 32; i++) {
+            vi = (vi >> 8) ^ (v[i] & 0xFF) ^ ((v[i] & 0xFF) << 1);
+            hi = (hi >> 8) ^ (h[i] & 0xFF) ^ ((h[i] & 0xFF) << 1);
+            nvh = ~(vi ^ hi);
+            di = (nvh & (di & 0x80) >> 7) ^ vi;
+            di ^= nvh & (di & 0x01) << 1;
+            di ^= nvh & (di & 0x02) << 1;
+            di ^= nvh & (di & 0x04) << 1;
+            di ^= nvh & (di & 0x08) << 1;
+            di ^= nvh & (di & 0x10) << 1;
+            di ^= nvh & (di & 0x20) << 1;
+            di ^= nvh & (di & 0x40) << 1;
+            d[i] = (byte)di;
+        }
+
+        di = ((nvh & (di & 0x80) << 1) ^ vi) >> 8;
+
+        /* initialize state */
+        set(yx[0], 1);
+        cpy(yx[1], p[di]);
+        cpy(yx[2], s[0]);
+        set(yz[0], 0);
+        set(yz[1], 1);
+        set(yz[2], 1);
+
+        /* y[0] is (even)P + (even)G
+         * y[1] is (even)P + (odd)G  if current d-bit is 0
+         * y[1] is (odd)P + (even)G  if current d-bit is 1
+         * y[2] is (odd)P + (odd)G
+         */
+
+        vi = 0;
+        hi = 0;
+
+        /* and go for it! */
+        for (i = 32; i--!=0; ) {
+            vi = (vi << 8) | (v[i] & 0xFF);
+            hi = (hi << 8) | (h[i] & 0xFF);
+            di = (di << 8) | (d[i] & 0xFF);
+
+            for (j = 8; j--!=0; ) {
+                mont_prep(t1[0], t2[0], yx[0], yz[0]);
+                mont_prep(t1[1], t2[1], yx[1], yz[1]);
+                mont_prep(t1[2], t2[2], yx[2], yz[2]);
+
+                k = ((vi ^ vi >> 1) >> j & 1)
+                        + ((hi ^ hi >> 1) >> j & 1);
+                mont_dbl(yx[2], yz[2], t1[k], t2[k], yx[0], yz[0]);
+
+                k = (di >> j & 2) ^ ((di >> j & 1) << 1);
+                mont_add(t1[1], t2[1], t1[k], t2[k], yx[1], yz[1],
+                        p[di >> j & 1]);
+
+                mont_add(t1[2], t2[2], t1[0], t2[0], yx[2], yz[2],
+                        s[((vi ^ hi) >> j & 2) >> 1]);
+            }
+        }
+
+        k = (vi & 1) + (hi & 1);
+        recip(t1[0], yz[k], 0);
+        mul(t1[1], yx[k], t1[0]);
+
+        pack(t1[1], Y);
+    }
+
+
+    /* Reference signature verification primitive, calculates Y = vP + hG
+     * in a single pass without a prepared public key.  This is the original
+     * implementation and is only used to check the prepared key path.
+     *   Y  [out] signature public key
+     *   v  [in]  signature value
+     *   h  [in]  signature hash
+     *   P  [in]  public key
+     */
+    static void verifyReference(byte[] Y, byte[] v, byte[] h, byte[] P) {
         /* Y = v abs(P) + h G  */
         byte[] d=new byte[32];
         long10[]
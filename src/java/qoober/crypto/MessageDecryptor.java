@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober.crypto;
+
+import qoober.util.Convert;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decrypt several messages with the same secret phrase
+ *
+ * The Curve25519 shared secret with a counterparty is computed for the first message and reused for
+ * the following messages of the same counterparty, so only the key hashing and the AES decryption
+ * are done for each message. The shared secrets are only kept by the decryptor, which is meant to be
+ * used for a single batch of messages, and at most MAX_SHARED_SECRETS secrets are kept.
+ *
+ * A decryptor can be used by several threads.
+ */
+public final class MessageDecryptor {
+
+    /** Maximum number of shared secrets kept */
+    private static final int MAX_SHARED_SECRETS = 1000;
+
+    /** Private key */
+    private final byte[] privateKey;
+
+    /** Shared secrets by counterparty public key */
+    private final Map<ByteBuffer, byte[]> sharedSecrets = new ConcurrentHashMap<>();
+
+    /**
+     * Create a message decryptor
+     *
+     * @param   secretPhrase            Secret phrase of the reader
+     */
+    public MessageDecryptor(String secretPhrase) {
+        this.privateKey = Crypto.getPrivateKey(secretPhrase);
+    }
+
+    /**
+     * Decrypt a message
+     *
+     * @param   encryptedData           Encrypted message
+     * @param   theirPublicKey          Public key of the counterparty, or of the reader for a message to self
+     * @param   uncompress              TRUE to uncompress the decrypted message
+     * @return                          Decrypted message, the same as returned by
+     *                                  {@link qoober.Account#decryptFrom(byte[], EncryptedData, String, boolean)}
+     */
+    public byte[] decrypt(EncryptedData encryptedData, byte[] theirPublicKey, boolean uncompress) {
+        byte[] data = encryptedData.getData();
+        if (data.length == 0) {
+            return data;
+        }
+        ByteBuffer key = ByteBuffer.wrap(theirPublicKey);
+        byte[] sharedSecret = sharedSecrets.get(key);
+        if (sharedSecret == null) {
+            sharedSecret = Crypto.getSharedSecret(privateKey, theirPublicKey);
+            if (sharedSecrets.size() < MAX_SHARED_SECRETS) {
+                sharedSecrets.put(ByteBuffer.wrap(theirPublicKey.clone()), sharedSecret);
+            }
+        }
+        byte[] decrypted = Crypto.aesDecrypt(data, Crypto.deriveSharedKey(sharedSecret, encryptedData.getNonce()));
+        if (uncompress && decrypted.length > 0) {
+            decrypted = Convert.uncompress(decrypted);
+        }
+        return decrypted;
+    }
+}
@@ -31,10 +31,9 @@ public class Scrypt {
     private final int[] V = new int[32 * 1024];
 
     public byte[] hash(final byte input[]) {
+        // X and V are completely overwritten before they are read
         erase(H);
         erase(B);
-        erase(X);
-        erase(V);
 
         int i, j, k;
         System.arraycopy(input, 0, B, 0, input.length);
@@ -169,12 +168,6 @@ public class Scrypt {
         }
     }
 
-    private static void erase(int[] ints) {
-        for (int i = 0; i < ints.length; i++) {
-            ints[i] = 0;
-        }
-    }
-
     private static Mac createMac() {
         try {
             return Mac.getInstance("HmacSHA256");
@@ -0,0 +1,432 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober.db;
+
+import qoober.Db;
+import qoober.Qoober;
+import qoober.crypto.Crypto;
+import qoober.util.Convert;
+import qoober.util.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Content-addressed store for the payloads of prunable data
+ *
+ * Each payload is stored in a file named by the hexadecimal SHA-256 hash of its content, in a
+ * sub-directory named by the first byte of the hash, and the database rows keep the hash. The
+ * store is the blobs directory of the database directory unless qoober.blobStoreDir is set, so
+ * the payloads are backed up and moved together with the database files. Identical payloads
+ * share a single file.
+ *
+ * Payloads stored in the table columns before the blob store was introduced are moved to the
+ * blob store when the database is upgraded, and a payload is served from its file without being
+ * read into memory when only a byte range is needed.
+ *
+ * A file is deleted when the rows referencing it have been pruned or popped off and no row in any
+ * registered blob column refers to its hash. Files written or re-referenced during the last hour
+ * are never deleted, so a row inserted by a database transaction that has not been committed yet
+ * keeps its file. A file is stored and deleted while holding the lock for its hash, so a file
+ * is not deleted while it is being re-referenced.
+ */
+public final class BlobStore {
+
+    /** Buffer size used to hash a file */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Files modified more recently are not deleted (milliseconds) */
+    private static final long DELETE_GRACE_PERIOD = 60 * 60 * 1000;
+
+    /** Number of hash locks */
+    private static final int LOCK_COUNT = 256;
+
+    /** Hash locks, indexed by the first byte of the hash */
+    private static final Object[] locks = new Object[LOCK_COUNT];
+    static {
+        for (int i = 0; i < LOCK_COUNT; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /** Blob store directory */
+    private static final Path blobDir;
+    static {
+        String dir = Qoober.getStringProperty("qoober.blobStoreDir");
+        if (dir == null) {
+            File dbFile = getDbFile(Db.db.getUrl());
+            if (dbFile == null) {
+                throw new RuntimeException("qoober.blobStoreDir must be set when the database is not stored in local files");
+            }
+            dir = new File(dbFile.getAbsoluteFile().getParentFile(), "blobs").getPath();
+        }
+        blobDir = new File(dir).toPath().toAbsolutePath();
+        try {
+            Files.createDirectories(blobDir);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to create blob store directory " + blobDir + ": " + e.toString(), e);
+        }
+    }
+
+    /** Table columns containing blob hashes */
+    private static final List<String[]> references = new CopyOnWriteArrayList<>();
+
+    /** Hashes released by the database transaction of the current thread */
+    private static final ThreadLocal<Set<String>> released = new ThreadLocal<>();
+
+    /** Delete the released files once the database transaction has been committed */
+    private static final TransactionalDb.TransactionCallback releaseCallback = new TransactionalDb.TransactionCallback() {
+        @Override
+        public void commit() {
+            Set<String> hashes = released.get();
+            released.remove();
+            if (hashes != null) {
+                deleteUnreferenced(hashes);
+            }
+        }
+
+        @Override
+        public void rollback() {
+            released.remove();
+        }
+    };
+
+    private BlobStore() {}
+
+    /**
+     * Get the blob store directory
+     *
+     * @return                          Directory path
+     */
+    public static Path getDirectory() {
+        return blobDir;
+    }
+
+    /**
+     * Register a table column containing blob hashes, files referenced by a registered column
+     * are not deleted
+     *
+     * @param   table                   Table name
+     * @param   column                  Column name
+     */
+    static void registerColumn(String table, String column) {
+        references.add(new String[] {table, column});
+    }
+
+    /**
+     * Store a payload
+     *
+     * @param   data                    Payload or null
+     * @return                          Payload hash or null if the payload is null
+     */
+    public static byte[] put(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        byte[] hash = Crypto.sha256().digest(data);
+        Path path = getPath(hash);
+        synchronized (getLock(hash)) {
+            try {
+                if (Files.exists(path)) {
+                    Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+                    return hash;
+                }
+                Files.createDirectories(path.getParent());
+                Path tempPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+                try {
+                    Files.write(tempPath, data);
+                    Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tempPath);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to store blob " + path + ": " + e.toString(), e);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Read a payload
+     *
+     * @param   hash                    Payload hash or null
+     * @return                          Payload or null if the hash is null or the file does not exist
+     */
+    public static byte[] get(byte[] hash) {
+        try (FileChannel channel = open(hash)) {
+            if (channel == null) {
+                return null;
+            }
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Blob size " + size + " exceeds the maximum array size");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int)size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of blob");
+                }
+            }
+            return buffer.array();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read blob " + getPath(hash) + ": " + e.toString(), e);
+        }
+    }
+
+    /**
+     * Open a payload for reading, the caller must close the channel
+     *
+     * @param   hash                    Payload hash or null
+     * @return                          File channel or null if the hash is null or the file does not exist
+     */
+    public static FileChannel open(byte[] hash) {
+        if (hash == null) {
+            return null;
+        }
+        Path path = getPath(hash);
+        try {
+            return FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            Logger.logErrorMessage("Blob " + path + " is missing");
+            return null;
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to open blob " + path + ": " + e.toString(), e);
+        }
+    }
+
+    /**
+     * Release payloads no longer referenced by deleted rows, the files are deleted when the current
+     * database transaction is committed if no other row refers to them
+     *
+     * @param   hashes                  Hexadecimal payload hashes
+     */
+    static void release(Collection<String> hashes) {
+        if (hashes.isEmpty()) {
+            return;
+        }
+        if (Db.db.isInTransaction()) {
+            Set<String> pending = released.get();
+            if (pending == null) {
+                pending = new HashSet<>();
+                released.set(pending);
+            }
+            pending.addAll(hashes);
+            Db.db.registerCallback(releaseCallback);
+        } else {
+            deleteUnreferenced(hashes);
+        }
+    }
+
+    /**
+     * Delete the files that are not referenced by any row
+     */
+    public static void deleteOrphans() {
+        List<String> hashes = new ArrayList<>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(blobDir)) {
+            for (Path dir : dirs) {
+                if (!Files.isDirectory(dir)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                    for (Path file : files) {
+                        String name = file.getFileName().toString();
+                        if (name.length() == 64) {
+                            hashes.add(name);
+                        } else if (name.endsWith(".tmp") && isExpired(file)) {
+                            Files.deleteIfExists(file);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Logger.logErrorMessage("Unable to scan blob store " + blobDir, e);
+            return;
+        }
+        int deleted = deleteUnreferenced(hashes);
+        Logger.logDebugMessage("Blob store contains " + (hashes.size() - deleted) + " files, deleted " + deleted + " orphaned files");
+    }
+
+    /**
+     * Move the payloads stored in a table column to the blob store. The column of a row is cleared
+     * by the update setting its hash, after the stored file has been read back and its hash verified.
+     *
+     * @param   db                      Database
+     * @param   table                   Table name
+     * @param   column                  Payload column
+     * @param   hashColumn              Hash column
+     */
+    public static void migrate(BasicDb db, String table, String column, String hashColumn) {
+        int count = 0;
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmtSelect = con.prepareStatement("SELECT db_id, " + column + " FROM " + table
+                     + " WHERE " + column + " IS NOT NULL LIMIT 1000");
+             PreparedStatement pstmtUpdate = con.prepareStatement("UPDATE " + table + " SET " + hashColumn + " = ?, "
+                     + column + " = NULL WHERE db_id = ?")) {
+            boolean hasMore = true;
+            while (hasMore) {
+                hasMore = false;
+                try (ResultSet rs = pstmtSelect.executeQuery()) {
+                    while (rs.next()) {
+                        hasMore = true;
+                        byte[] hash = put(rs.getBytes(column));
+                        if (!verify(hash)) {
+                            throw new RuntimeException("Blob " + getPath(hash) + " does not match its hash");
+                        }
+                        pstmtUpdate.setBytes(1, hash);
+                        pstmtUpdate.setLong(2, rs.getLong("db_id"));
+                        pstmtUpdate.executeUpdate();
+                        count++;
+                    }
+                }
+                con.commit();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        Logger.logMessage("Moved " + count + " " + table + "." + column + " values to the blob store");
+    }
+
+    /**
+     * Verify the content of a stored payload
+     *
+     * @param   hash                    Payload hash
+     * @return                          TRUE if the file exists and its content matches the hash
+     */
+    private static boolean verify(byte[] hash) {
+        MessageDigest digest = Crypto.sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try (FileChannel channel = open(hash)) {
+            if (channel == null) {
+                return false;
+            }
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read blob " + getPath(hash) + ": " + e.toString(), e);
+        }
+        return Arrays.equals(digest.digest(), hash);
+    }
+
+    private static int deleteUnreferenced(Collection<String> hashes) {
+        int deleted = 0;
+        try (Connection con = Db.db.getConnection()) {
+            List<PreparedStatement> statements = new ArrayList<>(references.size());
+            try {
+                for (String[] reference : references) {
+                    statements.add(con.prepareStatement("SELECT 1 FROM " + reference[0] + " WHERE " + reference[1] + " = ? LIMIT 1"));
+                }
+                for (String hex : hashes) {
+                    byte[] hash = Convert.parseHexString(hex);
+                    Path path = getPath(hash);
+                    synchronized (getLock(hash)) {
+                        if (!isExpired(path) || isReferenced(statements, hash)) {
+                            continue;
+                        }
+                        if (Files.deleteIfExists(path)) {
+                            deleted++;
+                        }
+                    }
+                }
+            } finally {
+                DbUtils.close(statements.toArray(new AutoCloseable[0]));
+            }
+        } catch (SQLException | IOException e) {
+            Logger.logErrorMessage("Unable to delete unreferenced blobs", e);
+        }
+        return deleted;
+    }
+
+    private static boolean isReferenced(List<PreparedStatement> statements, byte[] hash) throws SQLException {
+        for (PreparedStatement pstmt : statements) {
+            pstmt.setBytes(1, hash);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isExpired(Path path) throws IOException {
+        try {
+            return Files.getLastModifiedTime(path).toMillis() < System.currentTimeMillis() - DELETE_GRACE_PERIOD;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the database file of an H2 database URL
+     *
+     * @param   url                     Database URL
+     * @return                          Database file name prefix or null if the database is not stored in local files
+     */
+    private static File getDbFile(String url) {
+        String prefix = "jdbc:h2:";
+        if (!url.regionMatches(true, 0, prefix, 0, prefix.length())) {
+            return null;
+        }
+        String name = url.substring(prefix.length());
+        int pos = name.indexOf(';');
+        if (pos >= 0) {
+            name = name.substring(0, pos);
+        }
+        if (name.startsWith("file:")) {
+            name = name.substring(5);
+        } else if (name.matches("^[a-zA-Z]{2,}:.*")) {
+            return null;
+        }
+        if (name.startsWith("~")) {
+            name = System.getProperty("user.home") + name.substring(1);
+        }
+        return new File(name);
+    }
+
+    private static Object getLock(byte[] hash) {
+        return locks[hash[0] & 0xff];
+    }
+
+    private static Path getPath(byte[] hash) {
+        String hex = Convert.toHexString(hash);
+        return blobDir.resolve(hex.substring(0, 2)).resolve(hex);
+    }
+}
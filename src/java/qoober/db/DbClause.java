@@ -48,6 +48,30 @@ public abstract class DbClause {
 
     protected abstract int set(PreparedStatement pstmt, int index) throws SQLException;
 
+    /**
+     * Get a key identifying the rows selected by the clause, results computed from the selected
+     * rows are cached by this key
+     *
+     * @return                          Clause key or null if the results must not be cached
+     */
+    protected String getKey() {
+        return null;
+    }
+
+    /**
+     * Create a clause key from the clause text and the parameter values
+     *
+     * @param   values                  Parameter values in parameter order
+     * @return                          Clause key
+     */
+    protected final String newKey(Object... values) {
+        StringBuilder sb = new StringBuilder(clause);
+        for (Object value : values) {
+            sb.append('|').append(value);
+        }
+        return sb.toString();
+    }
+
     public DbClause and(final DbClause other) {
         return new DbClause(this.clause + " AND " + other.clause) {
             @Override
@@ -56,6 +80,13 @@ public abstract class DbClause {
                 index = other.set(pstmt, index);
                 return index;
             }
+
+            @Override
+            protected String getKey() {
+                String key = DbClause.this.getKey();
+                String otherKey = other.getKey();
+                return key != null && otherKey != null ? key + '|' + otherKey : null;
+            }
         };
     }
 
@@ -72,6 +103,11 @@ public abstract class DbClause {
             return index;
         }
 
+        @Override
+        protected String getKey() {
+            return newKey();
+        }
+
     }
 
     public static final class NullClause extends DbClause {
@@ -85,6 +121,11 @@ public abstract class DbClause {
             return index;
         }
 
+        @Override
+        protected String getKey() {
+            return newKey();
+        }
+
     }
 
     public static final class NotNullClause extends DbClause {
@@ -98,6 +139,11 @@ public abstract class DbClause {
             return index;
         }
 
+        @Override
+        protected String getKey() {
+            return newKey();
+        }
+
     }
 
     public static final class StringClause extends DbClause {
@@ -115,6 +161,11 @@ public abstract class DbClause {
             return index + 1;
         }
 
+        @Override
+        protected String getKey() {
+            return newKey(value);
+        }
+
     }
 
     public static final class LikeClause extends DbClause {
@@ -131,6 +182,11 @@ public abstract class DbClause {
             pstmt.setString(index, prefix);
             return index + 1;
         }
+
+        @Override
+        protected String getKey() {
+            return newKey(prefix);
+        }
     }
 
     public static final class LongClause extends DbClause {
@@ -152,6 +208,11 @@ public abstract class DbClause {
             pstmt.setLong(index, value);
             return index + 1;
         }
+
+        @Override
+        protected String getKey() {
+            return newKey(value);
+        }
     }
 
     public static final class IntClause extends DbClause {
@@ -174,6 +235,11 @@ public abstract class DbClause {
             return index + 1;
         }
 
+        @Override
+        protected String getKey() {
+            return newKey(value);
+        }
+
     }
 
     public static final class ByteClause extends DbClause {
@@ -196,6 +262,11 @@ public abstract class DbClause {
             return index + 1;
         }
 
+        @Override
+        protected String getKey() {
+            return newKey(value);
+        }
+
     }
 
     public static final class BooleanClause extends DbClause {
@@ -213,6 +284,11 @@ public abstract class DbClause {
             return index + 1;
         }
 
+        @Override
+        protected String getKey() {
+            return newKey(value);
+        }
+
     }
 
 }
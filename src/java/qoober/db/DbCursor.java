@@ -0,0 +1,142 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober.db;
+
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Base64;
+
+/**
+ * Position of a listing sorted by descending height and database identifier
+ *
+ * The cursor is passed to API clients as an opaque continuation token. The next page of the listing
+ * selects the rows that sort after the last row of the previous page, so the database does not have
+ * to skip the rows of the previous pages as it does with an offset.
+ */
+public final class DbCursor {
+
+    /** Sort order of a listing using a cursor */
+    public static final String SORT = " ORDER BY height DESC, db_id DESC ";
+
+    /** Token format version */
+    private static final byte VERSION = 1;
+
+    private final int height;
+    private final long dbId;
+
+    /**
+     * Create a cursor
+     *
+     * @param   height                  Height of the last row
+     * @param   dbId                    Database identifier of the last row
+     */
+    public DbCursor(int height, long dbId) {
+        this.height = height;
+        this.dbId = dbId;
+    }
+
+    /**
+     * Get the height of the last row
+     *
+     * @return                          Height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get the database identifier of the last row
+     *
+     * @return                          Database identifier
+     */
+    public long getDbId() {
+        return dbId;
+    }
+
+    /**
+     * Get the continuation token for this cursor
+     *
+     * @return                          Token
+     */
+    public String toToken() {
+        ByteBuffer buffer = ByteBuffer.allocate(13);
+        buffer.put(VERSION).putInt(height).putLong(dbId);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    /**
+     * Parse a continuation token
+     *
+     * @param   token                   Token
+     * @return                          Cursor
+     * @throws  IllegalArgumentException    Token is not valid
+     */
+    public static DbCursor parse(String token) {
+        byte[] bytes = Base64.getUrlDecoder().decode(token);
+        if (bytes.length != 13 || bytes[0] != VERSION) {
+            throw new IllegalArgumentException("Invalid continuation token");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, 12);
+        return new DbCursor(buffer.getInt(), buffer.getLong());
+    }
+
+    /**
+     * Get the condition selecting the rows that follow the cursor position
+     *
+     * @param   table                   Table name or alias used to qualify the column names or null
+     * @return                          SQL condition
+     */
+    public String getCondition(String table) {
+        String prefix = table != null ? table + "." : "";
+        return " (" + prefix + "height <= ? AND (" + prefix + "height < ? OR " + prefix + "db_id < ?)) ";
+    }
+
+    /**
+     * Set the parameters of the cursor condition
+     *
+     * @param   pstmt                   Prepared statement
+     * @param   index                   Index of the first parameter
+     * @return                          Index of the next parameter
+     * @throws  SQLException            Database error occurred
+     */
+    public int setParameters(PreparedStatement pstmt, int index) throws SQLException {
+        pstmt.setInt(index++, height);
+        pstmt.setInt(index++, height);
+        pstmt.setLong(index++, dbId);
+        return index;
+    }
+
+    /**
+     * Get the clause selecting the rows that follow the cursor position
+     *
+     * @return                          Database clause
+     */
+    public DbClause getClause() {
+        return new DbClause(getCondition(null)) {
+            @Override
+            protected int set(PreparedStatement pstmt, int index) throws SQLException {
+                return setParameters(pstmt, index);
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "height " + height + " db_id " + dbId;
+    }
+}
@@ -36,6 +36,8 @@ public final class DbIterator<T> implements Iterator<T>, Iterable<T>, AutoClosea
 
     private boolean hasNext;
     private boolean iterated;
+    private boolean trackCursor;
+    private DbCursor cursor;
 
     public DbIterator(Connection con, PreparedStatement pstmt, ResultSetReader<T> rsReader) {
         this.con = con;
@@ -66,6 +68,9 @@ public final class DbIterator<T> implements Iterator<T>, Iterable<T>, AutoClosea
         }
         try {
             T result = rsReader.get(con, rs);
+            if (trackCursor) {
+                cursor = new DbCursor(rs.getInt("height"), rs.getLong("db_id"));
+            }
             hasNext = rs.next();
             return result;
         } catch (Exception e) {
@@ -74,6 +79,26 @@ public final class DbIterator<T> implements Iterator<T>, Iterable<T>, AutoClosea
         }
     }
 
+    /**
+     * Record the position of the rows returned by the iterator, the result set must
+     * include the height and db_id columns
+     *
+     * @return                          This iterator
+     */
+    public DbIterator<T> trackCursor() {
+        trackCursor = true;
+        return this;
+    }
+
+    /**
+     * Get the position of the last row returned by the iterator
+     *
+     * @return                          Cursor or null if no row has been returned or the position is not tracked
+     */
+    public DbCursor getCursor() {
+        return cursor;
+    }
+
     @Override
     public void remove() {
         throw new UnsupportedOperationException("Removal not supported");
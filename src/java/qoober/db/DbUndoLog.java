@@ -0,0 +1,143 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober.db;
+
+import qoober.Qoober;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Undo log of the derived table writes
+ *
+ * For every table written through the transactional database, the highest blockchain height
+ * at which a write was executed is recorded. Rows are always written at a height that does not
+ * exceed the blockchain height at the time of the write, so a table with no recorded write above
+ * the pop-off height cannot contain any rows that need to be removed and can be skipped.
+ *
+ * The log covers only the writes done after {@link #enable(int)} has been called, for any
+ * height below the height passed to it all tables are reported as modified.
+ */
+public final class DbUndoLog {
+
+    /** Pseudo table name used for DML statements whose target table cannot be determined */
+    private static final String ANY_TABLE = "*";
+
+    /** Use the undo log to skip unmodified tables during pop-off */
+    private static final boolean enabled = Qoober.getBooleanProperty("qoober.enableUndoLog", true);
+
+    /** Highest write height for each table */
+    private static final Map<String, Integer> writeHeights = new ConcurrentHashMap<>();
+
+    /** Lowest height for which the log is complete */
+    private static volatile int coverageHeight = Integer.MAX_VALUE;
+
+    private DbUndoLog() {}
+
+    /**
+     * Start recording table writes
+     *
+     * @param   height                  Current blockchain height
+     */
+    public static void enable(int height) {
+        if (enabled) {
+            writeHeights.clear();
+            coverageHeight = height;
+        }
+    }
+
+    /**
+     * Check if a table may contain rows above the specified height
+     *
+     * @param   table                   Table name
+     * @param   height                  Pop-off height
+     * @return                          TRUE if the table must be popped off
+     */
+    public static boolean isModifiedAfter(String table, int height) {
+        if (height < coverageHeight) {
+            return true;
+        }
+        Integer tableHeight = writeHeights.get(table.toLowerCase(Locale.ROOT));
+        Integer anyHeight = writeHeights.get(ANY_TABLE);
+        return (tableHeight != null && tableHeight > height) || (anyHeight != null && anyHeight > height);
+    }
+
+    /**
+     * All rows above the specified height have been deleted from the table and committed
+     *
+     * @param   table                   Table name
+     * @param   height                  Pop-off height
+     */
+    static void poppedOff(String table, int height) {
+        writeHeights.computeIfPresent(table.toLowerCase(Locale.ROOT), (k, v) -> Math.min(v, height));
+    }
+
+    /**
+     * All derived tables have been popped off to the specified height
+     *
+     * @param   height                  Pop-off height
+     */
+    public static void poppedOffAll(int height) {
+        writeHeights.computeIfPresent(ANY_TABLE, (k, v) -> Math.min(v, height));
+    }
+
+    /**
+     * Record the execution of an SQL statement
+     *
+     * @param   table                   Target table as returned by {@link #getTargetTable(String)} or null
+     */
+    static void recordWrite(String table) {
+        if (table != null && coverageHeight != Integer.MAX_VALUE) {
+            writeHeights.merge(table, Qoober.getBlockchain().getHeight(), Math::max);
+        }
+    }
+
+    /**
+     * Get the table modified by an SQL statement
+     *
+     * @param   sql                     SQL statement
+     * @return                          Lower-case table name, "*" for an unrecognized DML statement
+     *                                  or null if the statement does not modify table rows
+     */
+    static String getTargetTable(String sql) {
+        String[] tokens = sql.trim().split("[\\s(]+", 4);
+        String command = tokens[0].toUpperCase(Locale.ROOT);
+        int index;
+        switch (command) {
+            case "INSERT":
+            case "MERGE":
+            case "DELETE":
+            case "TRUNCATE":
+                index = 2;
+                break;
+            case "UPDATE":
+                index = 1;
+                break;
+            default:
+                return null;
+        }
+        if (tokens.length <= index) {
+            return ANY_TABLE;
+        }
+        String table = tokens[index].replace("\"", "").toLowerCase(Locale.ROOT);
+        if (table.startsWith("public.")) {
+            table = table.substring(7);
+        }
+        return table.isEmpty() ? ANY_TABLE : table;
+    }
+}
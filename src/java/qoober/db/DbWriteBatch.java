@@ -0,0 +1,364 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober.db;
+
+import qoober.Qoober;
+import qoober.util.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Batch of the single row inserts done by a database transaction
+ *
+ * The batch is started by TransactionalDb.beginWriteBatch() and lasts until it is ended or until the
+ * transaction ends.  It is used while a block is applied and while a collection of entities is inserted.
+ * A prepared INSERT or MERGE statement with a VALUES clause created by the batch connection is shared by
+ * all the inserts with the same SQL, and executing the statement adds the current parameters to a JDBC
+ * batch.  The pending batches are executed when the batch size is reached, before any other statement
+ * of the transaction that refers to a table with a pending batch is executed and when the transaction is
+ * committed, so reads always see the rows written by the transaction.  The pending batches are discarded
+ * when the transaction is rolled back.
+ * The pending batches are executed in the order in which they were started and at most one SQL shape
+ * is pending for each table, so the rows of a table are written in the order in which they were inserted.
+ *
+ * A batched insert reports a single updated row, so the entities saved through a batch must not depend
+ * on the update count.  Errors for the batched rows are reported by the statement executing the batch.
+ */
+public final class DbWriteBatch implements AutoCloseable {
+
+    /** Maximum number of rows in a batch, 0 to disable write batching */
+    static final int batchSize = Qoober.getIntProperty("qoober.dbWriteBatchSize", 1000);
+
+    /** Batch statistics by table */
+    private static final Map<String, Statistics> statistics = new ConcurrentHashMap<>();
+
+    /** Batch connection */
+    private final Connection con;
+
+    /** Shared statements by SQL */
+    private final Map<String, BatchedStatement> statements = new HashMap<>();
+
+    /** Shared statements currently in use by the application */
+    private final Set<BatchedStatement> inUse = Collections.newSetFromMap(new HashMap<>());
+
+    /** Pending batches by table */
+    private final Map<String, Batch> pending = new LinkedHashMap<>();
+
+    /** Pending batches are being executed */
+    private boolean flushing;
+
+    /**
+     * Pending batch
+     */
+    private static final class Batch {
+        private final PreparedStatement stmt;
+        private int rows;
+
+        private Batch(PreparedStatement stmt) {
+            this.stmt = stmt;
+        }
+    }
+
+    /**
+     * Check if write batching is enabled
+     *
+     * @return                          TRUE if write batching is enabled
+     */
+    static boolean isEnabled() {
+        return batchSize > 0;
+    }
+
+    /**
+     * Create a write batch
+     *
+     * @param   con                     Transaction connection
+     */
+    DbWriteBatch(Connection con) {
+        this.con = new BatchConnection(con);
+    }
+
+    /**
+     * Get the batch connection, statements must be created by the batch connection to be batched
+     *
+     * @return                          Batch connection
+     */
+    Connection getConnection() {
+        return con;
+    }
+
+    /**
+     * Execute all pending batches
+     *
+     * Statements executed while the pending batches are being executed do not flush the batches again.
+     *
+     * @throws  SQLException            Unable to execute a pending batch
+     */
+    void flush() throws SQLException {
+        if (flushing || pending.isEmpty()) {
+            return;
+        }
+        flushing = true;
+        try {
+            for (String table : new ArrayList<>(pending.keySet())) {
+                flushTable(table);
+            }
+        } finally {
+            flushing = false;
+        }
+    }
+
+    /**
+     * Execute the pending batches before a statement is executed
+     *
+     * The pending batches are executed if the statement refers to a table with a pending batch or if
+     * the statement is not a query, insert, merge or update, since it may then access tables that it
+     * does not name (for example, a delete cascading to a table with a pending batch).
+     *
+     * @param   sql                     Statement SQL or null if the statement is not known
+     * @throws  SQLException            Unable to execute a pending batch
+     */
+    void flush(String sql) throws SQLException {
+        if (flushing || pending.isEmpty()) {
+            return;
+        }
+        String s = sql != null ? sql.trim().toLowerCase(Locale.ROOT) : "";
+        if (s.startsWith("select") || s.startsWith("insert") || s.startsWith("merge") || s.startsWith("update")) {
+            boolean found = false;
+            for (String table : pending.keySet()) {
+                if (s.contains(table)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Discard the pending batches
+     */
+    void discard() {
+        for (Batch batch : pending.values()) {
+            try {
+                batch.stmt.clearBatch();
+            } catch (SQLException e) {
+                Logger.logErrorMessage(e.toString(), e);
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * Discard the pending batches and close the shared statements
+     */
+    @Override
+    public void close() {
+        discard();
+        inUse.clear();
+        for (BatchedStatement pstmt : statements.values()) {
+            try {
+                pstmt.stmt.close();
+            } catch (SQLException e) {
+                Logger.logErrorMessage(e.toString(), e);
+            }
+        }
+        statements.clear();
+    }
+
+    private static boolean isBatchable(String sql) {
+        String s = sql.trim().toUpperCase(Locale.ROOT);
+        return (s.startsWith("INSERT ") || s.startsWith("MERGE ")) && s.contains("VALUES") && !s.contains("SELECT")
+                && !"*".equals(DbUndoLog.getTargetTable(sql));
+    }
+
+    private void add(PreparedStatement stmt, String table) throws SQLException {
+        Batch batch = pending.get(table);
+        if (batch != null && batch.stmt != stmt) {
+            flush();
+            batch = null;
+        }
+        if (batch == null) {
+            batch = new Batch(stmt);
+            pending.put(table, batch);
+        }
+        stmt.addBatch();
+        if (++batch.rows >= batchSize) {
+            flush();
+        }
+    }
+
+    private void flushTable(String table) throws SQLException {
+        Batch batch = pending.remove(table);
+        if (batch == null) {
+            return;
+        }
+        try {
+            batch.stmt.executeBatch();
+        } finally {
+            Statistics stats = statistics.computeIfAbsent(table, Statistics::new);
+            stats.rowCount.addAndGet(batch.rows);
+            stats.batchCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Batch connection
+     *
+     * The batch connection is not closed by the application, it is closed by the database transaction.
+     * Statements that are not batched are created by the transaction connection and execute the pending
+     * batches before they are executed.
+     */
+    private final class BatchConnection extends FilteredConnection {
+
+        private BatchConnection(Connection con) {
+            super(con, new FilteredFactory() {
+                @Override
+                public Statement createStatement(Statement stmt) {
+                    return stmt;
+                }
+
+                @Override
+                public PreparedStatement createPreparedStatement(PreparedStatement stmt, String sql) {
+                    return stmt;
+                }
+            });
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            if (!isBatchable(sql)) {
+                return super.prepareStatement(sql);
+            }
+            BatchedStatement pstmt = statements.get(sql);
+            if (pstmt == null) {
+                pstmt = new BatchedStatement(super.prepareStatement(sql), sql);
+                statements.put(sql, pstmt);
+            } else if (inUse.contains(pstmt)) {
+                return super.prepareStatement(sql);
+            }
+            inUse.add(pstmt);
+            return pstmt;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Shared statement that adds its parameters to the batch for its table when it is executed
+     */
+    private final class BatchedStatement extends FilteredPreparedStatement {
+
+        private final PreparedStatement stmt;
+        private final String targetTable;
+
+        private BatchedStatement(PreparedStatement stmt, String sql) {
+            super(stmt, sql);
+            this.stmt = stmt;
+            this.targetTable = DbUndoLog.getTargetTable(sql);
+        }
+
+        @Override
+        public int executeUpdate() throws SQLException {
+            add(stmt, targetTable);
+            return 1;
+        }
+
+        @Override
+        public void close() {
+            inUse.remove(this);
+        }
+    }
+
+    /**
+     * Get the batch statistics
+     *
+     * @return                          Statistics by table name
+     */
+    public static Map<String, Statistics> getStatistics() {
+        return Collections.unmodifiableMap(new TreeMap<>(statistics));
+    }
+
+    /**
+     * Log the batch statistics
+     */
+    static void logStatistics() {
+        statistics.values().stream().sorted((s1, s2) -> Long.compare(s2.getRowCount(), s1.getRowCount())).forEach(stats ->
+                Logger.logDebugMessage(String.format("Table %s: %d rows written in %d batches, %.1f rows per batch",
+                        stats.getTable(), stats.getRowCount(), stats.getBatchCount(),
+                        (double)stats.getRowCount() / (double)Math.max(stats.getBatchCount(), 1))));
+    }
+
+    /**
+     * Batch statistics for a table
+     */
+    public static final class Statistics {
+
+        private final String table;
+        private final AtomicLong rowCount = new AtomicLong();
+        private final AtomicLong batchCount = new AtomicLong();
+
+        private Statistics(String table) {
+            this.table = table;
+        }
+
+        /**
+         * Get the table name
+         *
+         * @return                      Table name
+         */
+        public String getTable() {
+            return table;
+        }
+
+        /**
+         * Get the number of rows written by batches
+         *
+         * @return                      Row count
+         */
+        public long getRowCount() {
+            return rowCount.get();
+        }
+
+        /**
+         * Get the number of batches executed
+         *
+         * @return                      Batch count
+         */
+        public long getBatchCount() {
+            return batchCount.get();
+        }
+    }
+}
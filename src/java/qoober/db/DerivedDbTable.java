@@ -48,6 +48,7 @@ public class DerivedDbTable {
                 deleted = pstmtDelete.executeUpdate();
                 Db.db.commitTransaction();
             } while (deleted >= Constants.BATCH_COMMIT_SIZE);
+            DbUndoLog.poppedOff(table, height);
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }
@@ -81,6 +82,16 @@ public class DerivedDbTable {
         return false;
     }
 
+    /**
+     * Check if the table keeps state outside of the database, such as an in-memory cache that is
+     * cleared by popOffTo(). The pop-off of such a table is never skipped by the undo log.
+     *
+     * @return                          TRUE if the table keeps state outside of the database
+     */
+    public boolean keepsExternalState() {
+        return false;
+    }
+
     @Override
     public final String toString() {
         return table;
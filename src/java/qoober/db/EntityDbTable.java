@@ -19,16 +19,29 @@ package qoober.db;
 import qoober.Constants;
 import qoober.Qoober;
 import qoober.util.Logger;
+import qoober.util.Metrics;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public abstract class EntityDbTable<T> extends TrimmableDbTable<T> {
+
+    /** Maximum number of cached counts */
+    private static final int MAX_CACHED_COUNTS = 1000;
+
+    /** Cached counts by clause key, each with the table version it was counted at */
+    private final Map<String, long[]> counts = new ConcurrentHashMap<>();
+
     private final String defaultSort;
     private final String fullTextSearchColumns;
+    private final Metrics.Histogram getTime;
+    private final Metrics.Histogram insertTime;
 
     protected EntityDbTable(String table, DbKey.Factory<T> dbKeyFactory) {
         this(table, dbKeyFactory, false, null);
@@ -42,6 +55,9 @@ public abstract class EntityDbTable<T> extends TrimmableDbTable<T> {
         super(table, dbKeyFactory, multiversion);
         this.defaultSort = " ORDER BY " + (multiversion ? dbKeyFactory.getPKColumns() : " height DESC, db_id DESC ");
         this.fullTextSearchColumns = fullTextSearchColumns;
+        this.getTime = Metrics.histogram("qoober_db_entity_get_seconds", "Time to read an entity by key from the database",
+                "table", table);
+        this.insertTime = Metrics.histogram("qoober_db_entity_insert_seconds", "Time to insert an entity", "table", table);
     }
 
     protected abstract T load(Connection con, ResultSet rs, DbKey dbKey) throws SQLException;
@@ -96,6 +112,7 @@ public abstract class EntityDbTable<T> extends TrimmableDbTable<T> {
                 return t;
             }
         }
+        long start = System.nanoTime();
         try (Connection con = db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + dbKeyFactory.getPKClause()
              + (multiversion ? " AND latest = TRUE LIMIT 1" : ""))) {
@@ -103,6 +120,8 @@ public abstract class EntityDbTable<T> extends TrimmableDbTable<T> {
             return get(con, pstmt, cache);
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
+        } finally {
+            getTime.update(System.nanoTime() - start);
         }
     }
 
@@ -206,6 +225,16 @@ public abstract class EntityDbTable<T> extends TrimmableDbTable<T> {
         }
     }
 
+    public final DbIterator<T> getManyBy(DbClause dbClause, DbCursor cursor, int from, int to) {
+        if (multiversion) {
+            throw new IllegalStateException("Cursor pagination is not supported for table " + table);
+        }
+        if (cursor != null) {
+            dbClause = dbClause.and(cursor.getClause());
+        }
+        return getManyBy(dbClause, from, to, DbCursor.SORT).trackCursor();
+    }
+
     public final DbIterator<T> getManyBy(DbClause dbClause, int height, int from, int to) {
         return getManyBy(dbClause, height, from, to, defaultSort());
     }
@@ -303,6 +332,10 @@ public abstract class EntityDbTable<T> extends TrimmableDbTable<T> {
         }
     }
 
+    public final DbIterator<T> getAll(DbCursor cursor, int from, int to) {
+        return getManyBy(DbClause.EMPTY_CLAUSE, cursor, from, to);
+    }
+
     public final DbIterator<T> getAll(int height, int from, int to) {
         return getAll(height, from, to, defaultSort());
     }
@@ -336,16 +369,35 @@ public abstract class EntityDbTable<T> extends TrimmableDbTable<T> {
     }
 
     public final int getCount() {
-        try (Connection con = db.getConnection();
-             PreparedStatement pstmt = con.prepareStatement("SELECT COUNT(*) FROM " + table
-                     + (multiversion ? " WHERE latest = TRUE" : ""))) {
-            return getCount(pstmt);
-        } catch (SQLException e) {
-            throw new RuntimeException(e.toString(), e);
-        }
+        return getCount(DbClause.EMPTY_CLAUSE);
     }
 
+    /**
+     * Get the number of current rows selected by a clause. Counts are cached by the clause key
+     * and remain valid until a write to the table is committed.
+     *
+     * @param   dbClause                Clause
+     * @return                          Number of rows
+     */
     public final int getCount(DbClause dbClause) {
+        String key = dbClause.getKey();
+        if (key == null || TableVersions.isWritten(table)) {
+            return countRows(dbClause);
+        }
+        long version = TableVersions.getVersion(table);
+        long[] count = counts.get(key);
+        if (count != null && count[0] == version) {
+            return (int)count[1];
+        }
+        int rowCount = countRows(dbClause);
+        if (counts.size() >= MAX_CACHED_COUNTS) {
+            counts.clear();
+        }
+        counts.put(key, new long[] {version, rowCount});
+        return rowCount;
+    }
+
+    private int countRows(DbClause dbClause) {
         try (Connection con = db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT COUNT(*) FROM " + table
                      + " WHERE " + dbClause.getClause() + (multiversion ? " AND latest = TRUE" : ""))) {
@@ -400,10 +452,74 @@ public abstract class EntityDbTable<T> extends TrimmableDbTable<T> {
         }
     }
 
+    /**
+     * Get the instance of an entity held by the cache of the current transaction. The entity
+     * is cached if no instance with the same key is cached, so an entity kept outside of the
+     * table can be saved by the transaction.
+     *
+     * @param   t                       Entity
+     * @return                          Cached instance
+     */
+    public final T getCachedInstance(T t) {
+        DbKey dbKey = dbKeyFactory.newKey(t);
+        T cachedT = (T) db.getCache(table).putIfAbsent(dbKey, t);
+        return cachedT != null ? cachedT : t;
+    }
+
+    /**
+     * Insert entities using a single batch to mark the previous versions as not latest. The
+     * single row inserts done by the save() method of the table are written with JDBC batches,
+     * so the save() method must not depend on the update count of its inserts.
+     *
+     * @param   entities                Entities
+     */
+    public final void insert(Collection<T> entities) {
+        if (!db.isInTransaction()) {
+            throw new IllegalStateException("Not in transaction");
+        }
+        long start = System.nanoTime();
+        for (T t : entities) {
+            DbKey dbKey = dbKeyFactory.newKey(t);
+            if (dbKey == null) {
+                throw new RuntimeException("DbKey not set");
+            }
+            T cachedT = (T) db.getCache(table).putIfAbsent(dbKey, t);
+            if (cachedT != null && cachedT != t) {
+                Logger.logDebugMessage("In cache : " + cachedT.toString() + ", inserting " + t.toString());
+                throw new IllegalStateException("Different instance found in Db cache, perhaps trying to save an object "
+                        + "that was read outside the current transaction");
+            }
+        }
+        boolean writeBatch = db.beginWriteBatch();
+        try (Connection con = db.getConnection()) {
+            if (multiversion) {
+                try (PreparedStatement pstmt = con.prepareStatement("UPDATE " + table
+                        + " SET latest = FALSE " + dbKeyFactory.getPKClause() + " AND latest = TRUE LIMIT 1")) {
+                    for (T t : entities) {
+                        dbKeyFactory.newKey(t).setPK(pstmt);
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+                }
+            }
+            for (T t : entities) {
+                save(con, t);
+            }
+            if (writeBatch) {
+                db.endWriteBatch();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        } finally {
+            insertTime.update(System.nanoTime() - start);
+        }
+    }
+
     public final void insert(T t) {
         if (!db.isInTransaction()) {
             throw new IllegalStateException("Not in transaction");
         }
+        long start = System.nanoTime();
         DbKey dbKey = dbKeyFactory.newKey(t);
         if (dbKey == null) {
             throw new RuntimeException("DbKey not set");
@@ -427,6 +543,8 @@ public abstract class EntityDbTable<T> extends TrimmableDbTable<T> {
             save(con, t);
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
+        } finally {
+            insertTime.update(System.nanoTime() - start);
         }
     }
 
@@ -18,24 +18,47 @@ package qoober.db;
 
 import qoober.Constants;
 import qoober.Qoober;
+import qoober.util.Convert;
 import qoober.util.Logger;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 public abstract class PrunableDbTable<T> extends PersistentDbTable<T> {
 
+    private static final String[] NO_BLOB_COLUMNS = new String[0];
+
+    /** Columns containing the hashes of payloads kept in the blob store */
+    private final String[] blobColumns;
+
     protected PrunableDbTable(String table, DbKey.Factory<T> dbKeyFactory) {
-        super(table, dbKeyFactory);
+        this(table, dbKeyFactory, false, null, NO_BLOB_COLUMNS);
     }
 
     protected PrunableDbTable(String table, DbKey.Factory<T> dbKeyFactory, String fullTextSearchColumns) {
-        super(table, dbKeyFactory, fullTextSearchColumns);
+        this(table, dbKeyFactory, false, fullTextSearchColumns, NO_BLOB_COLUMNS);
+    }
+
+    protected PrunableDbTable(String table, DbKey.Factory<T> dbKeyFactory, String fullTextSearchColumns, String[] blobColumns) {
+        this(table, dbKeyFactory, false, fullTextSearchColumns, blobColumns);
     }
 
     PrunableDbTable(String table, DbKey.Factory<T> dbKeyFactory, boolean multiversion, String fullTextSearchColumns) {
+        this(table, dbKeyFactory, multiversion, fullTextSearchColumns, NO_BLOB_COLUMNS);
+    }
+
+    PrunableDbTable(String table, DbKey.Factory<T> dbKeyFactory, boolean multiversion, String fullTextSearchColumns,
+                    String[] blobColumns) {
         super(table, dbKeyFactory, multiversion, fullTextSearchColumns);
+        this.blobColumns = blobColumns.clone();
+        for (String column : blobColumns) {
+            BlobStore.registerColumn(table, column);
+        }
     }
 
     @Override
@@ -44,11 +67,20 @@ public abstract class PrunableDbTable<T> extends PersistentDbTable<T> {
         super.trim(height);
     }
 
+    @Override
+    public void popOffTo(int height) {
+        Set<String> hashes = getBlobHashes("height > ?", height);
+        super.popOffTo(height);
+        BlobStore.release(hashes);
+    }
+
     protected void prune() {
         if (Constants.ENABLE_PRUNING) {
+            int expiration = Qoober.getEpochTime() - Constants.MAX_PRUNABLE_LIFETIME;
+            Set<String> hashes = getBlobHashes("transaction_timestamp < ?", expiration);
             try (Connection con = db.getConnection();
                  PreparedStatement pstmt = con.prepareStatement("DELETE FROM " + table + " WHERE transaction_timestamp < ? LIMIT " + Constants.BATCH_COMMIT_SIZE)) {
-                pstmt.setInt(1, Qoober.getEpochTime() - Constants.MAX_PRUNABLE_LIFETIME);
+                pstmt.setInt(1, expiration);
                 int deleted;
                 do {
                     deleted = pstmt.executeUpdate();
@@ -60,7 +92,40 @@ public abstract class PrunableDbTable<T> extends PersistentDbTable<T> {
             } catch (SQLException e) {
                 throw new RuntimeException(e.toString(), e);
             }
+            BlobStore.release(hashes);
+        }
+    }
+
+    /**
+     * Get the blob hashes of the rows selected by a condition
+     *
+     * @param   condition               SQL condition with a single integer parameter
+     * @param   value                   Parameter value
+     * @return                          Hexadecimal blob hashes
+     */
+    private Set<String> getBlobHashes(String condition, int value) {
+        if (blobColumns.length == 0) {
+            return Collections.emptySet();
+        }
+        Set<String> hashes = new HashSet<>();
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT " + String.join(", ", blobColumns) + " FROM " + table
+                     + " WHERE " + condition)) {
+            pstmt.setInt(1, value);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    for (int i = 1; i <= blobColumns.length; i++) {
+                        byte[] hash = rs.getBytes(i);
+                        if (hash != null) {
+                            hashes.add(Convert.toHexString(hash));
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
         }
+        return hashes;
     }
 
 }
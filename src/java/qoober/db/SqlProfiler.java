@@ -0,0 +1,280 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober.db;
+
+import qoober.Qoober;
+import qoober.util.Logger;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * SQL statement profiler
+ *
+ * When profiling is enabled, the execution count, execution time and row count of the statements
+ * executed through a database connection are aggregated by normalized SQL text. Literals in the
+ * SQL text are replaced by parameter markers and IN lists are collapsed, so statements built with
+ * inline values are aggregated together. The execution time of a query does not include reading
+ * its result set, and the row count of a query is the number of rows read by the application.
+ *
+ * A batched insert is counted when the batch is executed, so the count is the number of
+ * statements executed by the database.
+ */
+public final class SqlProfiler {
+
+    /** Profiling enabled */
+    static final boolean enabled = Qoober.getBooleanProperty("qoober.enableSqlProfiler");
+
+    /** Maximum number of aggregated statements */
+    private static final int MAX_STATISTICS = 1000;
+
+    /** Maximum number of cached SQL statements */
+    private static final int MAX_STATEMENTS = 10000;
+
+    /** Number of statements included in the log digest */
+    private static final int LOG_COUNT = 10;
+
+    /** Normalized SQL used once the maximum number of aggregated statements has been reached */
+    private static final String OTHER_STATEMENTS = "(other statements)";
+
+    /** Whitespace pattern */
+    private static final Pattern whitespacePattern = Pattern.compile("\\s+");
+
+    /** String literal pattern */
+    private static final Pattern stringPattern = Pattern.compile("'(?:[^']|'')*'");
+
+    /** Numeric literal pattern */
+    private static final Pattern numberPattern = Pattern.compile("(?<![\\w.])\\d+(?:\\.\\d+)?(?![\\w.])");
+
+    /** IN list pattern */
+    private static final Pattern inListPattern = Pattern.compile("(?i)\\bIN \\(\\?(?: ?, ?\\?)+ ?\\)");
+
+    /** Statistics by normalized SQL */
+    private static final Map<String, Statistics> statistics = new ConcurrentHashMap<>();
+
+    /** Statistics by SQL */
+    private static final Map<String, Statistics> statements = new ConcurrentHashMap<>();
+
+    /** Statement sort orders */
+    public enum Sort {
+        TOTAL_TIME(Comparator.comparingLong(Statistics::getTotalTime)),
+        MAX_TIME(Comparator.comparingLong(Statistics::getMaxTime)),
+        COUNT(Comparator.comparingLong(Statistics::getCount)),
+        ROWS(Comparator.comparingLong(Statistics::getRowCount));
+
+        private final Comparator<Statistics> comparator;
+
+        Sort(Comparator<Statistics> comparator) {
+            this.comparator = comparator.reversed();
+        }
+    }
+
+    private SqlProfiler() {}
+
+    /**
+     * Check if profiling is enabled
+     *
+     * @return                          TRUE if profiling is enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Get the statistics for an SQL statement
+     *
+     * @param   sql                     SQL statement
+     * @return                          Statement statistics
+     */
+    static Statistics getStatistics(String sql) {
+        Statistics stats = statements.get(sql);
+        if (stats == null) {
+            String normalizedSql = normalize(sql);
+            stats = statistics.get(normalizedSql);
+            if (stats == null) {
+                if (statistics.size() < MAX_STATISTICS) {
+                    stats = statistics.computeIfAbsent(normalizedSql, Statistics::new);
+                } else {
+                    stats = statistics.computeIfAbsent(OTHER_STATEMENTS, Statistics::new);
+                }
+            }
+            if (statements.size() < MAX_STATEMENTS) {
+                statements.put(sql, stats);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Get the statement statistics
+     *
+     * @param   sort                    Sort order
+     * @param   count                   Maximum number of statements
+     * @return                          Statement statistics
+     */
+    public static List<Statistics> getStatistics(Sort sort, int count) {
+        List<Statistics> list = new ArrayList<>(statistics.size());
+        statistics.values().forEach(stats -> {
+            if (stats.getCount() > 0) {
+                list.add(stats);
+            }
+        });
+        list.sort(sort.comparator);
+        return list.size() > count ? new ArrayList<>(list.subList(0, count)) : list;
+    }
+
+    /**
+     * Reset the statement statistics, the statistics are reset in place since they are
+     * referenced by the open prepared statements
+     */
+    public static void reset() {
+        statistics.values().forEach(Statistics::reset);
+    }
+
+    /**
+     * Log the statements with the largest total execution time
+     */
+    static void logStatistics() {
+        if (!enabled) {
+            return;
+        }
+        getStatistics(Sort.TOTAL_TIME, LOG_COUNT).forEach(stats ->
+                Logger.logDebugMessage(String.format("SQL %d executions, %.3f seconds total, %.3f ms max, %d rows: %s",
+                        stats.getCount(), (double)stats.getTotalTime() / 1000000000.0,
+                        (double)stats.getMaxTime() / 1000000.0, stats.getRowCount(), stats.getSql())));
+    }
+
+    private static String normalize(String sql) {
+        String s = whitespacePattern.matcher(sql.trim()).replaceAll(" ");
+        s = stringPattern.matcher(s).replaceAll("?");
+        s = numberPattern.matcher(s).replaceAll("?");
+        return inListPattern.matcher(s).replaceAll("IN (...)");
+    }
+
+    /**
+     * Statistics for a normalized SQL statement
+     */
+    public static final class Statistics {
+
+        private final String sql;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalTime = new LongAdder();
+        private final LongAccumulator maxTime = new LongAccumulator(Math::max, 0);
+        private final LongAdder rowCount = new LongAdder();
+
+        private Statistics(String sql) {
+            this.sql = sql;
+        }
+
+        /**
+         * Record a statement execution
+         *
+         * @param   time                Execution time (nanoseconds)
+         * @param   rows                Number of rows updated
+         */
+        void record(long time, long rows) {
+            count.increment();
+            totalTime.add(time);
+            maxTime.accumulate(time);
+            if (rows > 0) {
+                rowCount.add(rows);
+            }
+        }
+
+        /**
+         * Reset the statistics
+         */
+        private void reset() {
+            count.reset();
+            totalTime.reset();
+            maxTime.reset();
+            rowCount.reset();
+        }
+
+        /**
+         * Count the rows read from a query result set
+         *
+         * @param   rs                  Result set
+         * @return                      Result set wrapper
+         */
+        ResultSet countRows(ResultSet rs) {
+            return new FilteredResultSet(rs) {
+                @Override
+                public boolean next() throws SQLException {
+                    boolean hasNext = super.next();
+                    if (hasNext) {
+                        rowCount.increment();
+                    }
+                    return hasNext;
+                }
+            };
+        }
+
+        /**
+         * Get the normalized SQL statement
+         *
+         * @return                      SQL statement
+         */
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * Get the number of executions
+         *
+         * @return                      Execution count
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * Get the total execution time
+         *
+         * @return                      Total time (nanoseconds)
+         */
+        public long getTotalTime() {
+            return totalTime.sum();
+        }
+
+        /**
+         * Get the longest execution time
+         *
+         * @return                      Maximum time (nanoseconds)
+         */
+        public long getMaxTime() {
+            return maxTime.get();
+        }
+
+        /**
+         * Get the number of rows read or updated
+         *
+         * @return                      Row count
+         */
+        public long getRowCount() {
+            return rowCount.sum();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober.db;
+
+import qoober.Db;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Versions of the committed table contents
+ *
+ * The version of a table is incremented each time a write to the table has been committed, so a
+ * value computed from the table remains valid as long as the version it was computed at is
+ * current. Writes done by a database transaction are recorded when they are executed and the
+ * versions are incremented once the transaction has been committed. Statements whose target table
+ * cannot be determined increment the version of all tables.
+ *
+ * The version must be read before the value is computed, so a commit done while the value is
+ * being computed always invalidates it.
+ */
+final class TableVersions {
+
+    /** Pseudo table name used for statements whose target table cannot be determined */
+    private static final String ANY_TABLE = "*";
+
+    /** Version of each written table */
+    private static final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    /** Version incremented for every write with an unknown target table */
+    private static final AtomicLong anyVersion = new AtomicLong();
+
+    /** Tables written by the database transaction of the current thread */
+    private static final ThreadLocal<Set<String>> writtenTables = new ThreadLocal<>();
+
+    /** Increment the versions of the written tables once the database transaction has been committed */
+    private static final TransactionalDb.TransactionCallback commitCallback = new TransactionalDb.TransactionCallback() {
+        @Override
+        public void commit() {
+            Set<String> tables = writtenTables.get();
+            writtenTables.remove();
+            if (tables != null) {
+                tables.forEach(TableVersions::increment);
+            }
+        }
+
+        @Override
+        public void rollback() {
+            writtenTables.remove();
+        }
+    };
+
+    private TableVersions() {}
+
+    /**
+     * Get the current version of a table
+     *
+     * @param   table                   Table name
+     * @return                          Table version
+     */
+    static long getVersion(String table) {
+        AtomicLong version = versions.get(table.toLowerCase(Locale.ROOT));
+        return (version != null ? version.get() : 0) + anyVersion.get();
+    }
+
+    /**
+     * Check if the database transaction of the current thread has written to a table
+     *
+     * @param   table                   Table name
+     * @return                          TRUE if the table has uncommitted writes
+     */
+    static boolean isWritten(String table) {
+        Set<String> tables = writtenTables.get();
+        return tables != null && (tables.contains(table.toLowerCase(Locale.ROOT)) || tables.contains(ANY_TABLE));
+    }
+
+    /**
+     * Record the execution of an SQL statement
+     *
+     * @param   table                   Target table as returned by {@link DbUndoLog#getTargetTable(String)} or null
+     */
+    static void recordWrite(String table) {
+        if (table == null) {
+            return;
+        }
+        if (!Db.db.isInTransaction()) {
+            increment(table);
+            return;
+        }
+        Set<String> tables = writtenTables.get();
+        if (tables == null) {
+            tables = new HashSet<>();
+            writtenTables.set(tables);
+            Db.db.registerCallback(commitCallback);
+        }
+        tables.add(table);
+    }
+
+    private static void increment(String table) {
+        if (ANY_TABLE.equals(table)) {
+            anyVersion.incrementAndGet();
+        } else {
+            versions.computeIfAbsent(table, k -> new AtomicLong()).incrementAndGet();
+        }
+    }
+}
@@ -18,6 +18,7 @@ package qoober.db;
 
 import qoober.Qoober;
 import qoober.util.Logger;
+import qoober.util.Metrics;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -35,6 +36,8 @@ public class TransactionalDb extends BasicDb {
     private static final long stmtThreshold;
     private static final long txThreshold;
     private static final long txInterval;
+    private static final Metrics.Histogram txTime = Metrics.histogram("qoober_db_transaction_seconds",
+            "Duration of database transactions");
     static {
         long temp;
         stmtThreshold = (temp= Qoober.getIntProperty("qoober.statementLogThreshold")) != 0 ? temp : 1000;
@@ -42,6 +45,7 @@ public class TransactionalDb extends BasicDb {
         txInterval = (temp= Qoober.getIntProperty("qoober.transactionLogInterval")) != 0 ? temp*60*1000 : 15*60*1000;
     }
 
+    private static final ThreadLocal<DbWriteBatch> localBatch = new ThreadLocal<>();
     private final ThreadLocal<DbConnection> localConnection = new ThreadLocal<>();
     private final ThreadLocal<Map<String,Map<DbKey,Object>>> transactionCaches = new ThreadLocal<>();
     private final ThreadLocal<Set<TransactionCallback>> transactionCallback = new ThreadLocal<>();
@@ -57,7 +61,8 @@ public class TransactionalDb extends BasicDb {
     public Connection getConnection() throws SQLException {
         Connection con = localConnection.get();
         if (con != null) {
-            return con;
+            DbWriteBatch batch = localBatch.get();
+            return batch != null ? batch.getConnection() : con;
         }
         return new DbConnection(super.getConnection());
     }
@@ -75,6 +80,7 @@ public class TransactionalDb extends BasicDb {
             con.setAutoCommit(false);
             con = new DbConnection(con);
             ((DbConnection)con).txStart = System.currentTimeMillis();
+            ((DbConnection)con).txStartNanos = System.nanoTime();
             localConnection.set((DbConnection)con);
             transactionCaches.set(new HashMap<>());
             return con;
@@ -83,12 +89,57 @@ public class TransactionalDb extends BasicDb {
         }
     }
 
+    /**
+     * Start batching the single row inserts of the current transaction
+     *
+     * The connections returned by getConnection() write their inserts with JDBC batches until
+     * endWriteBatch() is called or the transaction ends.  The statements of the transaction that
+     * refer to a table with pending inserts and the commit of the transaction write the pending
+     * inserts first.
+     *
+     * @return                          TRUE if a write batch was started, FALSE if write batching is
+     *                                  disabled or a write batch is already active
+     */
+    public boolean beginWriteBatch() {
+        DbConnection con = localConnection.get();
+        if (con == null) {
+            throw new IllegalStateException("Not in transaction");
+        }
+        if (!DbWriteBatch.isEnabled() || localBatch.get() != null) {
+            return false;
+        }
+        localBatch.set(new DbWriteBatch(con));
+        return true;
+    }
+
+    /**
+     * Write the pending inserts and stop batching the inserts of the current transaction
+     */
+    public void endWriteBatch() {
+        DbWriteBatch batch = localBatch.get();
+        if (batch == null) {
+            throw new IllegalStateException("Write batch not active");
+        }
+        try {
+            batch.flush();
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        } finally {
+            localBatch.set(null);
+            batch.close();
+        }
+    }
+
     public void commitTransaction() {
         DbConnection con = localConnection.get();
         if (con == null) {
             throw new IllegalStateException("Not in transaction");
         }
         try {
+            DbWriteBatch batch = localBatch.get();
+            if (batch != null) {
+                batch.flush();
+            }
             con.doCommit();
             Set<TransactionCallback> callbacks = transactionCallback.get();
             if (callbacks != null) {
@@ -105,6 +156,10 @@ public class TransactionalDb extends BasicDb {
         if (con == null) {
             throw new IllegalStateException("Not in transaction");
         }
+        DbWriteBatch batch = localBatch.get();
+        if (batch != null) {
+            batch.discard();
+        }
         try {
             con.doRollback();
         } catch (SQLException e) {
@@ -120,14 +175,20 @@ public class TransactionalDb extends BasicDb {
     }
 
     public void endTransaction() {
-        Connection con = localConnection.get();
+        DbConnection con = localConnection.get();
         if (con == null) {
             throw new IllegalStateException("Not in transaction");
         }
+        DbWriteBatch batch = localBatch.get();
+        if (batch != null) {
+            localBatch.set(null);
+            batch.close();
+        }
         localConnection.set(null);
         transactionCaches.set(null);
+        txTime.update(System.nanoTime() - con.txStartNanos);
         long now = System.currentTimeMillis();
-        long elapsed = now - ((DbConnection)con).txStart;
+        long elapsed = now - con.txStart;
         if (elapsed >= txThreshold) {
             logThreshold(String.format("Database transaction required %.3f seconds at height %d",
                                        (double)elapsed/1000.0, Qoober.getBlockchain().getHeight()));
@@ -144,9 +205,12 @@ public class TransactionalDb extends BasicDb {
                     statsTime = now;
                 }
             }
-            if (logStats)
+            if (logStats) {
                 Logger.logDebugMessage(String.format("Average database transaction time is %.3f seconds",
                                                      (double)times/1000.0/(double)count));
+                DbWriteBatch.logStatistics();
+                SqlProfiler.logStatistics();
+            }
         }
         DbUtils.close(con);
     }
@@ -178,6 +242,18 @@ public class TransactionalDb extends BasicDb {
         transactionCaches.get().values().forEach(Map::clear);
     }
 
+    private static void flushWriteBatch(String sql) throws SQLException {
+        DbWriteBatch batch = localBatch.get();
+        if (batch != null) {
+            batch.flush(sql);
+        }
+    }
+
+    private static void recordWrite(String table) {
+        DbUndoLog.recordWrite(table);
+        TableVersions.recordWrite(table);
+    }
+
     private static void logThreshold(String msg) {
         StringBuilder sb = new StringBuilder(512);
         sb.append(msg).append('\n');
@@ -199,6 +275,7 @@ public class TransactionalDb extends BasicDb {
     private final class DbConnection extends FilteredConnection {
 
         long txStart = 0;
+        long txStartNanos = 0;
 
         private DbConnection(Connection con) {
             super(con, factory);
@@ -257,9 +334,15 @@ public class TransactionalDb extends BasicDb {
 
         @Override
         public boolean execute(String sql) throws SQLException {
-            long start = System.currentTimeMillis();
+            flushWriteBatch(sql);
+            long start = System.nanoTime();
             boolean b = super.execute(sql);
-            long elapsed = System.currentTimeMillis() - start;
+            recordWrite(DbUndoLog.getTargetTable(sql));
+            long time = System.nanoTime() - start;
+            if (SqlProfiler.enabled) {
+                SqlProfiler.getStatistics(sql).record(time, b ? 0 : getUpdateCount());
+            }
+            long elapsed = time / 1000000;
             if (elapsed > stmtThreshold)
                 logThreshold(String.format("SQL statement required %.3f seconds at height %d:\n%s",
                                            (double)elapsed/1000.0, Qoober.getBlockchain().getHeight(), sql));
@@ -268,9 +351,16 @@ public class TransactionalDb extends BasicDb {
 
         @Override
         public ResultSet executeQuery(String sql) throws SQLException {
-            long start = System.currentTimeMillis();
+            flushWriteBatch(sql);
+            long start = System.nanoTime();
             ResultSet r = super.executeQuery(sql);
-            long elapsed = System.currentTimeMillis() - start;
+            long time = System.nanoTime() - start;
+            if (SqlProfiler.enabled) {
+                SqlProfiler.Statistics stats = SqlProfiler.getStatistics(sql);
+                stats.record(time, 0);
+                r = stats.countRows(r);
+            }
+            long elapsed = time / 1000000;
             if (elapsed > stmtThreshold)
                 logThreshold(String.format("SQL statement required %.3f seconds at height %d:\n%s",
                                            (double)elapsed/1000.0, Qoober.getBlockchain().getHeight(), sql));
@@ -279,26 +369,55 @@ public class TransactionalDb extends BasicDb {
 
         @Override
         public int executeUpdate(String sql) throws SQLException {
-            long start = System.currentTimeMillis();
+            flushWriteBatch(sql);
+            long start = System.nanoTime();
             int c = super.executeUpdate(sql);
-            long elapsed = System.currentTimeMillis() - start;
+            recordWrite(DbUndoLog.getTargetTable(sql));
+            long time = System.nanoTime() - start;
+            if (SqlProfiler.enabled) {
+                SqlProfiler.getStatistics(sql).record(time, c);
+            }
+            long elapsed = time / 1000000;
             if (elapsed > stmtThreshold)
                 logThreshold(String.format("SQL statement required %.3f seconds at height %d:\n%s",
                                            (double)elapsed/1000.0, Qoober.getBlockchain().getHeight(), sql));
             return c;
         }
+
+        @Override
+        public void addBatch(String sql) throws SQLException {
+            super.addBatch(sql);
+            recordWrite(DbUndoLog.getTargetTable(sql));
+        }
+
+        @Override
+        public int[] executeBatch() throws SQLException {
+            flushWriteBatch(null);
+            return super.executeBatch();
+        }
     }
 
     private static final class DbPreparedStatement extends FilteredPreparedStatement {
+        private final String targetTable;
+        private final SqlProfiler.Statistics stats;
+
         private DbPreparedStatement(PreparedStatement stmt, String sql) {
             super(stmt, sql);
+            this.targetTable = DbUndoLog.getTargetTable(sql);
+            this.stats = SqlProfiler.enabled ? SqlProfiler.getStatistics(sql) : null;
         }
 
         @Override
         public boolean execute() throws SQLException {
-            long start = System.currentTimeMillis();
+            flushWriteBatch(getSQL());
+            long start = System.nanoTime();
             boolean b = super.execute();
-            long elapsed = System.currentTimeMillis() - start;
+            recordWrite(targetTable);
+            long time = System.nanoTime() - start;
+            if (stats != null) {
+                stats.record(time, b ? 0 : getUpdateCount());
+            }
+            long elapsed = time / 1000000;
             if (elapsed > stmtThreshold)
                 logThreshold(String.format("SQL statement required %.3f seconds at height %d:\n%s",
                                            (double)elapsed/1000.0, Qoober.getBlockchain().getHeight(), getSQL()));
@@ -307,9 +426,15 @@ public class TransactionalDb extends BasicDb {
 
         @Override
         public ResultSet executeQuery() throws SQLException {
-            long start = System.currentTimeMillis();
+            flushWriteBatch(getSQL());
+            long start = System.nanoTime();
             ResultSet r = super.executeQuery();
-            long elapsed = System.currentTimeMillis() - start;
+            long time = System.nanoTime() - start;
+            if (stats != null) {
+                stats.record(time, 0);
+                r = stats.countRows(r);
+            }
+            long elapsed = time / 1000000;
             if (elapsed > stmtThreshold)
                 logThreshold(String.format("SQL statement required %.3f seconds at height %d:\n%s",
                                            (double)elapsed/1000.0, Qoober.getBlockchain().getHeight(), getSQL()));
@@ -318,9 +443,36 @@ public class TransactionalDb extends BasicDb {
 
         @Override
         public int executeUpdate() throws SQLException {
-            long start = System.currentTimeMillis();
+            flushWriteBatch(getSQL());
+            long start = System.nanoTime();
             int c = super.executeUpdate();
-            long elapsed = System.currentTimeMillis() - start;
+            recordWrite(targetTable);
+            long time = System.nanoTime() - start;
+            if (stats != null) {
+                stats.record(time, c);
+            }
+            long elapsed = time / 1000000;
+            if (elapsed > stmtThreshold)
+                logThreshold(String.format("SQL statement required %.3f seconds at height %d:\n%s",
+                                           (double)elapsed/1000.0, Qoober.getBlockchain().getHeight(), getSQL()));
+            return c;
+        }
+
+        @Override
+        public int[] executeBatch() throws SQLException {
+            flushWriteBatch(getSQL());
+            long start = System.nanoTime();
+            int[] c = super.executeBatch();
+            recordWrite(targetTable);
+            long time = System.nanoTime() - start;
+            if (stats != null) {
+                long rows = 0;
+                for (int count : c) {
+                    rows += Math.max(count, 0);
+                }
+                stats.record(time, rows);
+            }
+            long elapsed = time / 1000000;
             if (elapsed > stmtThreshold)
                 logThreshold(String.format("SQL statement required %.3f seconds at height %d:\n%s",
                                            (double)elapsed/1000.0, Qoober.getBlockchain().getHeight(), getSQL()));
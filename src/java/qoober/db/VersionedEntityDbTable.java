@@ -105,6 +105,7 @@ public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
                 count = pstmtDelete.executeUpdate();
                 db.commitTransaction();
             } while (count >= Constants.BATCH_COMMIT_SIZE);
+            DbUndoLog.poppedOff(table, height);
             count = 0;
             for (DbKey dbKey : dbKeys) {
                 int i = 1;
@@ -26,4 +26,8 @@ public abstract class VersionedPrunableDbTable<T> extends PrunableDbTable<T> {
         super(table, dbKeyFactory, true, fullTextSearchColumns);
     }
 
+    protected VersionedPrunableDbTable(String table, DbKey.Factory<T> dbKeyFactory, String fullTextSearchColumns, String[] blobColumns) {
+        super(table, dbKeyFactory, true, fullTextSearchColumns, blobColumns);
+    }
+
 }
@@ -21,6 +21,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 
 import qoober.util.Logger;
+import qoober.util.Metrics;
 
 public class H2ConnectionPool implements ConnectionPool {
     private JdbcConnectionPool wrappedPool;
@@ -31,6 +32,10 @@ public class H2ConnectionPool implements ConnectionPool {
         wrappedPool = JdbcConnectionPool.create(dbUrl, dbUsername, dbPassword);
         wrappedPool.setMaxConnections(maxConnections);
         wrappedPool.setLoginTimeout(loginTimeout);
+        Metrics.gauge("qoober_db_pool_active_connections", "Number of active database connections",
+                wrappedPool::getActiveConnections);
+        Metrics.gauge("qoober_db_pool_max_active_connections", "Largest number of active database connections",
+                () -> maxActiveConnections);
     }
 
     @Override
@@ -264,6 +264,8 @@ public final class API {
 
             apiHandler.addServlet(DbShellServlet.class, "/dbshell");
 
+            apiHandler.addServlet(EventSocketServlet.class, "/events");
+
             if (apiServerCORS) {
                 FilterHolder filterHolder = apiHandler.addFilter(CrossOriginFilter.class, "/*", null);
                 filterHolder.setInitParameter("allowedHeaders", "*");
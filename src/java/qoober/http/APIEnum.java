@@ -211,6 +211,7 @@ public enum APIEnum {
     PUBLISH_EXCHANGE_OFFER("publishExchangeOffer", PublishExchangeOffer.instance),
     RS_CONVERT("rsConvert", RSConvert.instance),
     READ_MESSAGE("readMessage", ReadMessage.instance),
+    READ_MESSAGES("readMessages", ReadMessages.instance),
     SEND_MESSAGE("sendMessage", SendMessage.instance),
     SEND_MONEY("sendMoney", SendMoney.instance),
     SET_ACCOUNT_INFO("setAccountInfo", SetAccountInfo.instance),
@@ -267,6 +268,8 @@ public enum APIEnum {
     DUMP_PEERS("dumpPeers", DumpPeers.instance),
     GET_LOG("getLog", GetLog.instance),
     GET_STACK_TRACES("getStackTraces", GetStackTraces.instance),
+    GET_METRICS("getMetrics", GetMetrics.instance),
+    GET_SQL_STATISTICS("getSqlStatistics", GetSqlStatistics.instance),
     RETRIEVE_PRUNED_DATA("retrievePrunedData", RetrievePrunedData.instance),
     RETRIEVE_PRUNED_TRANSACTION("retrievePrunedTransaction", RetrievePrunedTransaction.instance),
     SET_LOGGING("setLogging", SetLogging.instance),
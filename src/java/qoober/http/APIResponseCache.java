@@ -0,0 +1,264 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober.http;
+
+import qoober.BlockchainProcessor;
+import qoober.Qoober;
+import qoober.crypto.Crypto;
+import qoober.util.Convert;
+import qoober.util.JSON;
+import org.json.simple.JSONStreamAware;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Cache of the responses of read-only API requests
+ *
+ * Request handlers opt in by overriding {@link APIServlet.APIRequestHandler#allowResponseCache()} and
+ * decide how long each response remains valid. Responses are keyed by the request type and the sorted
+ * request parameters, and are invalidated when a block is pushed or popped. Requests that include
+ * a secret phrase or a password are never cached.
+ */
+public final class APIResponseCache {
+
+    /**
+     * Validity of a cached response
+     */
+    public enum Validity {
+        /** Do not cache the response */
+        NONE,
+        /** Valid until the next block is pushed or popped or until the current epoch second ends */
+        SECOND,
+        /** Valid until the next block is pushed or popped */
+        BLOCK,
+        /** Valid until a block is popped, used for data deeper than the maximum rollback */
+        PERMANENT
+    }
+
+    /** Maximum number of cached responses, 0 to disable the cache */
+    private static final int cacheSize = Qoober.getIntProperty("qoober.apiResponseCacheSize", 1000);
+
+    /** Cached responses in access order */
+    private static final Map<String, Entry> cache = new LinkedHashMap<String, Entry>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > cacheSize;
+        }
+    };
+
+    /** Incremented each time the blockchain changes */
+    private static long generation;
+
+    static {
+        if (cacheSize > 0) {
+            Qoober.getBlockchainProcessor().addListener(block -> blockchainChanged(false), BlockchainProcessor.Event.BLOCK_PUSHED);
+            Qoober.getBlockchainProcessor().addListener(block -> blockchainChanged(true), BlockchainProcessor.Event.BLOCK_POPPED);
+            Qoober.getBlockchainProcessor().addListener(block -> blockchainChanged(true), BlockchainProcessor.Event.RESCAN_BEGIN);
+        }
+    }
+
+    /**
+     * Cached response
+     */
+    static final class Entry implements JSONStreamAware {
+
+        private final String response;
+        private final String etag;
+        private final Validity validity;
+        private final long generation;
+        private final int time;
+
+        private Entry(String response, Validity validity, long generation) {
+            this.response = response;
+            this.validity = validity;
+            this.generation = generation;
+            this.time = Qoober.getEpochTime();
+            byte[] hash = Crypto.sha256().digest(response.getBytes(StandardCharsets.UTF_8));
+            this.etag = "\"" + Convert.toHexString(Arrays.copyOf(hash, 16)) + "\"";
+        }
+
+        /**
+         * Get the entity tag of the response
+         *
+         * @return                      Quoted entity tag
+         */
+        String getETag() {
+            return etag;
+        }
+
+        /**
+         * Check if the client already has this response
+         *
+         * @param   req                 HTTP request
+         * @return                      TRUE if the If-None-Match header matches the entity tag
+         */
+        boolean isNotModified(HttpServletRequest req) {
+            String ifNoneMatch = req.getHeader("If-None-Match");
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals(etag) || tag.equals("*")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isValid(long currentGeneration) {
+            switch (validity) {
+                case SECOND:
+                    return generation == currentGeneration && time == Qoober.getEpochTime();
+                case BLOCK:
+                    return generation == currentGeneration;
+                default:
+                    return true;
+            }
+        }
+
+        /**
+         * Get the response with the processing time of the current request
+         *
+         * @param   requestProcessingTime   Request processing time (milliseconds)
+         * @return                      Response
+         */
+        JSONStreamAware withRequestProcessingTime(long requestProcessingTime) {
+            int end = response.lastIndexOf('}');
+            if (!response.startsWith("{") || end < 1) {
+                return this;
+            }
+            return out -> {
+                out.write(response, 0, end);
+                out.write(end > 1 ? ",\"requestProcessingTime\":" : "\"requestProcessingTime\":");
+                out.write(Long.toString(requestProcessingTime));
+                out.write(response, end, response.length() - end);
+            };
+        }
+
+        @Override
+        public void writeJSONString(Writer out) throws IOException {
+            out.write(response);
+        }
+    }
+
+    private APIResponseCache() {}
+
+    /**
+     * Get the cache key for a request
+     *
+     * @param   req                     HTTP request
+     * @return                          Cache key or null if the request cannot be cached
+     */
+    static String getKey(HttpServletRequest req) {
+        if (cacheSize <= 0) {
+            return null;
+        }
+        Map<String, String[]> parameters = new TreeMap<>(req.getParameterMap());
+        if (parameters.containsKey("requireBlock") || parameters.containsKey("requireLastBlock")) {
+            return null;
+        }
+        parameters.remove("random");
+        parameters.remove("_");
+        StringBuilder sb = new StringBuilder(128);
+        for (Map.Entry<String, String[]> parameter : parameters.entrySet()) {
+            String name = parameter.getKey().toLowerCase(Locale.ROOT);
+            if (name.contains("secret") || name.contains("password") || name.contains("sharedkey")) {
+                return null;
+            }
+            for (String value : parameter.getValue()) {
+                sb.append(parameter.getKey()).append('=').append(value).append('&');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the current blockchain generation, the generation must be obtained before
+     * the response is created
+     *
+     * @return                          Generation
+     */
+    static synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Get a cached response
+     *
+     * @param   key                     Cache key
+     * @return                          Cached response or null if there is no valid response
+     */
+    static synchronized Entry get(String key) {
+        Entry entry = cache.get(key);
+        if (entry != null && !entry.isValid(generation)) {
+            cache.remove(key);
+            entry = null;
+        }
+        return entry;
+    }
+
+    /**
+     * Cache a response
+     *
+     * @param   key                     Cache key
+     * @param   response                Response
+     * @param   validity                Response validity
+     * @param   responseGeneration      Blockchain generation when the response was created
+     * @return                          Cached response
+     */
+    static Entry put(String key, JSONStreamAware response, Validity validity, long responseGeneration) {
+        Entry entry = new Entry(JSON.toString(response), validity, responseGeneration);
+        synchronized (APIResponseCache.class) {
+            if (responseGeneration == generation) {
+                cache.put(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Invalidate cached responses when the blockchain changes
+     *
+     * @param   popped                  TRUE if blocks have been removed from the blockchain
+     */
+    private static synchronized void blockchainChanged(boolean popped) {
+        generation++;
+        if (popped) {
+            cache.clear();
+        } else {
+            Iterator<Entry> it = cache.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().validity != Validity.PERMANENT) {
+                    it.remove();
+                }
+            }
+        }
+    }
+}
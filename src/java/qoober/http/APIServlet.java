@@ -23,6 +23,7 @@ import qoober.QooberException;
 import qoober.addons.AddOns;
 import qoober.util.JSON;
 import qoober.util.Logger;
+import qoober.util.Metrics;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
@@ -126,6 +127,28 @@ public final class APIServlet extends HttpServlet {
             return false;
         }
 
+        /**
+         * Check if the responses of this handler can be cached, the handler must not modify
+         * any state and its responses must only depend on the request parameters and the blockchain
+         *
+         * @return                      TRUE if responses can be cached
+         */
+        protected boolean allowResponseCache() {
+            return false;
+        }
+
+        /**
+         * Get the validity of a response returned by this handler
+         *
+         * @param   request             HTTP request
+         * @param   response            Response returned by the handler
+         * @return                      Response validity
+         */
+        protected APIResponseCache.Validity getCacheValidity(HttpServletRequest request, JSONStreamAware response) {
+            return response instanceof JSONObject && ((JSONObject) response).get("errorCode") == null ?
+                    APIResponseCache.Validity.BLOCK : APIResponseCache.Validity.NONE;
+        }
+
     }
 
     private static final boolean enforcePost = Qoober.getBooleanProperty("qoober.apiServerEnforcePOST");
@@ -205,6 +228,10 @@ public final class APIServlet extends HttpServlet {
 
         JSONStreamAware response = JSON.emptyJSON;
         long startTime = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        Metrics.Histogram requestTime = null;
+        String cacheKey = null;
+        long cacheGeneration = 0;
 
         try {
 
@@ -228,6 +255,7 @@ public final class APIServlet extends HttpServlet {
                 }
                 return;
             }
+            requestTime = Metrics.histogram("qoober_api_request_seconds", "API request processing time", "requestType", requestType);
 
             if (Constants.isLightClient && apiRequestHandler.requireFullClient()) {
                 response = LIGHT_CLIENT_DISABLED_API;
@@ -242,6 +270,17 @@ public final class APIServlet extends HttpServlet {
             if (apiRequestHandler.requirePassword()) {
                 API.verifyPassword(req);
             }
+            if (apiRequestHandler.allowResponseCache()) {
+                cacheKey = APIResponseCache.getKey(req);
+                if (cacheKey != null) {
+                    APIResponseCache.Entry entry = APIResponseCache.get(cacheKey);
+                    if (entry != null) {
+                        response = entry;
+                        return;
+                    }
+                    cacheGeneration = APIResponseCache.getGeneration();
+                }
+            }
             final long requireBlockId = apiRequestHandler.allowRequiredBlockParameters() ?
                     ParameterParser.getUnsignedLong(req, "requireBlock", false) : 0;
             final long requireLastBlockId = apiRequestHandler.allowRequiredBlockParameters() ?
@@ -263,8 +302,18 @@ public final class APIServlet extends HttpServlet {
                         return;
                     }
                     response = apiRequestHandler.processRequest(req, resp);
-                    if (requireLastBlockId == 0 && requireBlockId != 0 && response instanceof JSONObject) {
-                        ((JSONObject) response).put("lastBlock", Qoober.getBlockchain().getLastBlock().getStringId());
+                    if (requireLastBlockId == 0 && requireBlockId != 0) {
+                        if (response instanceof JSONObject) {
+                            ((JSONObject) response).put("lastBlock", Qoober.getBlockchain().getLastBlock().getStringId());
+                        } else if (response instanceof JSONStreamResponse) {
+                            ((JSONStreamResponse) response).put("lastBlock", Qoober.getBlockchain().getLastBlock().getStringId());
+                        }
+                    }
+                    if (cacheKey != null && response != null) {
+                        APIResponseCache.Validity validity = apiRequestHandler.getCacheValidity(req, response);
+                        if (validity != APIResponseCache.Validity.NONE) {
+                            response = APIResponseCache.put(cacheKey, response, validity, cacheGeneration);
+                        }
                     }
                 } finally {
                     if (apiRequestHandler.startDbTransaction()) {
@@ -291,14 +340,32 @@ public final class APIServlet extends HttpServlet {
             response = ERROR_INCORRECT_REQUEST;
         } finally {
             // The response will be null if we created an asynchronous context
+            if (response instanceof APIResponseCache.Entry) {
+                APIResponseCache.Entry entry = (APIResponseCache.Entry) response;
+                resp.setHeader("Cache-Control", "private, no-cache");
+                resp.setHeader("Pragma", null);
+                resp.setHeader("Expires", null);
+                resp.setHeader("ETag", entry.getETag());
+                if (entry.isNotModified(req)) {
+                    resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    response = null;
+                }
+            }
             if (response != null) {
                 if (response instanceof JSONObject) {
                     ((JSONObject) response).put("requestProcessingTime", System.currentTimeMillis() - startTime);
+                } else if (response instanceof JSONStreamResponse) {
+                    ((JSONStreamResponse) response).put("requestProcessingTime", System.currentTimeMillis() - startTime);
+                } else if (response instanceof APIResponseCache.Entry) {
+                    response = ((APIResponseCache.Entry) response).withRequestProcessingTime(System.currentTimeMillis() - startTime);
                 }
                 try (Writer writer = resp.getWriter()) {
                     JSON.writeJSONString(response, writer);
                 }
             }
+            if (requestTime != null) {
+                requestTime.update(System.nanoTime() - startNanos);
+            }
         }
 
     }
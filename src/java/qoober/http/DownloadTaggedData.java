@@ -19,6 +19,7 @@ package qoober.http;
 import qoober.Qoober;
 import qoober.QooberException;
 import qoober.TaggedData;
+import qoober.db.BlobStore;
 import org.json.simple.JSONStreamAware;
 
 import javax.servlet.http.HttpServletRequest;
@@ -27,6 +28,11 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static qoober.http.JSONResponses.PRUNED_TRANSACTION;
 
@@ -34,6 +40,9 @@ public final class DownloadTaggedData extends APIServlet.APIRequestHandler {
 
     static final DownloadTaggedData instance = new DownloadTaggedData();
 
+    /** Single byte range request */
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
     private DownloadTaggedData() {
         super(new APITag[] {APITag.DATA}, "transaction", "retrieve");
     }
@@ -52,7 +61,30 @@ public final class DownloadTaggedData extends APIServlet.APIRequestHandler {
         if (taggedData == null) {
             return JSONResponses.incorrect("transaction", "Tagged data not found");
         }
-        byte[] data = taggedData.getData();
+        try (FileChannel channel = BlobStore.open(taggedData.getDataHash())) {
+            if (channel == null) {
+                return PRUNED_TRANSACTION;
+            }
+            return download(request, response, taggedData, channel);
+        } catch (IOException e) {
+            throw new ParameterException(JSONResponses.RESPONSE_STREAM_ERROR);
+        }
+    }
+
+    /**
+     * Send the tagged data or the requested byte range, the data is copied from the blob file
+     * to the response without being read into memory
+     *
+     * @param   request             API request
+     * @param   response            API response
+     * @param   taggedData          Tagged data
+     * @param   channel             Blob file channel
+     * @return                      Null if the response has been written
+     * @throws  IOException         Unable to read the blob file
+     * @throws  ParameterException  Unable to write the response
+     */
+    private static JSONStreamAware download(HttpServletRequest request, HttpServletResponse response,
+                                            TaggedData taggedData, FileChannel channel) throws IOException, ParameterException {
         if (!taggedData.getType().equals("")) {
             response.setContentType(taggedData.getType());
         } else {
@@ -68,10 +100,60 @@ public final class DownloadTaggedData extends APIServlet.APIRequestHandler {
             contentDisposition += "; filename*=UTF-8''" + uri.toASCIIString();
         } catch (URISyntaxException ignore) {}
         response.setHeader("Content-Disposition", contentDisposition);
-        response.setContentLength(data.length);
+        response.setHeader("Accept-Ranges", "bytes");
+        long length = channel.size();
+        long position = 0;
+        String range = request.getHeader("Range");
+        if (range != null) {
+            //
+            // Return the requested byte range.  Multiple ranges are not supported and result in
+            // the full content being returned.
+            //
+            Matcher matcher = RANGE_PATTERN.matcher(range.trim());
+            if (matcher.matches() && !(matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+                long start, end;
+                try {
+                    if (matcher.group(1).isEmpty()) {
+                        start = Math.max(length - Long.parseLong(matcher.group(2)), 0);
+                        end = length - 1;
+                    } else {
+                        start = Long.parseLong(matcher.group(1));
+                        end = matcher.group(2).isEmpty() ? length - 1 : Math.min(Long.parseLong(matcher.group(2)), length - 1);
+                    }
+                } catch (NumberFormatException e) {
+                    start = length;
+                    end = -1;
+                }
+                if (start >= length || start > end) {
+                    response.setHeader("Content-Range", "bytes */" + length);
+                    response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    response.setContentLength(0);
+                    return null;
+                }
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+                position = start;
+                length = end - start + 1;
+            }
+        }
+        response.setContentLengthLong(length);
         try (OutputStream out = response.getOutputStream()) {
+            WritableByteChannel target = Channels.newChannel(out);
+            while (length > 0) {
+                long count;
+                try {
+                    count = channel.transferTo(position, length, target);
+                } catch (IOException e) {
+                    throw new ParameterException(JSONResponses.RESPONSE_WRITE_ERROR);
+                }
+                if (count <= 0) {
+                    throw new IOException("Unexpected end of blob");
+                }
+                position += count;
+                length -= count;
+            }
             try {
-                out.write(data);
+                out.flush();
             } catch (IOException e) {
                 throw new ParameterException(JSONResponses.RESPONSE_WRITE_ERROR);
             }
@@ -0,0 +1,242 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober.http;
+
+import qoober.AccountLedger;
+import qoober.AccountLedger.LedgerEntry;
+import qoober.Block;
+import qoober.BlockchainProcessor;
+import qoober.Db;
+import qoober.Transaction;
+import qoober.TransactionProcessor;
+import qoober.db.TransactionalDb;
+import qoober.peer.Peers;
+import qoober.util.Convert;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * EventPublisher delivers peer, block, transaction and account ledger events to the
+ * WebSocket event subscribers.
+ *
+ * A single Qoober listener is registered for each supported event and each event is
+ * serialized once, no matter how many subscribers receive it.  Events raised within a
+ * database transaction are held until the transaction is committed and are discarded
+ * if the transaction is rolled back.  The supported events are the same as for the
+ * EventRegister API.
+ */
+final class EventPublisher implements TransactionalDb.TransactionCallback {
+
+    /** Active subscribers */
+    private static final Set<EventSocket> subscribers = new CopyOnWriteArraySet<>();
+
+    /** Events waiting for the database transaction of the current thread to be committed */
+    private static final ThreadLocal<List<Event>> dbEvents = new ThreadLocal<>();
+
+    /** Transaction callback */
+    private static final EventPublisher instance = new EventPublisher();
+
+    static {
+        EventListener.peerEvents.forEach(event ->
+                Peers.addListener(peer -> {
+                    if (!subscribers.isEmpty()) {
+                        publish(new Event("Peer", event, null, peer.getHost()));
+                    }
+                }, event));
+        EventListener.blockEvents.forEach(event ->
+                EventListener.blockchainProcessor.addListener(block -> publish(blockEvent(block, event)), event));
+        EventListener.txEvents.forEach(event ->
+                EventListener.transactionProcessor.addListener(transactions -> {
+                    if (!subscribers.isEmpty()) {
+                        transactions.forEach(transaction -> publish(transactionEvent(transaction, event)));
+                    }
+                }, event));
+        EventListener.ledgerEvents.forEach(event ->
+                AccountLedger.addListener(entry -> publish(ledgerEvent(entry, event)), event));
+    }
+
+    /**
+     * Serialized event
+     */
+    static final class Event {
+
+        /** Event kind (Block, Peer, Transaction or Ledger) */
+        private final String kind;
+
+        /** Event name as used by EventRegister */
+        private final String name;
+
+        /** Accounts affected by the event or null if the event is not specific to an account */
+        private final long[] accounts;
+
+        /** JSON message */
+        private final String message;
+
+        private Event(String kind, Enum<?> event, long[] accounts, String id) {
+            this(kind, event, accounts, id, new JSONObject());
+        }
+
+        private Event(String kind, Enum<?> event, long[] accounts, String id, JSONObject json) {
+            this.kind = kind;
+            this.name = kind + "." + event.name();
+            this.accounts = accounts;
+            JSONObject message = new JSONObject();
+            message.put("event", name);
+            message.put("id", id);
+            message.putAll(json);
+            this.message = message.toJSONString();
+        }
+
+        String getKind() {
+            return kind;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        long[] getAccounts() {
+            return accounts;
+        }
+
+        String getMessage() {
+            return message;
+        }
+    }
+
+    private EventPublisher() {}
+
+    /**
+     * Add a subscriber
+     *
+     * @param   subscriber          Subscriber
+     * @return                      TRUE if the subscriber was added, FALSE if there are too many subscribers
+     */
+    static synchronized boolean addSubscriber(EventSocket subscriber) {
+        if (subscribers.size() >= EventListener.maxEventUsers) {
+            return false;
+        }
+        subscribers.add(subscriber);
+        return true;
+    }
+
+    /**
+     * Remove a subscriber
+     *
+     * @param   subscriber          Subscriber
+     */
+    static void removeSubscriber(EventSocket subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    /**
+     * Get the number of subscribers
+     *
+     * @return                      Subscriber count
+     */
+    static int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Publish an event, the event is held until the current database transaction is committed
+     *
+     * @param   event               Event or null if there are no subscribers
+     */
+    private static void publish(Event event) {
+        if (event == null) {
+            return;
+        }
+        if (Db.db.isInTransaction()) {
+            List<Event> events = dbEvents.get();
+            if (events == null) {
+                events = new ArrayList<>();
+                dbEvents.set(events);
+            }
+            events.add(event);
+            Db.db.registerCallback(instance);
+        } else {
+            deliver(event);
+        }
+    }
+
+    private static void deliver(Event event) {
+        subscribers.forEach(subscriber -> subscriber.offer(event));
+    }
+
+    @Override
+    public void commit() {
+        List<Event> events = dbEvents.get();
+        dbEvents.remove();
+        if (events != null) {
+            events.forEach(EventPublisher::deliver);
+        }
+    }
+
+    @Override
+    public void rollback() {
+        dbEvents.remove();
+    }
+
+    private static Event blockEvent(Block block, BlockchainProcessor.Event event) {
+        if (subscribers.isEmpty()) {
+            return null;
+        }
+        JSONObject json = new JSONObject();
+        json.put("height", block.getHeight());
+        json.put("timestamp", block.getTimestamp());
+        json.put("generator", Convert.rsAccount(block.getGeneratorId()));
+        return new Event("Block", event, null, block.getStringId(), json);
+    }
+
+    private static Event transactionEvent(Transaction transaction, TransactionProcessor.Event event) {
+        JSONObject json = new JSONObject();
+        json.put("sender", Convert.rsAccount(transaction.getSenderId()));
+        long[] accounts;
+        if (transaction.getRecipientId() != 0) {
+            json.put("recipient", Convert.rsAccount(transaction.getRecipientId()));
+            accounts = new long[] {transaction.getSenderId(), transaction.getRecipientId()};
+        } else {
+            accounts = new long[] {transaction.getSenderId()};
+        }
+        json.put("type", transaction.getType().getType());
+        json.put("subtype", transaction.getType().getSubtype());
+        return new Event("Transaction", event, accounts, transaction.getStringId(), json);
+    }
+
+    private static Event ledgerEvent(LedgerEntry entry, AccountLedger.Event event) {
+        if (subscribers.isEmpty()) {
+            return null;
+        }
+        JSONObject json = new JSONObject();
+        json.put("account", Convert.rsAccount(entry.getAccountId()));
+        json.put("eventType", entry.getEvent().name());
+        json.put("holding", entry.getHolding().name());
+        if (entry.getHoldingId() != null) {
+            json.put("holdingId", Long.toUnsignedString(entry.getHoldingId()));
+        }
+        json.put("change", entry.getChange());
+        json.put("balance", entry.getBalance());
+        json.put("height", entry.getHeight());
+        return new Event("Ledger", event, new long[] {entry.getAccountId()},
+                Long.toUnsignedString(entry.getLedgerId()), json);
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober.http;
+
+import qoober.Qoober;
+import qoober.util.Convert;
+import qoober.util.Logger;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketError;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
+import org.eclipse.jetty.websocket.api.annotations.WebSocket;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * EventSocket is a WebSocket connection subscribed to the events published by
+ * the EventPublisher.
+ *
+ * The subscription is specified by the "event" and "account" parameters of the upgrade
+ * request and can be replaced by sending a JSON message with "event" and "account" arrays.
+ * An event name is either a full event name such as "Block.BLOCK_PUSHED" or an event
+ * kind such as "Transaction" to select all events of that kind.  Transaction and ledger
+ * events are only delivered if they affect one of the subscribed accounts.  No event
+ * names means all events and no accounts means all accounts.
+ *
+ * Messages are sent asynchronously, one at a time.  Events are dropped when the
+ * subscriber queue is full and a "Dropped" message with the number of dropped events
+ * is sent before the next event that fits in the queue.
+ */
+@WebSocket
+public final class EventSocket {
+
+    /** Maximum number of messages waiting to be sent to a subscriber */
+    static final int queueSize = Math.max(Qoober.getIntProperty("qoober.apiEventQueueSize", 1000), 1);
+
+    /** Event kinds */
+    private static final Set<String> eventKinds = new HashSet<>();
+
+    /** Supported event names */
+    private static final Set<String> eventNames = new HashSet<>();
+    static {
+        Collections.addAll(eventKinds, "Peer", "Block", "Transaction", "Ledger");
+        EventListener.peerEvents.forEach(event -> eventNames.add("Peer." + event.name()));
+        EventListener.blockEvents.forEach(event -> eventNames.add("Block." + event.name()));
+        EventListener.txEvents.forEach(event -> eventNames.add("Transaction." + event.name()));
+        EventListener.ledgerEvents.forEach(event -> eventNames.add("Ledger." + event.name()));
+    }
+
+    /** Remote address */
+    private final String address;
+
+    /** Subscribed events, empty for all events */
+    private volatile Set<String> events;
+
+    /** Subscribed accounts, empty for all accounts */
+    private volatile Set<Long> accounts;
+
+    /** WebSocket session */
+    private volatile Session session;
+
+    /** Messages waiting to be sent */
+    private final ArrayDeque<String> queue = new ArrayDeque<>();
+
+    /** A message is being sent */
+    private boolean writing;
+
+    /** A thread is sending the queued messages */
+    private boolean draining;
+
+    /** Number of events dropped since the last message was queued */
+    private long dropped;
+
+    /** Write completion */
+    private final WriteCallback writeCallback = new WriteCallback() {
+        @Override
+        public void writeSuccess() {
+            synchronized (EventSocket.this) {
+                writing = false;
+            }
+            drain();
+        }
+
+        @Override
+        public void writeFailed(Throwable exc) {
+            Logger.logDebugMessage(String.format("Unable to send event to %s: %s", address, exc.toString()));
+            Session s = session;
+            if (s != null) {
+                s.close(StatusCode.SERVER_ERROR, "Unable to send event");
+            }
+        }
+    };
+
+    /**
+     * Create an event socket
+     *
+     * @param   address             Remote address
+     * @param   events              Subscribed events
+     * @param   accounts            Subscribed accounts
+     */
+    EventSocket(String address, Set<String> events, Set<Long> accounts) {
+        this.address = address;
+        this.events = events;
+        this.accounts = accounts;
+    }
+
+    /**
+     * Parse the event names
+     *
+     * @param   names               Event names or null
+     * @return                      Event names
+     * @throws  IllegalArgumentException  Event name is not valid
+     */
+    static Set<String> parseEvents(Collection<?> names) {
+        Set<String> events = new HashSet<>();
+        if (names != null) {
+            for (Object name : names) {
+                String event = String.valueOf(name).trim();
+                if (!eventKinds.contains(event) && !eventNames.contains(event)) {
+                    throw new IllegalArgumentException("Unsupported event: " + event);
+                }
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Parse the account identifiers
+     *
+     * @param   names               Account identifiers or null
+     * @return                      Account identifiers
+     * @throws  IllegalArgumentException  Account identifier is not valid
+     */
+    static Set<Long> parseAccounts(Collection<?> names) {
+        Set<Long> accounts = new HashSet<>();
+        if (names != null) {
+            for (Object name : names) {
+                long accountId;
+                try {
+                    accountId = Convert.parseAccountId(String.valueOf(name).trim());
+                } catch (RuntimeException e) {
+                    throw new IllegalArgumentException("Incorrect account: " + name, e);
+                }
+                if (accountId == 0) {
+                    throw new IllegalArgumentException("Incorrect account: " + name);
+                }
+                accounts.add(accountId);
+            }
+        }
+        return accounts;
+    }
+
+    /**
+     * WebSocket connection complete
+     *
+     * @param   session             WebSocket session
+     */
+    @OnWebSocketConnect
+    public void onConnect(Session session) {
+        this.session = session;
+        if (!EventPublisher.addSubscriber(this)) {
+            session.close(StatusCode.TRY_AGAIN_LATER,
+                    String.format("Too many API event users: Maximum %d", EventListener.maxEventUsers));
+            return;
+        }
+        offerMessage(subscribedMessage());
+        Logger.logDebugMessage(String.format("Event subscriber connected from %s", address));
+    }
+
+    /**
+     * Replace the subscription
+     *
+     * @param   message             JSON message with "event" and "account" arrays
+     */
+    @OnWebSocketMessage
+    public void onMessage(String message) {
+        JSONObject response;
+        try {
+            Object request = JSONValue.parse(message);
+            if (!(request instanceof JSONObject)) {
+                throw new IllegalArgumentException("Subscription must be a JSON object");
+            }
+            Object eventList = ((JSONObject) request).get("event");
+            Object accountList = ((JSONObject) request).get("account");
+            Set<String> newEvents = parseEvents(eventList instanceof List ? (List<?>) eventList :
+                    eventList != null ? Collections.singletonList(eventList) : null);
+            Set<Long> newAccounts = parseAccounts(accountList instanceof List ? (List<?>) accountList :
+                    accountList != null ? Collections.singletonList(accountList) : null);
+            events = newEvents;
+            accounts = newAccounts;
+            response = subscribedMessage();
+        } catch (RuntimeException e) {
+            response = new JSONObject();
+            response.put("event", "Error");
+            response.put("errorDescription", e.getMessage());
+        }
+        offerMessage(response);
+    }
+
+    /**
+     * WebSocket connection closed
+     *
+     * @param   statusCode          Status code
+     * @param   reason              Reason message
+     */
+    @OnWebSocketClose
+    public void onClose(int statusCode, String reason) {
+        EventPublisher.removeSubscriber(this);
+        synchronized (this) {
+            queue.clear();
+        }
+        session = null;
+        Logger.logDebugMessage(String.format("Event subscriber disconnected from %s: %d %s", address, statusCode,
+                reason != null ? reason : ""));
+    }
+
+    /**
+     * WebSocket error detected
+     *
+     * @param   cause               Error
+     */
+    @OnWebSocketError
+    public void onError(Throwable cause) {
+        Logger.logDebugMessage(String.format("Event subscriber error for %s: %s", address, cause.toString()));
+    }
+
+    /**
+     * Queue an event if it matches the subscription
+     *
+     * @param   event               Event
+     */
+    void offer(EventPublisher.Event event) {
+        Set<String> subscribedEvents = events;
+        if (!subscribedEvents.isEmpty() && !subscribedEvents.contains(event.getName())
+                && !subscribedEvents.contains(event.getKind())) {
+            return;
+        }
+        Set<Long> subscribedAccounts = accounts;
+        long[] eventAccounts = event.getAccounts();
+        if (!subscribedAccounts.isEmpty() && eventAccounts != null) {
+            boolean match = false;
+            for (long accountId : eventAccounts) {
+                if (subscribedAccounts.contains(accountId)) {
+                    match = true;
+                    break;
+                }
+            }
+            if (!match) {
+                return;
+            }
+        }
+        offer(event.getMessage());
+    }
+
+    private void offerMessage(JSONObject message) {
+        offer(message.toJSONString());
+    }
+
+    private void offer(String message) {
+        synchronized (this) {
+            if (session == null) {
+                return;
+            }
+            if (queue.size() >= queueSize) {
+                dropped++;
+                return;
+            }
+            if (dropped > 0) {
+                JSONObject droppedMessage = new JSONObject();
+                droppedMessage.put("event", "Dropped");
+                droppedMessage.put("count", dropped);
+                queue.add(droppedMessage.toJSONString());
+                dropped = 0;
+            }
+            queue.add(message);
+        }
+        drain();
+    }
+
+    /**
+     * Send the queued messages, a write that completes on the sending thread
+     * continues the loop instead of starting a nested one
+     */
+    private void drain() {
+        synchronized (this) {
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        while (true) {
+            String message;
+            Session s;
+            synchronized (this) {
+                s = session;
+                if (writing || queue.isEmpty() || s == null || !s.isOpen()) {
+                    draining = false;
+                    return;
+                }
+                message = queue.poll();
+                writing = true;
+            }
+            try {
+                s.getRemote().sendString(message, writeCallback);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    writing = false;
+                    draining = false;
+                }
+                writeCallback.writeFailed(e);
+                return;
+            }
+        }
+    }
+
+    private JSONObject subscribedMessage() {
+        JSONObject response = new JSONObject();
+        response.put("event", "Subscribed");
+        JSONArray eventArray = new JSONArray();
+        eventArray.addAll(events);
+        response.put("events", eventArray);
+        JSONArray accountArray = new JSONArray();
+        accounts.forEach(accountId -> accountArray.add(Convert.rsAccount(accountId)));
+        response.put("accounts", accountArray);
+        response.put("queueSize", queueSize);
+        return response;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober.http;
+
+import qoober.util.Logger;
+import org.eclipse.jetty.websocket.servlet.ServletUpgradeRequest;
+import org.eclipse.jetty.websocket.servlet.ServletUpgradeResponse;
+import org.eclipse.jetty.websocket.servlet.WebSocketCreator;
+import org.eclipse.jetty.websocket.servlet.WebSocketServlet;
+import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * EventSocketServlet accepts the WebSocket connections of the event subscribers.
+ *
+ * The connection is opened with a WebSocket upgrade request to /events.  The optional
+ * "event" and "account" request parameters select the events that are delivered.  Idle
+ * connections are closed after qoober.apiEventTimeout seconds, so subscribers should send
+ * a ping if they do not expect events for a longer time.
+ */
+public final class EventSocketServlet extends WebSocketServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Configure the WebSocket factory
+     *
+     * @param   factory             WebSocket factory
+     */
+    @Override
+    public void configure(WebSocketServletFactory factory) {
+        factory.getPolicy().setIdleTimeout(EventListener.eventTimeout * 1000L);
+        factory.getPolicy().setMaxTextMessageSize(64 * 1024);
+        factory.setCreator(new EventSocketCreator());
+    }
+
+    /**
+     * WebSocket creator for event subscribers
+     */
+    private static class EventSocketCreator implements WebSocketCreator {
+        /**
+         * Create an event WebSocket
+         *
+         * @param   req             WebSocket upgrade request
+         * @param   resp            WebSocket upgrade response
+         * @return                  WebSocket or null if the request is rejected
+         */
+        @Override
+        public Object createWebSocket(ServletUpgradeRequest req, ServletUpgradeResponse resp) {
+            String address = req.getHttpServletRequest().getRemoteHost();
+            try {
+                if (!API.isAllowed(address)) {
+                    resp.sendError(HttpServletResponse.SC_FORBIDDEN, "Not allowed");
+                    return null;
+                }
+                Map<String, List<String>> parameters = req.getParameterMap();
+                Set<String> events;
+                Set<Long> accounts;
+                try {
+                    events = EventSocket.parseEvents(parameters.get("event"));
+                    accounts = EventSocket.parseAccounts(parameters.get("account"));
+                } catch (RuntimeException e) {
+                    resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+                    return null;
+                }
+                return new EventSocket(address, events, accounts);
+            } catch (IOException e) {
+                Logger.logDebugMessage(String.format("Unable to reject event subscriber %s: %s", address, e.toString()));
+                return null;
+            }
+        }
+    }
+}
@@ -18,9 +18,8 @@ package qoober.http;
 
 import qoober.QooberException;
 import qoober.Trade;
+import qoober.db.DbCursor;
 import qoober.db.DbIterator;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
 import javax.servlet.http.HttpServletRequest;
@@ -30,29 +29,21 @@ public final class GetAllTrades extends APIServlet.APIRequestHandler {
     static final GetAllTrades instance = new GetAllTrades();
 
     private GetAllTrades() {
-        super(new APITag[] {APITag.AE}, "timestamp", "firstIndex", "lastIndex", "includeAssetInfo");
+        super(new APITag[] {APITag.AE}, "timestamp", "firstIndex", "lastIndex", "includeAssetInfo", "cursor");
     }
     
     @Override
     protected JSONStreamAware processRequest(HttpServletRequest req) throws QooberException {
         final int timestamp = ParameterParser.getTimestamp(req);
+        DbCursor cursor = ParameterParser.getCursor(req);
         int firstIndex = ParameterParser.getFirstIndex(req);
         int lastIndex = ParameterParser.getLastIndex(req);
         boolean includeAssetInfo = "true".equalsIgnoreCase(req.getParameter("includeAssetInfo"));
 
-        JSONObject response = new JSONObject();
-        JSONArray trades = new JSONArray();
-        try (DbIterator<Trade> tradeIterator = Trade.getAllTrades(firstIndex, lastIndex)) {
-            while (tradeIterator.hasNext()) {
-                Trade trade = tradeIterator.next();
-                if (trade.getTimestamp() < timestamp) {
-                    break;
-                }
-                trades.add(JSONData.trade(trade, includeAssetInfo));
-            }
-        }
-        response.put("trades", trades);
-        return response;
+        DbIterator<Trade> tradeIterator = Trade.getAllTrades(cursor, firstIndex, lastIndex);
+        return new JSONStreamResponse<Trade>("trades", tradeIterator, trade -> JSONData.trade(trade, includeAssetInfo))
+                .takeWhile(trade -> trade.getTimestamp() >= timestamp)
+                .withCursor(firstIndex, lastIndex);
     }
 
 }
@@ -18,7 +18,6 @@ package qoober.http;
 
 import qoober.QooberException;
 import qoober.Order;
-import qoober.db.DbIterator;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
@@ -41,10 +40,8 @@ public final class GetAskOrderIds extends APIServlet.APIRequestHandler {
         int lastIndex = ParameterParser.getLastIndex(req);
 
         JSONArray orderIds = new JSONArray();
-        try (DbIterator<Order.Ask> askOrders = Order.Ask.getSortedOrders(assetId, firstIndex, lastIndex)) {
-            while (askOrders.hasNext()) {
-                orderIds.add(Long.toUnsignedString(askOrders.next().getId()));
-            }
+        for (Order.Ask order : Order.Ask.getSortedOrders(assetId, firstIndex, lastIndex)) {
+            orderIds.add(Long.toUnsignedString(order.getId()));
         }
 
         JSONObject response = new JSONObject();
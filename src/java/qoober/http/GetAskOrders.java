@@ -18,7 +18,6 @@ package qoober.http;
 
 import qoober.*;
 import qoober.Qoober;
-import qoober.db.DbIterator;
 import qoober.util.Filter;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -57,15 +56,12 @@ public final class GetAskOrders extends APIServlet.APIRequestHandler {
         }
 
         JSONArray orders = new JSONArray();
-        try (DbIterator<Order.Ask> askOrders = Order.Ask.getSortedOrders(assetId, firstIndex, lastIndex)) {
-            while (askOrders.hasNext()) {
-                Order.Ask order = askOrders.next();
-                JSONObject orderJSON = JSONData.askOrder(order);
-                if (showExpectedCancellations && Arrays.binarySearch(cancellations, order.getId()) >= 0) {
-                    orderJSON.put("expectedCancellation", Boolean.TRUE);
-                }
-                orders.add(orderJSON);
+        for (Order.Ask order : Order.Ask.getSortedOrders(assetId, firstIndex, lastIndex)) {
+            JSONObject orderJSON = JSONData.askOrder(order);
+            if (showExpectedCancellations && Arrays.binarySearch(cancellations, order.getId()) >= 0) {
+                orderJSON.put("expectedCancellation", Boolean.TRUE);
             }
+            orders.add(orderJSON);
         }
 
         JSONObject response = new JSONObject();
@@ -18,6 +18,7 @@ package qoober.http;
 
 import qoober.AssetTransfer;
 import qoober.QooberException;
+import qoober.db.DbCursor;
 import qoober.db.DbIterator;
 import qoober.db.DbUtils;
 import org.json.simple.JSONArray;
@@ -31,7 +32,7 @@ public final class GetAssetTransfers extends APIServlet.APIRequestHandler {
     static final GetAssetTransfers instance = new GetAssetTransfers();
 
     private GetAssetTransfers() {
-        super(new APITag[] {APITag.AE}, "asset", "account", "firstIndex", "lastIndex", "timestamp", "includeAssetInfo");
+        super(new APITag[] {APITag.AE}, "asset", "account", "firstIndex", "lastIndex", "timestamp", "includeAssetInfo", "cursor");
     }
 
     @Override
@@ -43,6 +44,7 @@ public final class GetAssetTransfers extends APIServlet.APIRequestHandler {
             return JSONResponses.MISSING_ASSET_ACCOUNT;
         }
         int timestamp = ParameterParser.getTimestamp(req);
+        DbCursor cursor = ParameterParser.getCursor(req);
         int firstIndex = ParameterParser.getFirstIndex(req);
         int lastIndex = ParameterParser.getLastIndex(req);
         boolean includeAssetInfo = "true".equalsIgnoreCase(req.getParameter("includeAssetInfo"));
@@ -52,19 +54,25 @@ public final class GetAssetTransfers extends APIServlet.APIRequestHandler {
         DbIterator<AssetTransfer> transfers = null;
         try {
             if (accountId == 0) {
-                transfers = AssetTransfer.getAssetTransfers(assetId, firstIndex, lastIndex);
+                transfers = AssetTransfer.getAssetTransfers(assetId, cursor, firstIndex, lastIndex);
             } else if (assetId == 0) {
-                transfers = AssetTransfer.getAccountAssetTransfers(accountId, firstIndex, lastIndex);
+                transfers = AssetTransfer.getAccountAssetTransfers(accountId, cursor, firstIndex, lastIndex);
             } else {
-                transfers = AssetTransfer.getAccountAssetTransfers(accountId, assetId, firstIndex, lastIndex);
+                transfers = AssetTransfer.getAccountAssetTransfers(accountId, assetId, cursor, firstIndex, lastIndex);
             }
+            boolean completed = true;
             while (transfers.hasNext()) {
                 AssetTransfer assetTransfer = transfers.next();
                 if (assetTransfer.getTimestamp() < timestamp) {
+                    completed = false;
                     break;
                 }
                 transfersData.add(JSONData.assetTransfer(assetTransfer, includeAssetInfo));
             }
+            if (completed && lastIndex < Integer.MAX_VALUE && transfersData.size() == lastIndex - firstIndex + 1
+                    && transfers.getCursor() != null) {
+                response.put("nextCursor", transfers.getCursor().toToken());
+            }
         } finally {
             DbUtils.close(transfers);
         }
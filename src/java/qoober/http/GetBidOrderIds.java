@@ -18,7 +18,6 @@ package qoober.http;
 
 import qoober.QooberException;
 import qoober.Order;
-import qoober.db.DbIterator;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
@@ -41,10 +40,8 @@ public final class GetBidOrderIds extends APIServlet.APIRequestHandler {
         int lastIndex = ParameterParser.getLastIndex(req);
 
         JSONArray orderIds = new JSONArray();
-        try (DbIterator<Order.Bid> bidOrders = Order.Bid.getSortedOrders(assetId, firstIndex, lastIndex)) {
-            while (bidOrders.hasNext()) {
-                orderIds.add(Long.toUnsignedString(bidOrders.next().getId()));
-            }
+        for (Order.Bid order : Order.Bid.getSortedOrders(assetId, firstIndex, lastIndex)) {
+            orderIds.add(Long.toUnsignedString(order.getId()));
         }
         JSONObject response = new JSONObject();
         response.put("bidOrderIds", orderIds);
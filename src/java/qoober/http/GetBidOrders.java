@@ -18,7 +18,6 @@ package qoober.http;
 
 import qoober.*;
 import qoober.Qoober;
-import qoober.db.DbIterator;
 import qoober.util.Filter;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -57,15 +56,12 @@ public final class GetBidOrders extends APIServlet.APIRequestHandler {
         }
 
         JSONArray orders = new JSONArray();
-        try (DbIterator<Order.Bid> bidOrders = Order.Bid.getSortedOrders(assetId, firstIndex, lastIndex)) {
-            while (bidOrders.hasNext()) {
-                Order.Bid order = bidOrders.next();
-                JSONObject orderJSON = JSONData.bidOrder(order);
-                if (showExpectedCancellations && Arrays.binarySearch(cancellations, order.getId()) >= 0) {
-                    orderJSON.put("expectedCancellation", Boolean.TRUE);
-                }
-                orders.add(orderJSON);
+        for (Order.Bid order : Order.Bid.getSortedOrders(assetId, firstIndex, lastIndex)) {
+            JSONObject orderJSON = JSONData.bidOrder(order);
+            if (showExpectedCancellations && Arrays.binarySearch(cancellations, order.getId()) >= 0) {
+                orderJSON.put("expectedCancellation", Boolean.TRUE);
             }
+            orders.add(orderJSON);
         }
         JSONObject response = new JSONObject();
         response.put("bidOrders", orders);
@@ -17,8 +17,10 @@
 package qoober.http;
 
 import qoober.Block;
+import qoober.Constants;
 import qoober.Qoober;
 import qoober.util.Convert;
+import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
 import javax.servlet.http.HttpServletRequest;
@@ -84,4 +86,23 @@ public final class GetBlock extends APIServlet.APIRequestHandler {
 
     }
 
+    @Override
+    protected boolean allowResponseCache() {
+        return true;
+    }
+
+    @Override
+    protected APIResponseCache.Validity getCacheValidity(HttpServletRequest req, JSONStreamAware response) {
+        if (!(response instanceof JSONObject)) {
+            return APIResponseCache.Validity.NONE;
+        }
+        // Transactions include the number of confirmations
+        if ("true".equalsIgnoreCase(req.getParameter("includeTransactions"))) {
+            return APIResponseCache.Validity.BLOCK;
+        }
+        int height = ((Number) ((JSONObject) response).get("height")).intValue();
+        return height < Qoober.getBlockchain().getHeight() - Constants.MAX_ROLLBACK ?
+                APIResponseCache.Validity.PERMANENT : APIResponseCache.Validity.BLOCK;
+    }
+
 }
\ No newline at end of file
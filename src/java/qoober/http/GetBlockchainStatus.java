@@ -25,6 +25,7 @@ import qoober.peer.Peer;
 import qoober.peer.Peers;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -75,6 +76,17 @@ public final class GetBlockchainStatus extends APIServlet.APIRequestHandler {
         return response;
     }
 
+    @Override
+    protected boolean allowResponseCache() {
+        return true;
+    }
+
+    @Override
+    protected APIResponseCache.Validity getCacheValidity(HttpServletRequest req, JSONStreamAware response) {
+        // The response includes the current time and the download state
+        return APIResponseCache.Validity.SECOND;
+    }
+
     @Override
     protected boolean allowRequiredBlockParameters() {
         return false;
@@ -19,9 +19,8 @@ package qoober.http;
 import qoober.Qoober;
 import qoober.QooberException;
 import qoober.Transaction;
+import qoober.db.DbCursor;
 import qoober.db.DbIterator;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
 import javax.servlet.http.HttpServletRequest;
@@ -33,7 +32,7 @@ public final class GetBlockchainTransactions extends APIServlet.APIRequestHandle
     private GetBlockchainTransactions() {
         super(new APITag[] {APITag.ACCOUNTS, APITag.TRANSACTIONS}, "account", "timestamp", "type", "subtype",
                 "firstIndex", "lastIndex", "numberOfConfirmations", "withMessage", "phasedOnly", "nonPhasedOnly",
-                "includeExpiredPrunable", "includePhasingResult", "executedOnly");
+                "includeExpiredPrunable", "includePhasingResult", "executedOnly", "cursor");
     }
 
     @Override
@@ -62,22 +61,16 @@ public final class GetBlockchainTransactions extends APIServlet.APIRequestHandle
             subtype = -1;
         }
 
+        DbCursor cursor = ParameterParser.getCursor(req);
         int firstIndex = ParameterParser.getFirstIndex(req);
         int lastIndex = ParameterParser.getLastIndex(req);
 
-        JSONArray transactions = new JSONArray();
-        try (DbIterator<? extends Transaction> iterator = Qoober.getBlockchain().getTransactions(accountId, numberOfConfirmations,
-                type, subtype, timestamp, withMessage, phasedOnly, nonPhasedOnly, firstIndex, lastIndex,
-                includeExpiredPrunable, executedOnly)) {
-            while (iterator.hasNext()) {
-                Transaction transaction = iterator.next();
-                transactions.add(JSONData.transaction(transaction, includePhasingResult));
-            }
-        }
-
-        JSONObject response = new JSONObject();
-        response.put("transactions", transactions);
-        return response;
+        DbIterator<? extends Transaction> iterator = Qoober.getBlockchain().getTransactions(accountId, numberOfConfirmations,
+                type, subtype, timestamp, withMessage, phasedOnly, nonPhasedOnly, cursor, firstIndex, lastIndex,
+                includeExpiredPrunable, executedOnly);
+        return new JSONStreamResponse<Transaction>("transactions", iterator,
+                transaction -> JSONData.transaction(transaction, includePhasingResult))
+                .withCursor(firstIndex, lastIndex);
 
     }
 
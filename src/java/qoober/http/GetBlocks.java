@@ -20,8 +20,6 @@ import qoober.Block;
 import qoober.Qoober;
 import qoober.QooberException;
 import qoober.db.DbIterator;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
 import javax.servlet.http.HttpServletRequest;
@@ -43,21 +41,10 @@ public final class GetBlocks extends APIServlet.APIRequestHandler {
         boolean includeTransactions = "true".equalsIgnoreCase(req.getParameter("includeTransactions"));
         boolean includeExecutedPhased = "true".equalsIgnoreCase(req.getParameter("includeExecutedPhased"));
 
-        JSONArray blocks = new JSONArray();
-        try (DbIterator<? extends Block> iterator = Qoober.getBlockchain().getBlocks(firstIndex, lastIndex)) {
-            while (iterator.hasNext()) {
-                Block block = iterator.next();
-                if (block.getTimestamp() < timestamp) {
-                    break;
-                }
-                blocks.add(JSONData.block(block, includeTransactions, includeExecutedPhased));
-            }
-        }
-
-        JSONObject response = new JSONObject();
-        response.put("blocks", blocks);
-
-        return response;
+        DbIterator<? extends Block> iterator = Qoober.getBlockchain().getBlocks(firstIndex, lastIndex);
+        return new JSONStreamResponse<Block>("blocks", iterator,
+                block -> JSONData.block(block, includeTransactions, includeExecutedPhased))
+                .takeWhile(block -> block.getTimestamp() >= timestamp);
     }
 
 }
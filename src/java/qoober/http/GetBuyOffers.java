@@ -18,7 +18,6 @@ package qoober.http;
 
 import qoober.CurrencyBuyOffer;
 import qoober.db.DbIterator;
-import qoober.db.DbUtils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
@@ -50,24 +49,21 @@ public final class GetBuyOffers extends APIServlet.APIRequestHandler {
         JSONArray offerData = new JSONArray();
         response.put("offers", offerData);
 
-        DbIterator<CurrencyBuyOffer> offers= null;
-        try {
-            if (accountId == 0) {
-                offers = CurrencyBuyOffer.getCurrencyOffers(currencyId, availableOnly, firstIndex, lastIndex);
-            } else if (currencyId == 0) {
-                offers = CurrencyBuyOffer.getAccountOffers(accountId, availableOnly, firstIndex, lastIndex);
-            } else {
-                CurrencyBuyOffer offer = CurrencyBuyOffer.getOffer(currencyId, accountId);
-                if (offer != null) {
-                    offerData.add(JSONData.offer(offer));
+        if (accountId == 0) {
+            for (CurrencyBuyOffer offer : CurrencyBuyOffer.getCurrencyOffers(currencyId, availableOnly, firstIndex, lastIndex)) {
+                offerData.add(JSONData.offer(offer));
+            }
+        } else if (currencyId == 0) {
+            try (DbIterator<CurrencyBuyOffer> offers = CurrencyBuyOffer.getAccountOffers(accountId, availableOnly, firstIndex, lastIndex)) {
+                while (offers.hasNext()) {
+                    offerData.add(JSONData.offer(offers.next()));
                 }
-                return response;
             }
-            while (offers.hasNext()) {
-                offerData.add(JSONData.offer(offers.next()));
+        } else {
+            CurrencyBuyOffer offer = CurrencyBuyOffer.getOffer(currencyId, accountId);
+            if (offer != null) {
+                offerData.add(JSONData.offer(offer));
             }
-        } finally {
-            DbUtils.close(offers);
         }
 
         return response;
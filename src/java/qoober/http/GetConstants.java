@@ -205,6 +205,16 @@ public final class GetConstants extends APIServlet.APIRequestHandler {
         return Holder.CONSTANTS;
     }
 
+    @Override
+    protected boolean allowResponseCache() {
+        return true;
+    }
+
+    @Override
+    protected APIResponseCache.Validity getCacheValidity(HttpServletRequest req, JSONStreamAware response) {
+        return APIResponseCache.Validity.PERMANENT;
+    }
+
     @Override
     protected boolean allowRequiredBlockParameters() {
         return false;
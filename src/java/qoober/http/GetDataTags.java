@@ -17,7 +17,6 @@
 package qoober.http;
 
 import qoober.TaggedData;
-import qoober.db.DbIterator;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
@@ -41,10 +40,8 @@ public final class GetDataTags extends APIServlet.APIRequestHandler {
         JSONArray tagsJSON = new JSONArray();
         response.put("tags", tagsJSON);
 
-        try (DbIterator<TaggedData.Tag> tags = TaggedData.Tag.getAllTags(firstIndex, lastIndex)) {
-            while (tags.hasNext()) {
-                tagsJSON.add(JSONData.dataTag(tags.next()));
-            }
+        for (TaggedData.Tag tag : TaggedData.Tag.getAllTags(firstIndex, lastIndex)) {
+            tagsJSON.add(JSONData.dataTag(tag));
         }
         return response;
     }
@@ -17,7 +17,6 @@
 package qoober.http;
 
 import qoober.TaggedData;
-import qoober.db.DbIterator;
 import qoober.util.Convert;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -48,10 +47,8 @@ public final class GetDataTagsLike extends APIServlet.APIRequestHandler {
         JSONObject response = new JSONObject();
         JSONArray tagsJSON = new JSONArray();
         response.put("tags", tagsJSON);
-        try (DbIterator<TaggedData.Tag> tags = TaggedData.Tag.getTagsLike(prefix, firstIndex, lastIndex)) {
-            while (tags.hasNext()) {
-                tagsJSON.add(JSONData.dataTag(tags.next()));
-            }
+        for (TaggedData.Tag tag : TaggedData.Tag.getTagsLike(prefix, firstIndex, lastIndex)) {
+            tagsJSON.add(JSONData.dataTag(tag));
         }
         return response;
     }
@@ -0,0 +1,88 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober.http;
+
+import qoober.util.Metrics;
+import org.json.simple.JSONStreamAware;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * <p>The GetMetrics API returns the node metrics in the Prometheus text
+ * exposition format, so the node can be scraped by a Prometheus server.</p>
+ *
+ * <p>The response is plain text and not a JSON object. The admin password
+ * must be supplied unless the API server is only accessible from localhost.</p>
+ */
+public final class GetMetrics extends APIServlet.APIRequestHandler {
+
+    /** GetMetrics instance */
+    static final GetMetrics instance = new GetMetrics();
+
+    /**
+     * Create the GetMetrics instance
+     */
+    private GetMetrics() {
+        super(new APITag[] {APITag.DEBUG});
+    }
+
+    /**
+     * Process the GetMetrics API request
+     *
+     * @param   req                 API request
+     * @param   resp                API response
+     * @return                      Null since the response has been written
+     * @throws  ParameterException  Unable to write the response
+     */
+    @Override
+    protected JSONStreamAware processRequest(HttpServletRequest req, HttpServletResponse resp) throws ParameterException {
+        resp.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+        try (Writer writer = resp.getWriter()) {
+            try {
+                Metrics.writePrometheus(writer);
+            } catch (IOException e) {
+                throw new ParameterException(JSONResponses.RESPONSE_WRITE_ERROR);
+            }
+        } catch (IOException e) {
+            throw new ParameterException(JSONResponses.RESPONSE_STREAM_ERROR);
+        }
+        return null;
+    }
+
+    @Override
+    protected JSONStreamAware processRequest(HttpServletRequest req) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected boolean requirePassword() {
+        return true;
+    }
+
+    @Override
+    protected boolean allowRequiredBlockParameters() {
+        return false;
+    }
+
+    @Override
+    protected boolean requireBlockchain() {
+        return false;
+    }
+}
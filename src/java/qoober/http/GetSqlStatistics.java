@@ -0,0 +1,139 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober.http;
+
+import qoober.db.SqlProfiler;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import javax.servlet.http.HttpServletRequest;
+
+import static qoober.http.JSONResponses.incorrect;
+
+/**
+ * <p>The GetSqlStatistics API returns the SQL statements with the largest
+ * execution cost. The statistics are only collected when qoober.enableSqlProfiler
+ * is set to true.</p>
+ *
+ * <p>Request parameters:</p>
+ * <ul>
+ * <li>count - Maximum number of statements (defaults to 25)</li>
+ * <li>sort - Sort order: totalTime (default), maxTime, count or rows</li>
+ * <li>reset - Reset the statistics after they have been returned if true</li>
+ * </ul>
+ *
+ * <p>Response parameters:</p>
+ * <ul>
+ * <li>enabled - TRUE if the SQL profiler is enabled</li>
+ * <li>statements - An array of statement objects</li>
+ * </ul>
+ *
+ * <p>Statement object:</p>
+ * <ul>
+ * <li>sql - Normalized SQL statement</li>
+ * <li>count - Number of executions</li>
+ * <li>totalTime - Total execution time (milliseconds)</li>
+ * <li>maxTime - Longest execution time (milliseconds)</li>
+ * <li>averageTime - Average execution time (milliseconds)</li>
+ * <li>rows - Number of rows read or updated</li>
+ * </ul>
+ */
+public final class GetSqlStatistics extends APIServlet.APIRequestHandler {
+
+    /** GetSqlStatistics instance */
+    static final GetSqlStatistics instance = new GetSqlStatistics();
+
+    /**
+     * Create the GetSqlStatistics instance
+     */
+    private GetSqlStatistics() {
+        super(new APITag[] {APITag.DEBUG}, "count", "sort", "reset");
+    }
+
+    /**
+     * Process the GetSqlStatistics API request
+     *
+     * @param   req                 API request
+     * @return                      API response
+     * @throws  ParameterException  Invalid request parameter
+     */
+    @Override
+    protected JSONStreamAware processRequest(HttpServletRequest req) throws ParameterException {
+        int count = ParameterParser.getInt(req, "count", 1, Integer.MAX_VALUE, 25);
+        SqlProfiler.Sort sort;
+        String value = req.getParameter("sort");
+        if (value == null || value.isEmpty()) {
+            sort = SqlProfiler.Sort.TOTAL_TIME;
+        } else {
+            switch (value) {
+                case "totalTime":
+                    sort = SqlProfiler.Sort.TOTAL_TIME;
+                    break;
+                case "maxTime":
+                    sort = SqlProfiler.Sort.MAX_TIME;
+                    break;
+                case "count":
+                    sort = SqlProfiler.Sort.COUNT;
+                    break;
+                case "rows":
+                    sort = SqlProfiler.Sort.ROWS;
+                    break;
+                default:
+                    throw new ParameterException(incorrect("sort"));
+            }
+        }
+        JSONArray statementsJSON = new JSONArray();
+        for (SqlProfiler.Statistics stats : SqlProfiler.getStatistics(sort, count)) {
+            JSONObject statementJSON = new JSONObject();
+            long executions = stats.getCount();
+            statementJSON.put("sql", stats.getSql());
+            statementJSON.put("count", executions);
+            statementJSON.put("totalTime", toMillis(stats.getTotalTime()));
+            statementJSON.put("maxTime", toMillis(stats.getMaxTime()));
+            statementJSON.put("averageTime", toMillis(executions > 0 ? stats.getTotalTime() / executions : 0));
+            statementJSON.put("rows", stats.getRowCount());
+            statementsJSON.add(statementJSON);
+        }
+        if ("true".equalsIgnoreCase(req.getParameter("reset"))) {
+            SqlProfiler.reset();
+        }
+        JSONObject response = new JSONObject();
+        response.put("enabled", SqlProfiler.isEnabled());
+        response.put("statements", statementsJSON);
+        return response;
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round((double)nanos / 1000.0) / 1000.0;
+    }
+
+    @Override
+    protected boolean requirePassword() {
+        return true;
+    }
+
+    @Override
+    protected boolean allowRequiredBlockParameters() {
+        return false;
+    }
+
+    @Override
+    protected boolean requireBlockchain() {
+        return false;
+    }
+}
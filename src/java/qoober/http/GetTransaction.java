@@ -19,6 +19,7 @@ package qoober.http;
 import qoober.Qoober;
 import qoober.Transaction;
 import qoober.util.Convert;
+import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
 import javax.servlet.http.HttpServletRequest;
@@ -73,4 +74,16 @@ public final class GetTransaction extends APIServlet.APIRequestHandler {
 
     }
 
+    @Override
+    protected boolean allowResponseCache() {
+        return true;
+    }
+
+    @Override
+    protected APIResponseCache.Validity getCacheValidity(HttpServletRequest req, JSONStreamAware response) {
+        // Unconfirmed transactions can change without a block being pushed
+        return response instanceof JSONObject && ((JSONObject) response).get("block") != null ?
+                APIResponseCache.Validity.BLOCK : APIResponseCache.Validity.NONE;
+    }
+
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober.http;
+
+import qoober.db.DbIterator;
+import qoober.util.JSON;
+import qoober.util.Logger;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * API response containing a JSON array that is read from a database iterator
+ *
+ * The rows of the page are read and the iterator is closed before the response is written, so the
+ * database connection is not held while the response is sent to the client. The array elements
+ * are then encoded one at a time and the encoded text is written whenever BUFFER_SIZE characters
+ * are pending, so the encoded page is never held in memory.
+ */
+final class JSONStreamResponse<T> implements JSONStreamAware {
+
+    /** Number of encoded characters written at a time */
+    private static final int BUFFER_SIZE = 8192;
+
+    private final String arrayName;
+    private final DbIterator<? extends T> iterator;
+    private final Function<T, JSONObject> encoder;
+    private final Map<String, Object> members = new LinkedHashMap<>();
+    private Predicate<T> condition;
+    private int pageSize;
+
+    /**
+     * Create a streamed response
+     *
+     * @param   arrayName               Name of the array in the response object
+     * @param   iterator                Database iterator returning the array elements
+     * @param   encoder                 Create the JSON object for an array element
+     */
+    JSONStreamResponse(String arrayName, DbIterator<? extends T> iterator, Function<T, JSONObject> encoder) {
+        this.arrayName = arrayName;
+        this.iterator = iterator;
+        this.encoder = encoder;
+    }
+
+    /**
+     * Stop the array at the first element that does not satisfy a condition
+     *
+     * @param   condition               Element condition
+     * @return                          This response
+     */
+    JSONStreamResponse<T> takeWhile(Predicate<T> condition) {
+        this.condition = condition;
+        return this;
+    }
+
+    /**
+     * Return the continuation token for the next page as nextCursor when the page is full,
+     * the iterator must track the cursor position
+     *
+     * @param   from                    Index of the first element
+     * @param   to                      Index of the last element
+     * @return                          This response
+     */
+    JSONStreamResponse<T> withCursor(int from, int to) {
+        this.pageSize = to >= from && to < Integer.MAX_VALUE ? to - from + 1 : 0;
+        return this;
+    }
+
+    /**
+     * Add a member to the response object, members are written after the array
+     *
+     * @param   name                    Member name
+     * @param   value                   Member value
+     * @return                          This response
+     */
+    JSONStreamResponse<T> put(String name, Object value) {
+        members.put(name, value);
+        return this;
+    }
+
+    @Override
+    public void writeJSONString(Writer writer) throws IOException {
+        List<T> elements = new ArrayList<>();
+        try {
+            while (iterator.hasNext()) {
+                T element = iterator.next();
+                if (condition != null && !condition.test(element)) {
+                    break;
+                }
+                elements.add(element);
+            }
+            if (pageSize > 0 && elements.size() == pageSize && iterator.getCursor() != null) {
+                members.put("nextCursor", iterator.getCursor().toToken());
+            }
+        } catch (RuntimeException e) {
+            putException(e);
+        } finally {
+            iterator.close();
+        }
+        StringBuilder sb = new StringBuilder(BUFFER_SIZE + 1024);
+        sb.append("{\"").append(arrayName).append("\":[");
+        try {
+            for (int i = 0; i < elements.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                JSON.encodeObject(encoder.apply(elements.get(i)), sb);
+                elements.set(i, null);
+                if (sb.length() >= BUFFER_SIZE) {
+                    writer.write(sb.toString());
+                    sb.setLength(0);
+                }
+            }
+        } catch (RuntimeException e) {
+            putException(e);
+        }
+        sb.append(']');
+        for (Map.Entry<String, Object> member : members.entrySet()) {
+            sb.append(",\"").append(member.getKey()).append("\":");
+            JSON.encodeValue(member.getValue(), sb);
+        }
+        sb.append('}');
+        writer.write(sb.toString());
+    }
+
+    private void putException(RuntimeException e) {
+        Logger.logDebugMessage("Error reading API response", e);
+        JSONObject error = new JSONObject();
+        JSONData.putException(error, e);
+        members.putAll(error);
+    }
+}
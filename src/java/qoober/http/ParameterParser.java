@@ -20,6 +20,7 @@ import qoober.*;
 import qoober.Qoober;
 import qoober.crypto.Crypto;
 import qoober.crypto.EncryptedData;
+import qoober.db.DbCursor;
 import qoober.util.Convert;
 import qoober.util.Logger;
 import qoober.util.Search;
@@ -536,6 +537,10 @@ public final class ParameterParser {
         return getInt(req, "timestamp", 0, Integer.MAX_VALUE, false);
     }
 
+    /**
+     * Get the first index of a listing, the index is relative to the cursor position when
+     * the request includes a continuation token
+     */
     public static int getFirstIndex(HttpServletRequest req) {
         try {
             int firstIndex = Integer.parseInt(req.getParameter("firstIndex"));
@@ -548,6 +553,10 @@ public final class ParameterParser {
         }
     }
 
+    /**
+     * Get the last index of a listing, the index is relative to the cursor position when
+     * the request includes a continuation token
+     */
     public static int getLastIndex(HttpServletRequest req) {
         int lastIndex = Integer.MAX_VALUE;
         try {
@@ -563,6 +572,25 @@ public final class ParameterParser {
         return lastIndex;
     }
 
+    /**
+     * Get the continuation token returned as nextCursor by the previous page of a listing
+     *
+     * @param   req                     HTTP request
+     * @return                          Cursor or null if the request does not include a continuation token
+     * @throws  ParameterException      Continuation token is not valid
+     */
+    public static DbCursor getCursor(HttpServletRequest req) throws ParameterException {
+        String token = Convert.emptyToNull(req.getParameter("cursor"));
+        if (token == null) {
+            return null;
+        }
+        try {
+            return DbCursor.parse(token);
+        } catch (IllegalArgumentException e) {
+            throw new ParameterException(incorrect("cursor", e.getMessage()));
+        }
+    }
+
     public static int getNumberOfConfirmations(HttpServletRequest req) throws ParameterException {
         return getInt(req, "numberOfConfirmations", 0, Qoober.getBlockchain().getHeight(), false);
     }
@@ -0,0 +1,260 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober.http;
+
+import qoober.Account;
+import qoober.Appendix;
+import qoober.PrunableMessage;
+import qoober.Qoober;
+import qoober.Transaction;
+import qoober.crypto.Crypto;
+import qoober.crypto.EncryptedData;
+import qoober.crypto.MessageDecryptor;
+import qoober.util.Convert;
+import qoober.util.JSON;
+import qoober.util.Logger;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read the messages of several transactions
+ *
+ * The messages are read as by the readMessage request. The shared secret with each counterparty is
+ * computed once for all messages. The encrypted messages are decrypted by a thread pool shared by
+ * all requests, a request decrypts at most two transactions at a time, and the messages of each
+ * transaction are written as soon as they have been decrypted. At most maxAPIRecords transactions
+ * can be read by a single request.
+ */
+public final class ReadMessages extends APIServlet.APIRequestHandler {
+
+    static final ReadMessages instance = new ReadMessages();
+
+    /** Number of decryption threads shared by all requests */
+    private static final int DECRYPT_THREADS = Math.min(Runtime.getRuntime().availableProcessors(), 4);
+
+    /** Number of transactions decrypted at a time by a request */
+    private static final int REQUEST_TASKS = 2;
+
+    /** Decrypts the messages, the threads are stopped when they are idle */
+    private static final ThreadPoolExecutor decryptService = new ThreadPoolExecutor(DECRYPT_THREADS, DECRYPT_THREADS,
+            60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "Message decrypt");
+                thread.setDaemon(true);
+                return thread;
+            });
+    static {
+        decryptService.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Encrypted message to decrypt
+     */
+    private static final class EncryptedMessage {
+
+        private final JSONObject response;
+        private final String name;
+        private final EncryptedData encryptedData;
+        private final byte[] publicKey;
+        private final boolean isText;
+        private final boolean uncompress;
+
+        private EncryptedMessage(JSONObject response, String name, EncryptedData encryptedData, byte[] publicKey,
+                                 boolean isText, boolean uncompress) {
+            this.response = response;
+            this.name = name;
+            this.encryptedData = encryptedData;
+            this.publicKey = publicKey;
+            this.isText = isText;
+            this.uncompress = uncompress;
+        }
+    }
+
+    private ReadMessages() {
+        super(new APITag[] {APITag.MESSAGES}, "transaction", "transaction", "transaction", "secretPhrase");
+    }
+
+    @Override
+    protected JSONStreamAware processRequest(HttpServletRequest req) throws ParameterException {
+
+        long[] transactionIds = ParameterParser.getUnsignedLongs(req, "transaction");
+        if (transactionIds.length > API.maxRecords) {
+            return JSONResponses.incorrect("transaction", "At most " + API.maxRecords + " transactions can be read");
+        }
+        String secretPhrase = ParameterParser.getSecretPhrase(req, false);
+        byte[] readerPublicKey = secretPhrase != null ? Crypto.getPublicKey(secretPhrase) : null;
+        JSONArray messages = new JSONArray();
+        List<List<EncryptedMessage>> encryptedMessages = new ArrayList<>(transactionIds.length);
+        boolean encrypted = false;
+        for (long transactionId : transactionIds) {
+            JSONObject response = new JSONObject();
+            response.put("transaction", Long.toUnsignedString(transactionId));
+            messages.add(response);
+            List<EncryptedMessage> transactionMessages = new ArrayList<>(2);
+            encryptedMessages.add(transactionMessages);
+            Transaction transaction = Qoober.getBlockchain().getTransaction(transactionId);
+            if (transaction == null) {
+                response.put("errorDescription", "Unknown transaction");
+                continue;
+            }
+            PrunableMessage prunableMessage = PrunableMessage.getPrunableMessage(transactionId);
+            Appendix.Message message = transaction.getMessage();
+            Appendix.EncryptedMessage encryptedMessage = transaction.getEncryptedMessage();
+            Appendix.EncryptToSelfMessage encryptToSelfMessage = transaction.getEncryptToSelfMessage();
+            if (message == null && encryptedMessage == null && encryptToSelfMessage == null && prunableMessage == null) {
+                response.put("errorDescription", "No attached message found");
+                continue;
+            }
+            if (message != null) {
+                response.put("message", Convert.toString(message.getMessage(), message.isText()));
+                response.put("messageIsPrunable", false);
+            } else if (prunableMessage != null && prunableMessage.getMessage() != null) {
+                response.put("message", Convert.toString(prunableMessage.getMessage(), prunableMessage.messageIsText()));
+                response.put("messageIsPrunable", true);
+            }
+            if (secretPhrase == null) {
+                continue;
+            }
+            EncryptedData encryptedData = null;
+            boolean isText = false;
+            boolean uncompress = true;
+            if (encryptedMessage != null) {
+                encryptedData = encryptedMessage.getEncryptedData();
+                isText = encryptedMessage.isText();
+                uncompress = encryptedMessage.isCompressed();
+                response.put("encryptedMessageIsPrunable", false);
+            } else if (prunableMessage != null && prunableMessage.getEncryptedData() != null) {
+                encryptedData = prunableMessage.getEncryptedData();
+                isText = prunableMessage.encryptedMessageIsText();
+                uncompress = prunableMessage.isCompressed();
+                response.put("encryptedMessageIsPrunable", true);
+            }
+            if (encryptedData != null) {
+                byte[] senderPublicKey = Account.getPublicKey(transaction.getSenderId());
+                byte[] recipientPublicKey = Account.getPublicKey(transaction.getRecipientId());
+                byte[] publicKey = Arrays.equals(senderPublicKey, readerPublicKey) ? recipientPublicKey : senderPublicKey;
+                if (publicKey != null) {
+                    transactionMessages.add(new EncryptedMessage(response, "decryptedMessage", encryptedData, publicKey,
+                            isText, uncompress));
+                }
+            }
+            if (encryptToSelfMessage != null) {
+                transactionMessages.add(new EncryptedMessage(response, "decryptedMessageToSelf",
+                        encryptToSelfMessage.getEncryptedData(), readerPublicKey, encryptToSelfMessage.isText(),
+                        encryptToSelfMessage.isCompressed()));
+            }
+            encrypted |= !transactionMessages.isEmpty();
+        }
+        if (encrypted) {
+            return new DecryptedMessages(messages, encryptedMessages, new MessageDecryptor(secretPhrase));
+        }
+        JSONObject response = new JSONObject();
+        response.put("messages", messages);
+        return response;
+    }
+
+    /**
+     * Decrypt a message and add the decrypted message to the transaction response
+     *
+     * @param   decryptor               Message decryptor
+     * @param   encrypted               Encrypted message
+     */
+    private static void decrypt(MessageDecryptor decryptor, EncryptedMessage encrypted) {
+        try {
+            byte[] decrypted = decryptor.decrypt(encrypted.encryptedData, encrypted.publicKey, encrypted.uncompress);
+            encrypted.response.put(encrypted.name, Convert.toString(decrypted, encrypted.isText));
+        } catch (RuntimeException e) {
+            Logger.logDebugMessage("Decryption of message failed: " + e.toString());
+            if (encrypted.name.equals("decryptedMessage")) {
+                JSONData.putException(encrypted.response, e, "Wrong secretPhrase");
+            }
+        }
+    }
+
+    /**
+     * Response writing the transaction messages as they are decrypted
+     */
+    private static final class DecryptedMessages implements JSONStreamAware {
+
+        private final JSONArray messages;
+        private final List<List<EncryptedMessage>> encryptedMessages;
+        private final MessageDecryptor decryptor;
+
+        private DecryptedMessages(JSONArray messages, List<List<EncryptedMessage>> encryptedMessages, MessageDecryptor decryptor) {
+            this.messages = messages;
+            this.encryptedMessages = encryptedMessages;
+            this.decryptor = decryptor;
+        }
+
+        @Override
+        public void writeJSONString(Writer writer) throws IOException {
+            List<Future<?>> tasks = new ArrayList<>(messages.size());
+            StringBuilder sb = new StringBuilder(1024);
+            try {
+                writer.write("{\"messages\":[");
+                for (int i = 0; i < messages.size(); i++) {
+                    //
+                    // Keep REQUEST_TASKS transactions queued for decryption ahead of the transaction being written
+                    //
+                    while (tasks.size() < messages.size() && tasks.size() < i + REQUEST_TASKS) {
+                        List<EncryptedMessage> transactionMessages = encryptedMessages.get(tasks.size());
+                        tasks.add(transactionMessages.isEmpty() ? null :
+                                decryptService.submit(() -> transactionMessages.forEach(encrypted -> decrypt(decryptor, encrypted))));
+                    }
+                    Future<?> task = tasks.get(i);
+                    if (task != null) {
+                        if (!task.isDone()) {
+                            writer.flush();
+                        }
+                        task.get();
+                    }
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    JSON.encodeObject((JSONObject)messages.get(i), sb);
+                    writer.write(sb.toString());
+                    sb.setLength(0);
+                }
+                writer.write("]}");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Message decryption interrupted");
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.toString(), e);
+            } finally {
+                tasks.forEach(task -> {
+                    if (task != null) {
+                        task.cancel(false);
+                    }
+                });
+            }
+        }
+    }
+}
@@ -175,6 +175,10 @@ public enum ApiSpec {
 
     getStackTraces(null, "depth"),
 
+    getMetrics(null, ""),
+
+    getSqlStatistics(null, "count", "sort", "reset"),
+
     rsConvert(null, "account"),
 
     searchTaggedData(null, "query", "tag", "channel", "account", "firstIndex", "lastIndex", "includeData", "requireBlock", "requireLastBlock"),
@@ -353,6 +357,8 @@ public enum ApiSpec {
 
     readMessage(null, "transaction", "secretPhrase", "sharedKey", "retrieve", "requireBlock", "requireLastBlock"),
 
+    readMessages(null, "transaction", "transaction", "transaction", "secretPhrase", "requireBlock", "requireLastBlock"),
+
     luceneReindex(null, ""),
 
     deleteAssetProperty(null, "asset", "property", "setter", "secretPhrase", "publicKey", "feeNQT", "deadline", "referencedTransactionFullHash", "broadcast", "message", "messageIsText", "messageIsPrunable", "messageToEncrypt", "messageToEncryptIsText", "encryptedMessageData", "encryptedMessageNonce", "encryptedMessageIsPrunable", "compressMessageToEncrypt", "messageToEncryptToSelf", "messageToEncryptToSelfIsText", "encryptToSelfMessageData", "encryptToSelfMessageNonce", "compressMessageToEncryptToSelf", "phased", "phasingFinishHeight", "phasingVotingModel", "phasingQuorum", "phasingMinBalance", "phasingHolding", "phasingMinBalanceModel", "phasingWhitelisted", "phasingWhitelisted", "phasingWhitelisted", "phasingLinkedFullHash", "phasingLinkedFullHash", "phasingLinkedFullHash", "phasingHashedSecret", "phasingHashedSecretAlgorithm", "recipientPublicKey", "ecBlockId", "ecBlockHeight"),
@@ -295,6 +295,9 @@ public class MintWorker {
 
     private static class HashSolver implements Callable<Long> {
 
+        /** Number of nonces hashed between interrupt checks, divides the 1 MH reporting interval */
+        private static final int BATCH_SIZE = 1000;
+
         private final HashFunction hashFunction;
         private final long currencyId;
         private final long accountId;
@@ -318,18 +321,21 @@ public class MintWorker {
 
         @Override
         public Long call() {
+            MintingHasher hasher = new MintingHasher(hashFunction, currencyId, units, counter, accountId, target);
             long n = nonce;
             while (!Thread.currentThread().isInterrupted()) {
-                byte[] hash = CurrencyMinting.getHash(hashFunction, n, currencyId, units, counter, accountId);
-                if (CurrencyMinting.meetsTarget(hash, target)) {
+                int index = hasher.search(n, poolSize, BATCH_SIZE);
+                if (index >= 0) {
+                    n += (long)index * poolSize;
+                    byte[] hash = CurrencyMinting.getHash(hashFunction, n, currencyId, units, counter, accountId);
                     Logger.logDebugMessage("%s found solution hash %s nonce %d currencyId %d units %d counter %d accountId %d" +
                             " hash %s meets target %s",
                             Thread.currentThread().getName(), hashFunction, n, currencyId, units, counter, accountId,
                             Arrays.toString(hash), Arrays.toString(target));
                     return n;
                 }
-                n+=poolSize;
-                if (((n - nonce) % (poolSize * 1000000)) == 0) {
+                n += (long)BATCH_SIZE * poolSize;
+                if (((n - nonce) % (poolSize * 1000000L)) == 0) {
                     Logger.logInfoMessage("%s computed %d [MH]", Thread.currentThread().getName(), (n - nonce) / poolSize / 1000000);
                 }
             }
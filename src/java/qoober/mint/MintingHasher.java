@@ -0,0 +1,180 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober.mint;
+
+import qoober.crypto.Crypto;
+import qoober.crypto.HashFunction;
+import qoober.crypto.KNV25;
+import qoober.crypto.Scrypt;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.DigestException;
+import java.security.MessageDigest;
+
+/**
+ * Search currency minting nonces
+ *
+ * The hasher computes the same hashes as {@link qoober.CurrencyMinting#getHash} but keeps the
+ * message, hash state and digests between nonces, so a search does not allocate memory for each
+ * nonce. A hasher is not thread-safe, each minting thread uses its own hasher.
+ */
+public final class MintingHasher {
+
+    /** Number of message words */
+    private static final int MESSAGE_WORDS = 5;
+
+    /** Hash function */
+    private final HashFunction hashFunction;
+
+    /** Target as little-endian words, the first word is the least significant */
+    private final long[] targetWords = new long[4];
+
+    /** Target bytes */
+    private final byte[] target;
+
+    /** Message words, the first word is the nonce */
+    private final long[] message = new long[MESSAGE_WORDS];
+
+    /** Message bytes */
+    private final ByteBuffer messageBuffer = ByteBuffer.allocate(MESSAGE_WORDS * 8).order(ByteOrder.LITTLE_ENDIAN);
+
+    /** KNV25 hash state */
+    private final long[] state = new long[25];
+
+    /** Digest output */
+    private final byte[] output = new byte[32];
+
+    /** Message digest or null */
+    private final MessageDigest digest;
+
+    /** Scrypt hasher or null */
+    private final Scrypt scrypt;
+
+    /**
+     * Create a minting hasher
+     *
+     * @param   hashFunction            Minting hash function
+     * @param   currencyId              Currency identifier
+     * @param   units                   Minted units
+     * @param   counter                 Minting counter
+     * @param   accountId               Minting account identifier
+     * @param   target                  Minting target
+     */
+    public MintingHasher(HashFunction hashFunction, long currencyId, long units, long counter, long accountId, byte[] target) {
+        this.hashFunction = hashFunction;
+        this.target = target.clone();
+        ByteBuffer targetBuffer = ByteBuffer.wrap(target).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < targetWords.length; i++) {
+            targetWords[i] = targetBuffer.getLong();
+        }
+        message[1] = currencyId;
+        message[2] = units;
+        message[3] = counter;
+        message[4] = accountId;
+        for (long word : message) {
+            messageBuffer.putLong(word);
+        }
+        switch (hashFunction) {
+            case SHA256:
+                digest = Crypto.sha256();
+                scrypt = null;
+                break;
+            case SHA3:
+                digest = Crypto.sha3();
+                scrypt = null;
+                break;
+            case SCRYPT:
+                digest = null;
+                scrypt = new Scrypt();
+                break;
+            default:
+                digest = null;
+                scrypt = null;
+        }
+    }
+
+    /**
+     * Search a batch of nonces
+     *
+     * The nonces nonce, nonce + step, nonce + 2 * step and so on are hashed until a hash meets the
+     * target or count nonces have been hashed.
+     *
+     * @param   nonce                   First nonce
+     * @param   step                    Difference between consecutive nonces
+     * @param   count                   Number of nonces
+     * @return                          Index of the first nonce meeting the target or -1
+     */
+    public int search(long nonce, long step, int count) {
+        long n = nonce;
+        for (int i = 0; i < count; i++) {
+            if (meetsTarget(n)) {
+                return i;
+            }
+            n += step;
+        }
+        return -1;
+    }
+
+    /**
+     * Check if the hash of a nonce meets the target
+     *
+     * @param   nonce                   Nonce
+     * @return                          TRUE if the hash meets the target
+     */
+    public boolean meetsTarget(long nonce) {
+        if (hashFunction == HashFunction.Keccak25) {
+            message[0] = nonce;
+            KNV25.hash(message, MESSAGE_WORDS, state);
+            for (int i = 3; i >= 0; i--) {
+                int c = Long.compareUnsigned(state[i], targetWords[i]);
+                if (c != 0) {
+                    return c < 0;
+                }
+            }
+            return true;
+        }
+        messageBuffer.putLong(0, nonce);
+        byte[] input = messageBuffer.array();
+        byte[] hash;
+        int length;
+        try {
+            if (scrypt != null) {
+                hash = scrypt.hash(input);
+                length = hash.length;
+            } else if (digest != null) {
+                digest.update(input);
+                length = digest.digest(output, 0, output.length);
+                hash = output;
+            } else {
+                hash = hashFunction.hash(input);
+                length = hash.length;
+            }
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        for (int i = length - 1; i >= 0; i--) {
+            if ((hash[i] & 0xff) > (target[i] & 0xff)) {
+                return false;
+            }
+            if ((hash[i] & 0xff) < (target[i] & 0xff)) {
+                return true;
+            }
+        }
+        return true;
+    }
+}
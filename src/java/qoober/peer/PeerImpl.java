@@ -26,6 +26,7 @@ import qoober.util.CountingInputStream;
 import qoober.util.CountingOutputWriter;
 import qoober.util.JSON;
 import qoober.util.Logger;
+import qoober.util.Metrics;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 import org.json.simple.JSONValue;
@@ -59,6 +60,13 @@ import java.util.zip.GZIPInputStream;
 
 final class PeerImpl implements Peer {
 
+    private static final Metrics.Counter sentVolume = Metrics.counter("qoober_peer_sent_bytes_total",
+            "Number of bytes sent to peers");
+    private static final Metrics.Counter receivedVolume = Metrics.counter("qoober_peer_received_bytes_total",
+            "Number of bytes received from peers");
+    private static final Metrics.Histogram sendTime = Metrics.histogram("qoober_peer_send_seconds",
+            "Time to send a request to a peer and read the response");
+
     private final String host;
     private final PeerWebSocket webSocket;
     private volatile PeerWebSocket inboundSocket;
@@ -140,6 +148,7 @@ final class PeerImpl implements Peer {
         synchronized (this) {
             downloadedVolume += volume;
         }
+        receivedVolume.add(volume);
         Peers.notifyListeners(this, Peers.Event.DOWNLOADED_VOLUME);
     }
 
@@ -152,6 +161,7 @@ final class PeerImpl implements Peer {
         synchronized (this) {
             uploadedVolume += volume;
         }
+        sentVolume.add(volume);
         Peers.notifyListeners(this, Peers.Event.UPLOADED_VOLUME);
     }
 
@@ -462,6 +472,7 @@ final class PeerImpl implements Peer {
 
     @Override
     public JSONObject send(final JSONStreamAware request, int maxResponseSize) {
+        long startTime = System.nanoTime();
         JSONObject response = null;
         String log = null;
         boolean showLog = false;
@@ -602,6 +613,7 @@ final class PeerImpl implements Peer {
         if (showLog) {
             Logger.logMessage(log + "\n");
         }
+        sendTime.update(System.nanoTime() - startTime);
 
         return response;
     }
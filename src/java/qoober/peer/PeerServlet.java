@@ -23,6 +23,7 @@ import qoober.util.CountingInputReader;
 import qoober.util.CountingOutputWriter;
 import qoober.util.JSON;
 import qoober.util.Logger;
+import qoober.util.Metrics;
 import org.eclipse.jetty.websocket.servlet.ServletUpgradeRequest;
 import org.eclipse.jetty.websocket.servlet.ServletUpgradeResponse;
 import org.eclipse.jetty.websocket.servlet.WebSocketCreator;
@@ -287,7 +288,11 @@ public final class PeerServlet extends WebSocketServlet {
                     return LIGHT_CLIENT;
                 }
             }
-            return peerRequestHandler.processRequest(request, peer);
+            long startTime = System.nanoTime();
+            JSONStreamAware response = peerRequestHandler.processRequest(request, peer);
+            Metrics.histogram("qoober_peer_request_processing_seconds", "Time to process a request received from a peer",
+                    "requestType", (String)request.get("requestType")).update(System.nanoTime() - startTime);
+            return response;
         } catch (RuntimeException|ParseException|IOException e) {
             Logger.logDebugMessage("Error processing POST request: " + e.toString());
             peer.blacklist(e);
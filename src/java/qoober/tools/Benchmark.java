@@ -0,0 +1,377 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober.tools;
+
+import qoober.Account;
+import qoober.Attachment;
+import qoober.Block;
+import qoober.CurrencyExchangeOffer;
+import qoober.CurrencyMinting;
+import qoober.Paramining;
+import qoober.Qoober;
+import qoober.Transaction;
+import qoober.crypto.Crypto;
+import qoober.crypto.HashFunction;
+import qoober.crypto.KNV25;
+import qoober.db.DbIterator;
+import qoober.mint.MintingHasher;
+import qoober.util.Convert;
+import qoober.util.JSON;
+import qoober.util.Logger;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Measure the throughput of the node hot paths
+ *
+ * Each benchmark runs its operation for a warm-up period and then for a number of measurement
+ * periods, and the operation rate of each measurement period is recorded. The results are
+ * printed and written to a JSON file, so the results of different builds can be compared.
+ *
+ * The database benchmarks open the database of the configured network in offline mode and use
+ * the generators of the most recent blocks as sample accounts, so the node must not be running.
+ * The dividend benchmarks credit a dividend to 50000 holders within a transaction that is rolled
+ * back, the holders missing from the database are created by each run. The dividend.accounts
+ * benchmark only creates the holders, so its time is the setup cost included in the other two.
+ * The exchange benchmarks publish 2000 currency exchange offers within a transaction that is rolled
+ * back. The exchange.offers benchmark only publishes the offers, exchange.available then looks up
+ * the units available to buy 1000 times and exchange.buy buys currency from 500 of the offers with
+ * 100 purchases.
+ *
+ * The crypto.verify benchmark uses the verifying key cache and its sample keys are cached after
+ * the first verifications, while crypto.verifyColdKey prepares the public key for each verification.
+ * The -fuzz option first compares the signature verification with a verifying key against the
+ * reference implementation for the given number of random signature values, hashes and public
+ * keys. Each public key is checked twice, the second check uses the cached verifying key, and the
+ * benchmarks are not run if a result differs.
+ *
+ * To run the benchmarks on Linux or Mac:
+ *
+ *   java -cp "classes:lib/*:conf" qoober.tools.Benchmark [-db] [-filter name] [-warmup seconds]
+ *                                                        [-iterations count] [-fuzz count] [-out file]
+ */
+public final class Benchmark {
+
+    /**
+     * Benchmark operation
+     */
+    @FunctionalInterface
+    private interface Operation {
+
+        /**
+         * Run the operation once
+         *
+         * @param   i                   Invocation number
+         * @return                      Value derived from the result, so the work cannot be eliminated
+         * @throws  Exception           Operation failed
+         */
+        long run(int i) throws Exception;
+    }
+
+    /** Length of a measurement period (milliseconds) */
+    private static final long PERIOD = 1000;
+
+    /** Number of dividend holders */
+    private static final int DIVIDEND_HOLDERS = 50000;
+
+    /** Number of currency exchange offers */
+    private static final int EXCHANGE_OFFERS = 2000;
+
+    /** Accumulated operation results */
+    private static volatile long sink;
+
+    /**
+     * Run the benchmarks
+     *
+     * @param   args                Command line arguments
+     */
+    public static void main(String[] args) {
+        boolean useDb = false;
+        String filter = null;
+        int warmup = 3;
+        int iterations = 5;
+        int fuzz = 0;
+        String outFile = "benchmark.json";
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-db":
+                    useDb = true;
+                    break;
+                case "-filter":
+                    filter = args[++i];
+                    break;
+                case "-warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "-iterations":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "-fuzz":
+                    fuzz = Integer.parseInt(args[++i]);
+                    break;
+                case "-out":
+                    outFile = args[++i];
+                    break;
+                default:
+                    System.out.println("Usage: Benchmark [-db] [-filter name] [-warmup seconds] [-iterations count] [-fuzz count] [-out file]");
+                    System.exit(1);
+            }
+        }
+        int exitCode = 0;
+        try {
+            if (useDb) {
+                Properties properties = new Properties();
+                properties.setProperty("qoober.isOffline", "true");
+                properties.setProperty("qoober.enableAPIServer", "false");
+                properties.setProperty("qoober.shareMyAddress", "false");
+                properties.setProperty("qoober.disableGenerateBlocksThread", "true");
+                Qoober.init(properties);
+            } else {
+                Logger.init();
+            }
+            JSONObject json = new JSONObject();
+            if (fuzz > 0) {
+                int mismatches = checkVerifyingKeys(fuzz);
+                System.out.println(String.format("Verifying key check: %d public keys, %d mismatches", fuzz, mismatches));
+                json.put("fuzzCount", fuzz);
+                json.put("fuzzMismatches", mismatches);
+                if (mismatches != 0) {
+                    throw new IllegalStateException("Signature verification differs from the reference implementation");
+                }
+            }
+            Map<String, Operation> benchmarks = new LinkedHashMap<>();
+            addCryptoBenchmarks(benchmarks);
+            addTransactionBenchmarks(benchmarks);
+            if (useDb) {
+                addDbBenchmarks(benchmarks);
+            }
+            JSONArray results = new JSONArray();
+            for (Map.Entry<String, Operation> entry : benchmarks.entrySet()) {
+                if (filter == null || entry.getKey().contains(filter)) {
+                    results.add(measure(entry.getKey(), entry.getValue(), warmup, iterations));
+                }
+            }
+            json.put("version", Qoober.VERSION);
+            json.put("javaVersion", System.getProperty("java.version"));
+            json.put("timestamp", System.currentTimeMillis());
+            json.put("warmupSeconds", warmup);
+            json.put("iterations", iterations);
+            json.put("results", results);
+            try (Writer writer = new FileWriter(outFile)) {
+                JSON.writeJSONString(json, writer);
+            }
+            System.out.println("Results written to " + outFile);
+        } catch (Exception e) {
+            e.printStackTrace();
+            exitCode = 1;
+        }
+        if (useDb) {
+            Qoober.shutdown();
+        } else {
+            Logger.shutdown();
+        }
+        System.exit(exitCode);
+    }
+
+    private static void addCryptoBenchmarks(Map<String, Operation> benchmarks) {
+        Random random = new Random(0);
+        String[] secretPhrases = new String[100];
+        byte[][] publicKeys = new byte[secretPhrases.length][];
+        byte[][] signatures = new byte[secretPhrases.length][];
+        byte[] message = new byte[256];
+        random.nextBytes(message);
+        for (int i = 0; i < secretPhrases.length; i++) {
+            secretPhrases[i] = "benchmark " + random.nextLong();
+            publicKeys[i] = Crypto.getPublicKey(secretPhrases[i]);
+            signatures[i] = Crypto.sign(message, secretPhrases[i]);
+        }
+        benchmarks.put("crypto.sign", i -> Crypto.sign(message, secretPhrases[i % secretPhrases.length])[0]);
+        benchmarks.put("crypto.verify", i -> {
+            int n = i % secretPhrases.length;
+            return Crypto.verify(signatures[n], message, publicKeys[n]) ? 1 : 0;
+        });
+        benchmarks.put("crypto.verifyColdKey", i -> {
+            int n = i % secretPhrases.length;
+            return Crypto.verify(signatures[n], message, publicKeys[n], false) ? 1 : 0;
+        });
+        byte[] input = new byte[1024];
+        random.nextBytes(input);
+        byte[] key = Crypto.getSharedKey(Crypto.getPrivateKey(secretPhrases[0]), publicKeys[1]);
+        byte[] encrypted = Crypto.aesEncrypt(input, key);
+        byte[] gcmEncrypted = Crypto.aesGCMEncrypt(input, key);
+        benchmarks.put("crypto.aesEncrypt", i -> Crypto.aesEncrypt(input, key)[0]);
+        benchmarks.put("crypto.aesDecrypt", i -> Crypto.aesDecrypt(encrypted, key)[0]);
+        benchmarks.put("crypto.aesGCMEncrypt", i -> Crypto.aesGCMEncrypt(input, key)[0]);
+        benchmarks.put("crypto.aesGCMDecrypt", i -> Crypto.aesGCMDecrypt(gcmEncrypted, key)[0]);
+        benchmarks.put("knv25.hash", i -> KNV25.hash(input)[0]);
+        byte[] mintingInput = Arrays.copyOf(input, 40);
+        for (HashFunction hashFunction : HashFunction.values()) {
+            byte[] data = hashFunction == HashFunction.SCRYPT ? mintingInput : input;
+            benchmarks.put("hash." + hashFunction.name().toLowerCase(Locale.ROOT), i -> hashFunction.hash(data)[0]);
+        }
+        byte[] target = new byte[32];
+        for (HashFunction hashFunction : CurrencyMinting.acceptedHashFunctions) {
+            MintingHasher hasher = new MintingHasher(hashFunction, random.nextLong(), 1, 1, random.nextLong(), target);
+            benchmarks.put("mint." + hashFunction.name().toLowerCase(Locale.ROOT), i -> hasher.meetsTarget(i) ? 1 : 0);
+        }
+    }
+
+    private static int checkVerifyingKeys(int count) {
+        Random random = new Random(0);
+        byte[] v = new byte[32];
+        byte[] h = new byte[32];
+        byte[] keySeed = new byte[32];
+        int mismatches = 0;
+        for (int i = 0; i < count; i++) {
+            byte[] publicKey;
+            if ((i & 1) == 0) {
+                random.nextBytes(keySeed);
+                publicKey = Crypto.getPublicKey(keySeed);
+            } else {
+                publicKey = new byte[32];
+                random.nextBytes(publicKey);
+            }
+            for (int n = 0; n < 2; n++) {
+                random.nextBytes(v);
+                random.nextBytes(h);
+                if (!Crypto.checkVerifyingKey(v, h, publicKey)) {
+                    mismatches++;
+                }
+            }
+        }
+        return mismatches;
+    }
+
+    private static void addTransactionBenchmarks(Map<String, Operation> benchmarks) throws Exception {
+        String secretPhrase = "benchmark";
+        Transaction transaction = Qoober.newTransactionBuilder(Crypto.getPublicKey(secretPhrase), 100000000, 100000000,
+                (short)1440, Attachment.ORDINARY_PAYMENT)
+                .recipientId(Convert.parseUnsignedLong("7114946486381367146"))
+                .timestamp(1000)
+                .ecBlockHeight(0)
+                .ecBlockId(0)
+                .build(secretPhrase);
+        byte[] bytes = transaction.getBytes();
+        JSONObject transactionJSON = (JSONObject)JSONValue.parse(JSON.toJSONString(transaction.getJSONObject()));
+        benchmarks.put("transaction.parseBytes", i -> Qoober.newTransactionBuilder(bytes).build().getId());
+        benchmarks.put("transaction.parseJSON", i -> Qoober.newTransactionBuilder(transactionJSON).build().getId());
+        benchmarks.put("transaction.toJSONString", i -> JSON.toJSONString(transactionJSON).length());
+    }
+
+    private static void addDbBenchmarks(Map<String, Operation> benchmarks) throws Exception {
+        Set<Long> accountIds = new LinkedHashSet<>();
+        List<Block> blocks = new ArrayList<>();
+        try (DbIterator<? extends Block> iterator = Qoober.getBlockchain().getBlocks(0, 99)) {
+            for (Block block : iterator) {
+                blocks.add(block);
+                accountIds.add(block.getGeneratorId());
+            }
+        }
+        if (blocks.isEmpty()) {
+            System.out.println("The database has no blocks, database benchmarks skipped");
+            return;
+        }
+        long[] ids = accountIds.stream().mapToLong(Long::longValue).toArray();
+        benchmarks.put("block.toJSONString", i -> JSON.toJSONString(blocks.get(i % blocks.size()).getJSONObject()).length());
+        benchmarks.put("account.get", i -> Account.getAccount(ids[i % ids.length]).getBalanceNQT());
+        benchmarks.put("paramining.calculate", i -> Paramining.calculate(ids[i % ids.length]));
+        Random random = new Random(0);
+        long[] holderIds = new long[DIVIDEND_HOLDERS];
+        for (int n = 0; n < holderIds.length; n++) {
+            long id = n < ids.length ? ids[n] : random.nextLong();
+            holderIds[n] = id != 0 ? id : 1;
+        }
+        benchmarks.put("dividend.accounts50k", i -> {
+            Account.benchmarkDividendPayment(holderIds, 0, false);
+            return holderIds.length;
+        });
+        benchmarks.put("dividend.single50k", i -> {
+            Account.benchmarkDividendPayment(holderIds, 100, false);
+            return holderIds.length;
+        });
+        benchmarks.put("dividend.bulk50k", i -> {
+            Account.benchmarkDividendPayment(holderIds, 100, true);
+            return holderIds.length;
+        });
+        String secretPhrase = "benchmark";
+        Transaction transaction = Qoober.newTransactionBuilder(Crypto.getPublicKey(secretPhrase), 0, 100000000,
+                (short)1440, Attachment.ORDINARY_PAYMENT)
+                .recipientId(Convert.parseUnsignedLong("7114946486381367146"))
+                .timestamp(1000)
+                .ecBlockHeight(0)
+                .ecBlockId(0)
+                .build(secretPhrase);
+        long currencyId = transaction.getId();
+        long[] offerIds = Arrays.copyOf(holderIds, EXCHANGE_OFFERS);
+        benchmarks.put("exchange.offers", i -> CurrencyExchangeOffer.benchmarkExchange(transaction, currencyId, offerIds, 0, 0));
+        benchmarks.put("exchange.available", i -> CurrencyExchangeOffer.benchmarkExchange(transaction, currencyId, offerIds, 1000, 0));
+        benchmarks.put("exchange.buy", i -> CurrencyExchangeOffer.benchmarkExchange(transaction, currencyId, offerIds, 0, 100));
+    }
+
+    private static JSONObject measure(String name, Operation operation, int warmup, int iterations) throws Exception {
+        int invocation = 0;
+        long end = System.currentTimeMillis() + warmup * 1000L;
+        while (System.currentTimeMillis() < end) {
+            sink += operation.run(invocation++);
+        }
+        JSONArray samples = new JSONArray();
+        double sum = 0;
+        double sumOfSquares = 0;
+        for (int n = 0; n < iterations; n++) {
+            int count = 0;
+            long start = System.nanoTime();
+            long elapsed;
+            do {
+                sink += operation.run(invocation++);
+                count++;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < PERIOD * 1000000L);
+            double rate = (double)count * 1e9 / (double)elapsed;
+            samples.add(round(rate));
+            sum += rate;
+            sumOfSquares += rate * rate;
+        }
+        double mean = sum / iterations;
+        double deviation = iterations > 1 ? Math.sqrt(Math.max(sumOfSquares - sum * mean, 0) / (iterations - 1)) : 0;
+        System.out.println(String.format("%-24s %14.3f ops/s  +- %.3f", name, mean, deviation));
+        JSONObject result = new JSONObject();
+        result.put("name", name);
+        result.put("unit", "ops/s");
+        result.put("score", round(mean));
+        result.put("deviation", round(deviation));
+        result.put("samples", samples);
+        return result;
+    }
+
+    private static double round(double rate) {
+        return Math.round(rate * 1000.0) / 1000.0;
+    }
+}
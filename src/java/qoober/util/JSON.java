@@ -38,10 +38,10 @@ public final class JSON {
 
     public static JSONStreamAware prepare(final JSONObject json) {
         return new JSONStreamAware() {
-            private final char[] jsonChars = JSON.toJSONString(json).toCharArray();
+            private final String jsonString = JSON.toJSONString(json);
             @Override
             public void writeJSONString(Writer out) throws IOException {
-                out.write(jsonChars);
+                out.write(jsonString);
             }
         };
     }
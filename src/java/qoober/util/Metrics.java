@@ -0,0 +1,318 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Node metrics registry
+ *
+ * The registry holds counters, gauges and latency histograms. A metric is registered the first
+ * time it is requested and the same instance is returned for later requests, so a metric is
+ * normally kept in a static field by the code updating it. Updates do not lock, counters and
+ * histogram buckets are LongAdder instances and gauges are read when the metrics are written.
+ *
+ * A metric may have a single label, each label value is a separate metric of the same family.
+ * Label values must come from a bounded set, such as request types or table names.
+ *
+ * The metrics are written in the Prometheus text exposition format.
+ */
+public final class Metrics {
+
+    /**
+     * Metric type
+     */
+    private enum Type {
+        COUNTER("counter"), GAUGE("gauge"), HISTOGRAM("histogram");
+
+        private final String name;
+
+        Type(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Metric family
+     */
+    private static final class Family {
+
+        /** Family name */
+        private final String name;
+
+        /** Help text */
+        private final String help;
+
+        /** Metric type */
+        private final Type type;
+
+        /** Label name or null */
+        private final String labelName;
+
+        /** Metrics by label value, the label value is an empty string if the family has no label */
+        private final ConcurrentMap<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+        private Family(String name, String help, Type type, String labelName) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelName = labelName;
+        }
+    }
+
+    /**
+     * Counter
+     */
+    public static final class Counter {
+
+        /** Counter value */
+        private final LongAdder value = new LongAdder();
+
+        private Counter() {}
+
+        /**
+         * Increment the counter
+         */
+        public void increment() {
+            value.increment();
+        }
+
+        /**
+         * Add to the counter
+         *
+         * @param   delta               Value to add, must not be negative
+         */
+        public void add(long delta) {
+            value.add(delta);
+        }
+
+        /**
+         * Get the counter value
+         *
+         * @return                      Counter value
+         */
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * Latency histogram
+     *
+     * The bucket bounds are powers of two from 1 microsecond to about 67 seconds, so the bucket of
+     * a value is found from its leading zero count and the relative error of a bucket is the same
+     * at every scale.
+     */
+    public static final class Histogram {
+
+        /** Number of bounded buckets */
+        private static final int BUCKETS = 27;
+
+        /** Bucket counts, the last bucket holds the values exceeding the largest bound */
+        private final LongAdder[] buckets = new LongAdder[BUCKETS + 1];
+
+        /** Sum of the values (nanoseconds) */
+        private final LongAdder sum = new LongAdder();
+
+        private Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Record a value
+         *
+         * @param   nanos               Elapsed time (nanoseconds)
+         */
+        public void update(long nanos) {
+            long micros = (Math.max(nanos, 0) + 999) / 1000;
+            int index = micros <= 1 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(micros - 1), BUCKETS);
+            buckets[index].increment();
+            sum.add(nanos);
+        }
+
+        /**
+         * Get the number of recorded values
+         *
+         * @return                      Number of values
+         */
+        public long getCount() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        /**
+         * Get the sum of the recorded values
+         *
+         * @return                      Sum of the values (nanoseconds)
+         */
+        public long getSum() {
+            return sum.sum();
+        }
+    }
+
+    /** Metric families by name */
+    private static final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    private Metrics() {}
+
+    /**
+     * Get a counter
+     *
+     * @param   name                    Metric name
+     * @param   help                    Help text
+     * @return                          Counter
+     */
+    public static Counter counter(String name, String help) {
+        return (Counter)getFamily(name, help, Type.COUNTER, null).metrics.computeIfAbsent("", k -> new Counter());
+    }
+
+    /**
+     * Get a labeled counter
+     *
+     * @param   name                    Metric name
+     * @param   help                    Help text
+     * @param   labelName               Label name
+     * @param   labelValue              Label value
+     * @return                          Counter
+     */
+    public static Counter counter(String name, String help, String labelName, String labelValue) {
+        return (Counter)getFamily(name, help, Type.COUNTER, labelName).metrics.computeIfAbsent(labelValue, k -> new Counter());
+    }
+
+    /**
+     * Get a latency histogram
+     *
+     * @param   name                    Metric name
+     * @param   help                    Help text
+     * @return                          Histogram
+     */
+    public static Histogram histogram(String name, String help) {
+        return (Histogram)getFamily(name, help, Type.HISTOGRAM, null).metrics.computeIfAbsent("", k -> new Histogram());
+    }
+
+    /**
+     * Get a labeled latency histogram
+     *
+     * @param   name                    Metric name
+     * @param   help                    Help text
+     * @param   labelName               Label name
+     * @param   labelValue              Label value
+     * @return                          Histogram
+     */
+    public static Histogram histogram(String name, String help, String labelName, String labelValue) {
+        return (Histogram)getFamily(name, help, Type.HISTOGRAM, labelName).metrics.computeIfAbsent(labelValue, k -> new Histogram());
+    }
+
+    /**
+     * Register a gauge, replacing the current supplier if the gauge is already registered
+     *
+     * @param   name                    Metric name
+     * @param   help                    Help text
+     * @param   supplier                Supplies the gauge value when the metrics are written
+     */
+    public static void gauge(String name, String help, LongSupplier supplier) {
+        getFamily(name, help, Type.GAUGE, null).metrics.put("", supplier);
+    }
+
+    /**
+     * Write the metrics in the Prometheus text exposition format
+     *
+     * @param   writer                  Output writer
+     * @throws  IOException             I/O error occurred
+     */
+    public static void writePrometheus(Writer writer) throws IOException {
+        StringBuilder sb = new StringBuilder(256);
+        for (Family family : families.values()) {
+            sb.setLength(0);
+            sb.append("# HELP ").append(family.name).append(' ').append(family.help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+            sb.append("# TYPE ").append(family.name).append(' ').append(family.type.name).append('\n');
+            for (Map.Entry<String, Object> entry : family.metrics.entrySet()) {
+                String label = family.labelName != null ?
+                        family.labelName + "=\"" + escape(entry.getKey()) + "\"" : null;
+                Object metric = entry.getValue();
+                switch (family.type) {
+                    case COUNTER:
+                        appendSample(sb, family.name, label, Long.toString(((Counter)metric).get()));
+                        break;
+                    case GAUGE:
+                        long value;
+                        try {
+                            value = ((LongSupplier)metric).getAsLong();
+                        } catch (RuntimeException e) {
+                            Logger.logDebugMessage("Unable to read gauge " + family.name + ": " + e.toString());
+                            continue;
+                        }
+                        appendSample(sb, family.name, label, Long.toString(value));
+                        break;
+                    case HISTOGRAM:
+                        appendHistogram(sb, family.name, label, (Histogram)metric);
+                        break;
+                }
+            }
+            writer.write(sb.toString());
+        }
+    }
+
+    private static Family getFamily(String name, String help, Type type, String labelName) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = families.computeIfAbsent(name, k -> new Family(name, help, type, labelName));
+        }
+        if (family.type != type || (family.labelName == null ? labelName != null : !family.labelName.equals(labelName))) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered with a different type or label");
+        }
+        return family;
+    }
+
+    private static void appendHistogram(StringBuilder sb, String name, String label, Histogram histogram) {
+        String prefix = label != null ? label + "," : "";
+        long count = 0;
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            count += histogram.buckets[i].sum();
+            String bound = String.format(Locale.ROOT, "%.6f", (double)(1L << i) / 1000000.0);
+            appendSample(sb, name + "_bucket", prefix + "le=\"" + bound + "\"", Long.toString(count));
+        }
+        count += histogram.buckets[Histogram.BUCKETS].sum();
+        appendSample(sb, name + "_bucket", prefix + "le=\"+Inf\"", Long.toString(count));
+        appendSample(sb, name + "_sum", label, String.format(Locale.ROOT, "%.9f", (double)histogram.getSum() / 1000000000.0));
+        appendSample(sb, name + "_count", label, Long.toString(count));
+    }
+
+    private static void appendSample(StringBuilder sb, String name, String labels, String value) {
+        sb.append(name);
+        if (labels != null) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
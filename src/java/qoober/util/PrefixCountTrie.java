@@ -0,0 +1,283 @@
+/*
+ * Copyright © 2013-2016 The Qoober Core Developers.
+ * Copyright © 2016-2020 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Qoober software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package qoober.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Sorted trie of string keys with positive counts
+ *
+ * Each node keeps its children in sorted arrays, so the keys below a node are visited in
+ * ascending order and a prefix query only visits the keys starting with the prefix. The
+ * keys are also kept in a set ordered by descending count and ascending key.
+ *
+ * All methods are synchronized.
+ */
+public final class PrefixCountTrie {
+
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    /** Order by descending count and ascending key */
+    private static final Comparator<Entry> countComparator = (e1, e2) -> {
+        int c = Integer.compare(e2.count, e1.count);
+        return c != 0 ? c : e1.key.compareTo(e2.key);
+    };
+
+    /**
+     * Trie node
+     */
+    private static final class Node {
+
+        /** Child characters in ascending order */
+        private char[] keys = NO_KEYS;
+
+        /** Child nodes */
+        private Node[] children = NO_CHILDREN;
+
+        /** Count of the key ending at this node, 0 if there is no such key */
+        private int count;
+
+        private Node getChild(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        private Node addChild(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            if (index >= 0) {
+                return children[index];
+            }
+            index = -(index + 1);
+            Node child = new Node();
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            newKeys[index] = c;
+            newChildren[index] = child;
+            System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+
+        private void removeChild(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            if (index < 0) {
+                return;
+            }
+            if (keys.length == 1) {
+                keys = NO_KEYS;
+                children = NO_CHILDREN;
+                return;
+            }
+            char[] newKeys = new char[keys.length - 1];
+            Node[] newChildren = new Node[children.length - 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(keys, index + 1, newKeys, index, keys.length - index - 1);
+            System.arraycopy(children, index + 1, newChildren, index, children.length - index - 1);
+            keys = newKeys;
+            children = newChildren;
+        }
+
+        private boolean isEmpty() {
+            return count == 0 && keys.length == 0;
+        }
+    }
+
+    /**
+     * Key and count
+     */
+    public static final class Entry {
+
+        private final String key;
+        private final int count;
+
+        private Entry(String key, int count) {
+            this.key = key;
+            this.count = count;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+
+    /** Root node for the empty key */
+    private final Node root = new Node();
+
+    /** Entries ordered by count */
+    private final TreeSet<Entry> entriesByCount = new TreeSet<>(countComparator);
+
+    /**
+     * Remove all keys
+     */
+    public synchronized void clear() {
+        root.keys = NO_KEYS;
+        root.children = NO_CHILDREN;
+        root.count = 0;
+        entriesByCount.clear();
+    }
+
+    /**
+     * Get the number of keys
+     *
+     * @return                          Number of keys
+     */
+    public synchronized int size() {
+        return entriesByCount.size();
+    }
+
+    /**
+     * Get the count of a key
+     *
+     * @param   key                     Key
+     * @return                          Count or 0 if the key is not found
+     */
+    public synchronized int getCount(String key) {
+        Node node = root;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.getChild(key.charAt(i));
+        }
+        return node != null ? node.count : 0;
+    }
+
+    /**
+     * Add to the count of a key
+     *
+     * @param   key                     Key
+     * @param   delta                   Amount to add, the key is removed if the new count is not positive
+     */
+    public synchronized void add(String key, int delta) {
+        set(key, getCount(key) + delta);
+    }
+
+    /**
+     * Set the count of a key
+     *
+     * @param   key                     Key
+     * @param   count                   New count, the key is removed if the count is not positive
+     */
+    public synchronized void set(String key, int count) {
+        Node[] path = new Node[key.length() + 1];
+        Node node = root;
+        path[0] = node;
+        for (int i = 0; i < key.length(); i++) {
+            Node child = node.getChild(key.charAt(i));
+            if (child == null) {
+                if (count <= 0) {
+                    return;
+                }
+                child = node.addChild(key.charAt(i));
+            }
+            node = child;
+            path[i + 1] = node;
+        }
+        if (node.count > 0) {
+            entriesByCount.remove(new Entry(key, node.count));
+        }
+        if (count > 0) {
+            node.count = count;
+            entriesByCount.add(new Entry(key, count));
+            return;
+        }
+        node.count = 0;
+        for (int i = key.length(); i > 0 && path[i].isEmpty(); i--) {
+            path[i - 1].removeChild(key.charAt(i - 1));
+        }
+    }
+
+    /**
+     * Get keys ordered by descending count and ascending key
+     *
+     * @param   from                    Index of the first entry
+     * @param   to                      Index of the last entry, a negative value or a value less
+     *                                  than the first index returns all remaining entries
+     * @return                          Entries
+     */
+    public synchronized List<Entry> getEntries(int from, int to) {
+        int limit = getLimit(from, to);
+        List<Entry> entries = new ArrayList<>(Math.min(limit, 100));
+        Iterator<Entry> it = entriesByCount.iterator();
+        for (int i = 0; i < from && it.hasNext(); i++) {
+            it.next();
+        }
+        while (entries.size() < limit && it.hasNext()) {
+            entries.add(it.next());
+        }
+        return entries;
+    }
+
+    /**
+     * Get the keys starting with a prefix in ascending order
+     *
+     * @param   prefix                  Key prefix
+     * @param   from                    Index of the first entry
+     * @param   to                      Index of the last entry, a negative value or a value less
+     *                                  than the first index returns all remaining entries
+     * @return                          Entries
+     */
+    public synchronized List<Entry> getEntries(String prefix, int from, int to) {
+        List<Entry> entries = new ArrayList<>();
+        Node node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.getChild(prefix.charAt(i));
+        }
+        if (node != null) {
+            collect(node, new StringBuilder(prefix), new int[] {Math.max(from, 0)}, getLimit(from, to), entries);
+        }
+        return entries;
+    }
+
+    private static boolean collect(Node node, StringBuilder key, int[] skip, int limit, List<Entry> entries) {
+        if (node.count > 0) {
+            if (skip[0] > 0) {
+                skip[0]--;
+            } else {
+                entries.add(new Entry(key.toString(), node.count));
+                if (entries.size() >= limit) {
+                    return false;
+                }
+            }
+        }
+        for (int i = 0; i < node.keys.length; i++) {
+            key.append(node.keys[i]);
+            boolean more = collect(node.children[i], key, skip, limit, entries);
+            key.setLength(key.length() - 1);
+            if (!more) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int getLimit(int from, int to) {
+        return to >= 0 && to >= from && to < Integer.MAX_VALUE ? to - Math.max(from, 0) + 1 : Integer.MAX_VALUE;
+    }
+}